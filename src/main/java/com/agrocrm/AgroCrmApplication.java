@@ -2,8 +2,10 @@ package com.agrocrm;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class AgroCrmApplication {
     public static void main(String[] args) {
         SpringApplication.run(AgroCrmApplication.class, args);
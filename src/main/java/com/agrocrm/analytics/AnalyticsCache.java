@@ -0,0 +1,148 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.config.DataChangedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный по размеру и времени жизни кэш результатов аналитических и
+ * справочных запросов. Ключ - эндпоинт с параметрами; запись помнит таблицы,
+ * из которых построена, и удаляется по {@link DataChangedEvent} любой из них.
+ *
+ * Для каждого результата хранится ETag, поэтому повторный запрос с
+ * If-None-Match получает 304 без тела и без сериализации. События локальны
+ * для узла: изменения, сделанные на других узлах, видны после истечения TTL.
+ */
+@Component
+public class AnalyticsCache {
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsCache.class);
+
+    private record Entry(Object value, String etag, Set<String> tables, long loadedAtNanos) {}
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Счетчики изменений по таблицам и общий для invalidateAll; результат,
+    // вычисленный во время изменения его таблиц, в кэш не попадает. Изменения
+    // других таблиц (например, field_cost во время импорта топлива) не мешают
+    // кэшировать отчеты, которые от них не зависят
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final ObjectMapper objectMapper;
+    private final long ttlNanos;
+    private final int maxSize;
+
+    public AnalyticsCache(ObjectMapper objectMapper,
+                          @Value("${app.analytics.cache.ttlSeconds:300}") long ttlSeconds,
+                          @Value("${app.analytics.cache.maxSize:1000}") int maxSize) {
+        this.objectMapper = objectMapper;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Отдает результат из кэша или вычисляет его. Если ETag совпадает с
+     * If-None-Match, возвращает 304 без тела.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResponseEntity<T> respond(String key, Set<String> tables, WebRequest request, Supplier<T> loader) {
+        Entry entry = entry(key, tables, loader);
+        if (request.checkNotModified(entry.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(entry.etag()).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok().eTag(entry.etag()).cacheControl(CacheControl.noCache()).body((T) entry.value());
+    }
+
+    /**
+     * Результат из кэша или вычисленный заново, без ETag; для составных
+     * ответов, части которых совпадают с отдельными эндпоинтами.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Set<String> tables, Supplier<T> loader) {
+        return (T) entry(key, tables, loader).value();
+    }
+
+    private Entry entry(String key, Set<String> tables, Supplier<?> loader) {
+        Entry entry = entries.get(key);
+        if (entry == null || System.nanoTime() - entry.loadedAtNanos() > ttlNanos) {
+            entry = load(key, tables, loader);
+        }
+        return entry;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDataChanged(DataChangedEvent event) {
+        generations.computeIfAbsent(event.table(), t -> new AtomicLong()).incrementAndGet();
+        entries.values().removeIf(e -> e.tables().contains(event.table()));
+    }
+
+    public void invalidateAll() {
+        globalGeneration.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Сумма счетчиков таблиц; счетчики только растут, поэтому равенство
+     * сумм означает, что ни одна из таблиц не менялась.
+     */
+    private long generationOf(Set<String> tables) {
+        long sum = globalGeneration.get();
+        for (String table : tables) {
+            sum += generations.computeIfAbsent(table, t -> new AtomicLong()).get();
+        }
+        return sum;
+    }
+
+    private Entry load(String key, Set<String> tables, Supplier<?> loader) {
+        long loadedGeneration = generationOf(tables);
+        Object value = loader.get();
+        String etag;
+        try {
+            etag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(value)) + "\"";
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to compute ETag for " + key, e);
+        }
+        Entry entry = new Entry(value, etag, tables, System.nanoTime());
+        if (generationOf(tables) == loadedGeneration) {
+            if (entries.size() >= maxSize) {
+                evict();
+            }
+            entries.put(key, entry);
+            // Изменение между проверкой и записью могло уже пройти мимо этой записи
+            if (generationOf(tables) != loadedGeneration) {
+                entries.remove(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> now - e.loadedAtNanos() > ttlNanos);
+
+        // Если истекших записей не хватило, освобождаем десятую часть кэша
+        if (entries.size() >= maxSize) {
+            int toRemove = Math.max(1, maxSize / 10);
+            Iterator<String> it = entries.keySet().iterator();
+            while (toRemove-- > 0 && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+            log.debug("Analytics cache is full, evicted entries: size={}", entries.size());
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.agrocrm.analytics;
 
-import org.springframework.jdbc.core.JdbcTemplate;
+import com.agrocrm.config.DataChangedEvent;
+import com.agrocrm.config.TimeRange;
+import com.agrocrm.domain.maintenance.MaintenanceRepository;
+import com.agrocrm.errors.BadRequestException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -13,8 +22,11 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @RestController
@@ -22,9 +34,49 @@ import java.util.UUID;
 @Tag(name = "Аналитика", description = "API для получения аналитических данных и KPI")
 @SecurityRequirement(name = "Bearer Authentication")
 public class AnalyticsController {
-    private final JdbcTemplate jdbc;
+    // Период KPI времени работы техники, если границы не заданы
+    private static final int DEFAULT_UPTIME_DAYS = 30;
 
-    public AnalyticsController(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    private final FieldCostRepository fieldCosts;
+    private final AnalyticsCache cache;
+    private final ReferenceDataSnapshot referenceData;
+    private final MaintenanceRepository maintenance;
+    private final RollupService rollups;
+    private final DashboardService dashboard;
+
+    public AnalyticsController(FieldCostRepository fieldCosts, AnalyticsCache cache,
+                               ReferenceDataSnapshot referenceData, MaintenanceRepository maintenance,
+                               RollupService rollups, DashboardService dashboard) {
+        this.fieldCosts = fieldCosts;
+        this.cache = cache;
+        this.referenceData = referenceData;
+        this.maintenance = maintenance;
+        this.rollups = rollups;
+        this.dashboard = dashboard;
+    }
+
+    @GetMapping("/dashboard")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','AGRONOMIST','MECHANIC')")
+    @Operation(
+        summary = "Сводка для главной страницы",
+        description = "Возвращает одним запросом стоимость на гектар, время работы техники, ночные заправки, " +
+                      "истекающие документы и справочники - только части, доступные ролям пользователя. " +
+                      "Части загружаются параллельно; не успевшие за отведенное время перечисляются в failed, " +
+                      "а partial = true"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Сводка получена, возможно частично"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public Map<String,Object> dashboard(
+        @Parameter(description = "Сезон для стоимости на гектар (опционально)") @RequestParam(value = "season", required = false) String season,
+        Authentication authentication) {
+        List<String> roles = authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .map(authority -> authority.startsWith("ROLE_") ? authority.substring(5) : authority)
+                .toList();
+        return dashboard.load(roles, season);
+    }
 
     @GetMapping("/seasons")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','AGRONOMIST')")
@@ -34,54 +86,162 @@ public class AnalyticsController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список сезонов успешно получен"),
+        @ApiResponse(responseCode = "304", description = "Список не изменился с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<String> getAvailableSeasons() {
-        String sql = "SELECT DISTINCT season FROM field WHERE season IS NOT NULL ORDER BY season DESC";
-        return jdbc.queryForList(sql, String.class);
+    public ResponseEntity<List<String>> getAvailableSeasons(WebRequest request) {
+        return referenceData.respond(request, ReferenceDataSnapshot.Snapshot::seasons);
     }
 
     @GetMapping("/kpi/cost-per-ha")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','AGRONOMIST')")
     @Operation(
         summary = "Стоимость на гектар",
-        description = "Рассчитывает стоимость материалов и топлива на гектар для каждого поля"
+        description = "Возвращает стоимость материалов и топлива на гектар для каждого поля по накопленным затратам"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Данные по стоимости на гектар получены"),
+        @ApiResponse(responseCode = "304", description = "Данные не изменились с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<Map<String,Object>> costPerHa(
-        @Parameter(description = "Сезон для фильтрации (опционально)") @RequestParam(value = "season", required = false) String season) {
-        String sql = "SELECT f.id as field_id, f.name, " +
-                     "COALESCE(SUM(mt.qty * mb.unit_price),0) + " +
-                     "COALESCE(SUM(ft.amount),0) AS cost, " +
-                     "f.area_ha AS area " +
-                     "FROM field f " +
-                     "LEFT JOIN task t ON t.field_id = f.id " +
-                     "LEFT JOIN material_issue mt ON mt.task_id = t.id " +
-                     "LEFT JOIN material_batch mb ON mb.id = mt.material_batch_id " +
-                     "LEFT JOIN material m ON m.id = mb.material_id " +
-                     "LEFT JOIN fuel_transaction ft ON ft.matched_task = t.id " +
-                     (season != null ? "WHERE f.season = ? " : "") +
-                     "GROUP BY f.id, f.name, f.area_ha";
-        return season != null ? jdbc.queryForList(sql, season) : jdbc.queryForList(sql);
+    public ResponseEntity<List<Map<String,Object>>> costPerHa(
+        @Parameter(description = "Сезон для фильтрации (опционально)") @RequestParam(value = "season", required = false) String season,
+        WebRequest request) {
+        return cache.respond("analytics/cost-per-ha?season=" + season,
+                Set.of(DataChangedEvent.FIELD, DataChangedEvent.FIELD_COST), request, () -> fieldCosts.costPerHa(season));
+    }
+
+    @PostMapping("/kpi/cost-per-ha/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Пересчитать затраты по полям",
+        description = "Пересчитывает накопленные затраты полей из выдач материалов и топливных транзакций. " +
+                      "Нужен после правок задач или выдач задним числом"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Затраты пересчитаны, в ответе число полей"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public Map<String,Object> rebuildCostPerHa() {
+        return Map.of("fields", fieldCosts.rebuild());
     }
 
     @GetMapping("/kpi/machine-uptime")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','MECHANIC')")
     @Operation(
         summary = "Время работы техники",
-        description = "Показывает количество незавершенных заявок на обслуживание для каждой единицы техники"
+        description = "Показывает для каждой единицы техники открытые заявки на обслуживание, заявки в работе, " +
+                      "часы простоя за период (по умолчанию последние 30 дней) и долю времени без простоя"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Данные по времени работы техники получены"),
+        @ApiResponse(responseCode = "304", description = "Данные не изменились с версии из If-None-Match"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<List<Map<String,Object>>> machineUptime(
+        @Parameter(description = "Начало периода (ISO-8601), включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        WebRequest request) {
+        // Будущее время еще не наступило и не считается простоем. Ключ - сам
+        // период с точностью до минуты, так что открытый простой растет в ответе
+        TimeRange period = TimeRange.lastDays(from, to, DEFAULT_UPTIME_DAYS).untilNow().truncatedTo(ChronoUnit.MINUTES);
+        return cache.respond(uptimeKey(period),
+                Set.of(DataChangedEvent.MACHINE, DataChangedEvent.MAINTENANCE_ORDER), request,
+                () -> maintenance.uptime(period.from(), period.to()));
+    }
+
+    /**
+     * Ключ кэша показателей техники; общий с главной страницей.
+     */
+    static String uptimeKey(TimeRange period) {
+        return "analytics/machine-uptime?from=" + period.from().toInstant() + "&to=" + period.to().toInstant();
+    }
+
+    @PostMapping("/kpi/machine-uptime/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Пересчитать счетчики времени работы техники",
+        description = "Сверяет счетчики заявок и интервалы простоя техники с заявками на ТО. " +
+                      "Нужен после правок заявок в обход API или сбоев при смене статусов"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Счетчики пересчитаны, в ответе число машин"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public Map<String,Object> rebuildMachineUptime() {
+        return Map.of("machines", maintenance.rebuildUptime());
+    }
+
+    @GetMapping("/rollups/fuel")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
+    @Operation(
+        summary = "Расход топлива по интервалам",
+        description = "Литры, суммы и число транзакций по часам, дням, неделям или месяцам в часовом поясе хозяйства " +
+                      "из предрассчитанных агрегатов. Если интервал не задан, берется самый крупный, " +
+                      "границы которого совпадают с границами периода"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Ряд агрегатов получен"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период, интервал или измерение группировки"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public Map<String,Object> fuelRollups(
+        @Parameter(description = "Начало периода (ISO-8601), включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        @Parameter(description = "Интервал: HOUR, DAY, WEEK или MONTH (опционально)") @RequestParam(required = false) String bucket,
+        @Parameter(description = "Группировка: field_id, machine_id или season (опционально)") @RequestParam(required = false) String groupBy) {
+        return rollups.query(RollupRepository.Source.FUEL, from, to, RollupGrain.parse(bucket), groupBy);
+    }
+
+    @GetMapping("/rollups/materials")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','AGRONOMIST')")
+    @Operation(
+        summary = "Расход материалов по интервалам",
+        description = "Количество, стоимость и число выдач материалов по часам, дням, неделям или месяцам " +
+                      "в часовом поясе хозяйства из предрассчитанных агрегатов"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Ряд агрегатов получен"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период, интервал или измерение группировки"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<Map<String,Object>> machineUptime() {
-        String sql = "SELECT m.id, m.reg_number, " +
-                     "COALESCE((SELECT COUNT(*) FROM maintenance_order mo WHERE mo.machine_id = m.id AND mo.status <> 'DONE'),0) as pending_orders " +
-                     "FROM machine m ORDER BY pending_orders DESC";
-        return jdbc.queryForList(sql);
+    public Map<String,Object> materialRollups(
+        @Parameter(description = "Начало периода (ISO-8601), включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        @Parameter(description = "Интервал: HOUR, DAY, WEEK или MONTH (опционально)") @RequestParam(required = false) String bucket,
+        @Parameter(description = "Группировка: field_id, machine_id, season или material_id (опционально)") @RequestParam(required = false) String groupBy) {
+        return rollups.query(RollupRepository.Source.MATERIAL, from, to, RollupGrain.parse(bucket), groupBy);
+    }
+
+    @PostMapping("/rollups/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Пересчитать агрегаты",
+        description = "Пересчитывает агрегаты топлива или материалов за период из исходных данных. " +
+                      "Нужен после правок задач или выдач задним числом"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Агрегаты пересчитаны"),
+        @ApiResponse(responseCode = "400", description = "Некорректный источник или период"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public Map<String,Object> rebuildRollups(
+        @Parameter(description = "Источник: FUEL или MATERIAL") @RequestParam String source,
+        @Parameter(description = "Начало периода (ISO-8601), включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно")
+        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to) {
+        if (!from.isBefore(to)) {
+            throw new BadRequestException("from must be before to");
+        }
+        RollupRepository.Source s = RollupRepository.Source.parse(source);
+        rollups.rebuild(s, from, to);
+        return Map.of("source", s.name(), "from", from, "to", to);
     }
 }
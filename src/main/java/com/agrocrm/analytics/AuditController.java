@@ -1,6 +1,7 @@
 package com.agrocrm.analytics;
 
 import com.agrocrm.config.AuditService;
+import com.agrocrm.errors.BadRequestException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -13,7 +14,13 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -80,14 +87,7 @@ public class AuditController {
                 sql.append(" AND entity ILIKE ?");
                 params.add("%" + entity + "%");
             }
-            if (fromDate != null && !fromDate.trim().isEmpty()) {
-                sql.append(" AND ts >= ?::timestamptz");
-                params.add(fromDate);
-            }
-            if (toDate != null && !toDate.trim().isEmpty()) {
-                sql.append(" AND ts <= ?::timestamptz");
-                params.add(toDate);
-            }
+            appendTimeRange(sql, params, fromDate, toDate);
             
             sql.append(" ORDER BY ts DESC LIMIT ?");
             params.add(limit);
@@ -104,11 +104,11 @@ public class AuditController {
         }
     }
 
-    @GetMapping("/users/{username}")
+    @GetMapping("/users/{userId}")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(
         summary = "Получить аудит конкретного пользователя",
-        description = "Возвращает журнал аудита для конкретного пользователя"
+        description = "Возвращает журнал аудита для конкретного пользователя, новые записи первыми"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Аудит пользователя получен"),
@@ -118,14 +118,25 @@ public class AuditController {
             @Parameter(description = "ID пользователя") 
             @PathVariable String userId,
             
+            @Parameter(description = "Начальная дата (ISO 8601)") 
+            @RequestParam(required = false) String fromDate,
+            
+            @Parameter(description = "Конечная дата (ISO 8601)") 
+            @RequestParam(required = false) String toDate,
+            
             @Parameter(description = "Количество записей (по умолчанию 50)") 
             @RequestParam(defaultValue = "50") int limit) {
         
         try {
-            String sql = "SELECT id, user_id, action, entity, entity_id, ts, details " +
-                        "FROM audit_log WHERE user_id = ? ORDER BY ts DESC LIMIT ?";
+            StringBuilder sql = new StringBuilder("SELECT id, user_id, action, entity, entity_id, ts, details " +
+                                                  "FROM audit_log WHERE user_id = ?");
+            List<Object> params = new ArrayList<>();
+            params.add(UUID.fromString(userId));
+            appendTimeRange(sql, params, fromDate, toDate);
+            sql.append(" ORDER BY ts DESC LIMIT ?");
+            params.add(limit);
             
-            List<Map<String, Object>> result = jdbc.queryForList(sql, UUID.fromString(userId), limit);
+            List<Map<String, Object>> result = jdbc.queryForList(sql.toString(), params.toArray());
             
             log.info("Retrieved user audit: userId={}, count={}", userId, result.size());
             
@@ -140,7 +151,7 @@ public class AuditController {
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(
         summary = "Получить аудит по типу действия",
-        description = "Возвращает журнал аудита для конкретного типа действия"
+        description = "Возвращает журнал аудита для конкретного типа действия, новые записи первыми"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Аудит действия получен"),
@@ -150,14 +161,25 @@ public class AuditController {
             @Parameter(description = "Тип действия") 
             @PathVariable String action,
             
+            @Parameter(description = "Начальная дата (ISO 8601)") 
+            @RequestParam(required = false) String fromDate,
+            
+            @Parameter(description = "Конечная дата (ISO 8601)") 
+            @RequestParam(required = false) String toDate,
+            
             @Parameter(description = "Количество записей (по умолчанию 50)") 
             @RequestParam(defaultValue = "50") int limit) {
         
         try {
-            String sql = "SELECT id, user_id, action, entity, entity_id, ts, details " +
-                        "FROM audit_log WHERE action = ? ORDER BY ts DESC LIMIT ?";
+            StringBuilder sql = new StringBuilder("SELECT id, user_id, action, entity, entity_id, ts, details " +
+                                                  "FROM audit_log WHERE action = ?");
+            List<Object> params = new ArrayList<>();
+            params.add(action);
+            appendTimeRange(sql, params, fromDate, toDate);
+            sql.append(" ORDER BY ts DESC LIMIT ?");
+            params.add(limit);
             
-            List<Map<String, Object>> result = jdbc.queryForList(sql, action, limit);
+            List<Map<String, Object>> result = jdbc.queryForList(sql.toString(), params.toArray());
             
             log.info("Retrieved action audit: action={}, count={}", action, result.size());
             
@@ -167,4 +189,38 @@ public class AuditController {
             throw e;
         }
     }
+
+    /**
+     * Ограничение по ts. Даты разбираются здесь и передаются как
+     * timestamptz, а не приводятся в SQL: тогда лишние месячные секции
+     * audit_log отсекаются уже при выполнении запроса.
+     */
+    private static void appendTimeRange(StringBuilder sql, List<Object> params, String fromDate, String toDate) {
+        if (fromDate != null && !fromDate.trim().isEmpty()) {
+            sql.append(" AND ts >= ?");
+            params.add(parseTime("fromDate", fromDate.trim()));
+        }
+        if (toDate != null && !toDate.trim().isEmpty()) {
+            sql.append(" AND ts <= ?");
+            params.add(parseTime("toDate", toDate.trim()));
+        }
+    }
+
+    /**
+     * Принимает то же, что раньше принимал ?::timestamptz: время со смещением,
+     * время без смещения и дату. Время без смещения считается по UTC, дата -
+     * началом дня по UTC, как в сессии БД.
+     */
+    private static OffsetDateTime parseTime(String name, String value) {
+        try {
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay().atOffset(ZoneOffset.UTC);
+            }
+            String iso = value.replace(' ', 'T');
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(iso, OffsetDateTime::from, LocalDateTime::from);
+            return parsed instanceof OffsetDateTime time ? time : ((LocalDateTime) parsed).atOffset(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            throw new BadRequestException(name + " must be an ISO-8601 date or date-time: " + value);
+        }
+    }
 }
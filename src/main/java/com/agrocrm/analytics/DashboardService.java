@@ -0,0 +1,182 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.config.DataChangedEvent;
+import com.agrocrm.config.TimeRange;
+import com.agrocrm.domain.document.CompanyDocumentService;
+import com.agrocrm.domain.document.PersonalDocumentService;
+import com.agrocrm.domain.fuel.FuelRepository;
+import com.agrocrm.domain.maintenance.MaintenanceRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Сводка для главной страницы: стоимость на гектар, время работы техники,
+ * ночные заправки, истекающие документы и справочники одним запросом.
+ *
+ * Части загружаются параллельно на виртуальных потоках. Одновременно к БД
+ * обращаются не больше app.analytics.dashboard.maxConnections частей всех
+ * запросов, чтобы сводка не забирала весь пул соединений. Часть, не
+ * успевшая за app.analytics.dashboard.partTimeoutMs, в ответ не попадает и
+ * перечисляется в failed; остальные части отдаются как есть.
+ */
+@Service
+public class DashboardService {
+    private static final Logger log = LoggerFactory.getLogger(DashboardService.class);
+
+    // Период ночных заправок и простоя техники в сводке
+    private static final int DEFAULT_PERIOD_DAYS = 30;
+
+    private final FieldCostRepository fieldCosts;
+    private final MaintenanceRepository maintenance;
+    private final FuelRepository fuel;
+    private final CompanyDocumentService companyDocuments;
+    private final PersonalDocumentService personalDocuments;
+    private final ReferenceDataSnapshot referenceData;
+    private final AnalyticsCache cache;
+    private final Semaphore connections;
+    private final long partTimeoutMillis;
+    private final int nightAlertsLimit;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dashboard-", 0).factory());
+
+    public DashboardService(FieldCostRepository fieldCosts, MaintenanceRepository maintenance, FuelRepository fuel,
+                            CompanyDocumentService companyDocuments, PersonalDocumentService personalDocuments,
+                            ReferenceDataSnapshot referenceData, AnalyticsCache cache,
+                            @Value("${app.analytics.dashboard.maxConnections:4}") int maxConnections,
+                            @Value("${app.analytics.dashboard.partTimeoutMs:3000}") long partTimeoutMillis,
+                            @Value("${app.analytics.dashboard.nightAlertsLimit:20}") int nightAlertsLimit) {
+        this.fieldCosts = fieldCosts;
+        this.maintenance = maintenance;
+        this.fuel = fuel;
+        this.companyDocuments = companyDocuments;
+        this.personalDocuments = personalDocuments;
+        this.referenceData = referenceData;
+        this.cache = cache;
+        this.connections = new Semaphore(Math.max(1, maxConnections), true);
+        this.partTimeoutMillis = partTimeoutMillis;
+        this.nightAlertsLimit = nightAlertsLimit;
+    }
+
+    /**
+     * Собирает сводку из частей, доступных ролям пользователя (роли без
+     * префикса ROLE_), с теми же правами, что у отдельных эндпоинтов.
+     */
+    public Map<String, Object> load(Collection<String> roles, String season) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(partTimeoutMillis);
+        OffsetDateTime now = OffsetDateTime.now();
+
+        Map<String, Supplier<?>> parts = new LinkedHashMap<>();
+        if (hasAny(roles, "ADMIN", "MANAGER", "ACCOUNTANT", "AGRONOMIST")) {
+            parts.put("costPerHa", () -> cache.get("analytics/cost-per-ha?season=" + season,
+                    Set.of(DataChangedEvent.FIELD, DataChangedEvent.FIELD_COST),
+                    () -> withConnection(deadline, () -> fieldCosts.costPerHa(season))));
+        }
+        if (hasAny(roles, "ADMIN", "MANAGER", "MECHANIC")) {
+            TimeRange uptimePeriod = new TimeRange(now.minusDays(DEFAULT_PERIOD_DAYS), now).truncatedTo(ChronoUnit.MINUTES);
+            parts.put("machineUptime", () -> cache.get(AnalyticsController.uptimeKey(uptimePeriod),
+                    Set.of(DataChangedEvent.MACHINE, DataChangedEvent.MAINTENANCE_ORDER),
+                    () -> withConnection(deadline, () -> maintenance.uptime(uptimePeriod.from(), uptimePeriod.to()))));
+        }
+        if (hasAny(roles, "ADMIN", "MANAGER", "ACCOUNTANT")) {
+            parts.put("nightAlerts", () -> withConnection(deadline,
+                    () -> fuel.nightRefuels(now.minusDays(DEFAULT_PERIOD_DAYS), now, null, null, nightAlertsLimit)));
+        }
+        if (hasAny(roles, "ADMIN", "MANAGER")) {
+            parts.put("companyDocumentsExpiring", () -> withConnection(deadline, companyDocuments::getExpiringSoonDocuments));
+            parts.put("personalDocumentsExpiring", () -> withConnection(deadline, personalDocuments::getExpiringSoonDocuments));
+        }
+        // Те же роли, что у /api/reference/all. Снимок справочников обычно уже
+        // в памяти и соединения не занимает
+        if (hasAny(roles, "ADMIN", "MANAGER")) {
+            parts.put("reference", () -> referenceData.get().all());
+        }
+
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        parts.forEach((name, loader) -> futures.put(name, executor.submit(loader::get)));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        futures.forEach((name, future) -> {
+            try {
+                result.put(name, future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                failed.put(name, "TIMEOUT");
+                log.warn("Dashboard part timed out: part={}, timeoutMs={}", name, partTimeoutMillis);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof PartTimeoutException) {
+                    failed.put(name, "TIMEOUT");
+                    log.warn("Dashboard part got no database connection in time: part={}", name);
+                } else {
+                    failed.put(name, "FAILED");
+                    log.error("Dashboard part failed: part={}", name, e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                failed.put(name, "FAILED");
+            }
+        });
+        result.put("partial", !failed.isEmpty());
+        result.put("failed", failed);
+        return result;
+    }
+
+    /**
+     * Выполняет запрос части в пределах бюджета соединений. Если до конца
+     * отведенного времени место не освободилось, часть считается
+     * просроченной.
+     */
+    private <T> T withConnection(long deadline, Supplier<T> query) {
+        try {
+            if (!connections.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw new PartTimeoutException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PartTimeoutException();
+        }
+        try {
+            return query.get();
+        } finally {
+            connections.release();
+        }
+    }
+
+    private static boolean hasAny(Collection<String> roles, String... allowed) {
+        for (String role : allowed) {
+            if (roles.contains(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class PartTimeoutException extends RuntimeException {
+        PartTimeoutException() {
+            super("No database connection available for dashboard part", null, false, false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
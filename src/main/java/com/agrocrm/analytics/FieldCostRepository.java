@@ -0,0 +1,159 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.config.DataChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Накопленные затраты по полям (field_cost) для KPI стоимости на гектар.
+ * Суммы увеличиваются в транзакциях выдачи материалов и сопоставления
+ * топлива с задачами; {@link #rebuild()} пересчитывает таблицу из исходных
+ * данных, если задачи или выдачи правились задним числом.
+ */
+@Repository
+public class FieldCostRepository {
+    private static final Logger log = LoggerFactory.getLogger(FieldCostRepository.class);
+
+    private final JdbcTemplate jdbc;
+    private final ApplicationEventPublisher events;
+
+    public FieldCostRepository(JdbcTemplate jdbc, ApplicationEventPublisher events) {
+        this.jdbc = jdbc;
+        this.events = events;
+    }
+
+    /**
+     * Добавляет стоимость выдачи материала к полю задачи. Должно вызываться
+     * в транзакции выдачи.
+     */
+    public void addMaterialIssue(UUID taskId, UUID materialBatchId, BigDecimal qty) {
+        if (taskId == null) {
+            return;
+        }
+        int updated = jdbc.update("INSERT INTO field_cost (field_id, material_cost) " +
+                                  "SELECT t.field_id, ? * mb.unit_price FROM task t JOIN material_batch mb ON mb.id = ? " +
+                                  "WHERE t.id = ? AND mb.unit_price IS NOT NULL " +
+                                  "ON CONFLICT (field_id) DO UPDATE SET material_cost = field_cost.material_cost + EXCLUDED.material_cost, " +
+                                  "updated_at = now()",
+                                  qty, materialBatchId, taskId);
+        changed(updated);
+    }
+
+    /**
+     * Добавляет суммы топливных транзакций к полям задач, которым они
+     * сопоставляются впервые (matched_task еще пуст). Вызывается в той же
+     * транзакции до записи сопоставления; taskIds[i] может быть null.
+     */
+    public void addMatchedFuel(UUID[] ids, UUID[] taskIds) {
+        String sql = "INSERT INTO field_cost (field_id, fuel_cost) " +
+                     "SELECT t.field_id, SUM(f.amount) FROM unnest(?::uuid[], ?::uuid[]) AS m(id, task_id) " +
+                     "JOIN fuel_transaction f ON f.id = m.id AND f.matched_task IS NULL " +
+                     "JOIN task t ON t.id = m.task_id " +
+                     "WHERE f.amount IS NOT NULL GROUP BY t.field_id " +
+                     "ON CONFLICT (field_id) DO UPDATE SET fuel_cost = field_cost.fuel_cost + EXCLUDED.fuel_cost, updated_at = now()";
+        changed(jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("uuid", ids));
+            ps.setArray(2, con.createArrayOf("uuid", taskIds));
+            return ps;
+        }));
+    }
+
+    /**
+     * Вычитает суммы автоматически сопоставленных транзакций за период перед
+     * тем, как сопоставление снимается. Вызывается в той же транзакции.
+     */
+    public void removeAutoMatchedFuel(OffsetDateTime from, OffsetDateTime to) {
+        String sql = "INSERT INTO field_cost (field_id, fuel_cost) " +
+                     "SELECT t.field_id, -SUM(f.amount) FROM fuel_transaction f JOIN task t ON t.id = f.matched_task " +
+                     "WHERE f.auto_matched AND f.ts >= ? AND f.ts < ? AND f.amount IS NOT NULL GROUP BY t.field_id " +
+                     "ON CONFLICT (field_id) DO UPDATE SET fuel_cost = field_cost.fuel_cost + EXCLUDED.fuel_cost, updated_at = now()";
+        changed(jdbc.update(sql, from, to));
+    }
+
+    /**
+     * Добавляет суммы по задачам для транзакций, пришедших уже с задачей.
+     */
+    public void addFuelByTask(Map<UUID, BigDecimal> amountsByTask) {
+        if (amountsByTask.isEmpty()) {
+            return;
+        }
+        UUID[] taskIds = amountsByTask.keySet().toArray(new UUID[0]);
+        BigDecimal[] amounts = new BigDecimal[taskIds.length];
+        for (int i = 0; i < taskIds.length; i++) {
+            amounts[i] = amountsByTask.get(taskIds[i]);
+        }
+        String sql = "INSERT INTO field_cost (field_id, fuel_cost) " +
+                     "SELECT t.field_id, SUM(a.amount) FROM unnest(?::uuid[], ?::numeric[]) AS a(task_id, amount) " +
+                     "JOIN task t ON t.id = a.task_id GROUP BY t.field_id " +
+                     "ON CONFLICT (field_id) DO UPDATE SET fuel_cost = field_cost.fuel_cost + EXCLUDED.fuel_cost, updated_at = now()";
+        changed(jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("uuid", taskIds));
+            ps.setArray(2, con.createArrayOf("numeric", amounts));
+            return ps;
+        }));
+    }
+
+    /**
+     * Пересчитывает затраты всех полей. Таблица блокируется на запись до
+     * конца транзакции, чтобы параллельные приращения не потерялись.
+     * Возвращает число полей.
+     */
+    @Transactional
+    public int rebuild() {
+        try {
+            jdbc.execute("LOCK TABLE field_cost IN EXCLUSIVE MODE");
+            int fields = jdbc.update(
+                    "INSERT INTO field_cost (field_id, material_cost, fuel_cost, updated_at) " +
+                    "SELECT f.id, COALESCE(mat.cost, 0), COALESCE(fu.cost, 0), now() FROM field f " +
+                    "LEFT JOIN (SELECT t.field_id, SUM(mi.qty * mb.unit_price) AS cost FROM material_issue mi " +
+                    "  JOIN task t ON t.id = mi.task_id JOIN material_batch mb ON mb.id = mi.material_batch_id " +
+                    "  GROUP BY t.field_id) mat ON mat.field_id = f.id " +
+                    "LEFT JOIN (SELECT t.field_id, SUM(ft.amount) AS cost FROM fuel_transaction ft " +
+                    "  JOIN task t ON t.id = ft.matched_task GROUP BY t.field_id) fu ON fu.field_id = f.id " +
+                    "ON CONFLICT (field_id) DO UPDATE SET material_cost = EXCLUDED.material_cost, " +
+                    "fuel_cost = EXCLUDED.fuel_cost, updated_at = now()");
+            changed(fields);
+            return fields;
+        } catch (Exception e) {
+            log.error("Failed to rebuild field costs", e);
+            throw e;
+        }
+    }
+
+    private void changed(int rows) {
+        if (rows > 0) {
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.FIELD_COST));
+        }
+    }
+
+    /**
+     * Стоимость материалов и топлива по полям; читает field_cost по ключу.
+     */
+    public List<Map<String,Object>> costPerHa(String season) {
+        String sql = "SELECT f.id AS field_id, f.name, COALESCE(c.material_cost, 0) + COALESCE(c.fuel_cost, 0) AS cost, " +
+                     "f.area_ha AS area, COALESCE(c.material_cost, 0) AS material_cost, COALESCE(c.fuel_cost, 0) AS fuel_cost, " +
+                     "CASE WHEN f.area_ha > 0 THEN ROUND((COALESCE(c.material_cost, 0) + COALESCE(c.fuel_cost, 0)) / f.area_ha, 2) END AS cost_per_ha " +
+                     "FROM field f LEFT JOIN field_cost c ON c.field_id = f.id " +
+                     (season != null ? "WHERE f.season = ? " : "") +
+                     "ORDER BY f.name";
+        try {
+            return season != null ? jdbc.queryForList(sql, season) : jdbc.queryForList(sql);
+        } catch (Exception e) {
+            log.error("Failed to load cost per ha: season={}", season, e);
+            throw e;
+        }
+    }
+}
@@ -1,17 +1,17 @@
 package com.agrocrm.analytics;
 
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,9 +20,9 @@ import java.util.Map;
 @Tag(name = "Справочные данные", description = "API для получения справочной информации")
 @SecurityRequirement(name = "Bearer Authentication")
 public class ReferenceDataController {
-    private final JdbcTemplate jdbc;
+    private final ReferenceDataSnapshot snapshot;
 
-    public ReferenceDataController(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public ReferenceDataController(ReferenceDataSnapshot snapshot) { this.snapshot = snapshot; }
 
     @GetMapping("/seasons")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','AGRONOMIST')")
@@ -32,11 +32,11 @@ public class ReferenceDataController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список сезонов успешно получен"),
+        @ApiResponse(responseCode = "304", description = "Список не изменился с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<String> getAvailableSeasons() {
-        String sql = "SELECT DISTINCT season FROM field WHERE season IS NOT NULL ORDER BY season DESC";
-        return jdbc.queryForList(sql, String.class);
+    public ResponseEntity<List<String>> getAvailableSeasons(WebRequest request) {
+        return snapshot.respond(request, ReferenceDataSnapshot.Snapshot::seasons);
     }
 
     @GetMapping("/task-statuses")
@@ -50,7 +50,7 @@ public class ReferenceDataController {
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
     public List<String> getTaskStatuses() {
-        return List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED");
+        return ReferenceDataSnapshot.TASK_STATUSES;
     }
 
     @GetMapping("/waybill-statuses")
@@ -64,7 +64,7 @@ public class ReferenceDataController {
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
     public List<String> getWaybillStatuses() {
-        return List.of("DRAFT", "ISSUED", "SIGNED", "ARCHIVED");
+        return ReferenceDataSnapshot.WAYBILL_STATUSES;
     }
 
     @GetMapping("/maintenance-statuses")
@@ -78,7 +78,7 @@ public class ReferenceDataController {
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
     public List<String> getMaintenanceStatuses() {
-        return List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED");
+        return ReferenceDataSnapshot.MAINTENANCE_STATUSES;
     }
 
     @GetMapping("/crops")
@@ -89,11 +89,11 @@ public class ReferenceDataController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список культур успешно получен"),
+        @ApiResponse(responseCode = "304", description = "Список не изменился с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<String> getCrops() {
-        String sql = "SELECT DISTINCT crop FROM field WHERE crop IS NOT NULL ORDER BY crop";
-        return jdbc.queryForList(sql, String.class);
+    public ResponseEntity<List<String>> getCrops(WebRequest request) {
+        return snapshot.respond(request, ReferenceDataSnapshot.Snapshot::crops);
     }
 
     @GetMapping("/machine-types")
@@ -104,11 +104,11 @@ public class ReferenceDataController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список типов техники успешно получен"),
+        @ApiResponse(responseCode = "304", description = "Список не изменился с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<String> getMachineTypes() {
-        String sql = "SELECT DISTINCT type FROM machine ORDER BY type";
-        return jdbc.queryForList(sql, String.class);
+    public ResponseEntity<List<String>> getMachineTypes(WebRequest request) {
+        return snapshot.respond(request, ReferenceDataSnapshot.Snapshot::machineTypes);
     }
 
     @GetMapping("/material-categories")
@@ -119,47 +119,26 @@ public class ReferenceDataController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список категорий успешно получен"),
+        @ApiResponse(responseCode = "304", description = "Список не изменился с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<String> getMaterialCategories() {
-        String sql = "SELECT DISTINCT category FROM material WHERE category IS NOT NULL ORDER BY category";
-        return jdbc.queryForList(sql, String.class);
+    public ResponseEntity<List<String>> getMaterialCategories(WebRequest request) {
+        return snapshot.respond(request, ReferenceDataSnapshot.Snapshot::materialCategories);
     }
 
     @GetMapping("/all")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
     @Operation(
         summary = "Получить все справочные данные",
-        description = "Возвращает все справочные данные в одном запросе"
+        description = "Возвращает все справочные данные в одном запросе из снимка в памяти. " +
+                      "Ответ можно кэшировать на клиенте и перепроверять по ETag"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Справочные данные успешно получены"),
+        @ApiResponse(responseCode = "304", description = "Данные не изменились с версии из If-None-Match"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public Map<String, Object> getAllReferenceData() {
-        Map<String, Object> result = new HashMap<>();
-        
-        // Сезоны
-        String seasonsSql = "SELECT DISTINCT season FROM field WHERE season IS NOT NULL ORDER BY season DESC";
-        result.put("seasons", jdbc.queryForList(seasonsSql, String.class));
-        
-        // Культуры
-        String cropsSql = "SELECT DISTINCT crop FROM field WHERE crop IS NOT NULL ORDER BY crop";
-        result.put("crops", jdbc.queryForList(cropsSql, String.class));
-        
-        // Типы техники
-        String machineTypesSql = "SELECT DISTINCT type FROM machine ORDER BY type";
-        result.put("machineTypes", jdbc.queryForList(machineTypesSql, String.class));
-        
-        // Категории материалов
-        String materialCategoriesSql = "SELECT DISTINCT category FROM material WHERE category IS NOT NULL ORDER BY category";
-        result.put("materialCategories", jdbc.queryForList(materialCategoriesSql, String.class));
-        
-        // Статусы
-        result.put("taskStatuses", List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED"));
-        result.put("waybillStatuses", List.of("DRAFT", "ISSUED", "SIGNED", "ARCHIVED"));
-        result.put("maintenanceStatuses", List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED"));
-        
-        return result;
+    public ResponseEntity<Map<String, Object>> getAllReferenceData(WebRequest request) {
+        return snapshot.respond(request, ReferenceDataSnapshot.Snapshot::all);
     }
 }
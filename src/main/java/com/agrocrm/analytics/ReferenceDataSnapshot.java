@@ -0,0 +1,139 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.config.DataChangedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Снимок справочных данных в памяти: сезоны, культуры, типы техники,
+ * категории материалов и статусы. Строится один раз и пересобирается при
+ * следующем обращении после записи в field, machine или material.
+ *
+ * ETag - хэш содержимого снимка, поэтому он одинаков на всех узлах и не
+ * меняется при пересборке без изменений. Изменения с других узлов
+ * подхватываются периодической пересборкой.
+ */
+@Component
+public class ReferenceDataSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(ReferenceDataSnapshot.class);
+
+    public static final List<String> TASK_STATUSES = List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED");
+    public static final List<String> WAYBILL_STATUSES = List.of("DRAFT", "ISSUED", "SIGNED", "ARCHIVED");
+    public static final List<String> MAINTENANCE_STATUSES = List.of("PLANNED", "IN_PROGRESS", "DONE", "CANCELLED");
+
+    private static final Set<String> SOURCE_TABLES = Set.of(DataChangedEvent.FIELD, DataChangedEvent.MACHINE, DataChangedEvent.MATERIAL);
+
+    public record Snapshot(long version, String etag, List<String> seasons, List<String> crops,
+                           List<String> machineTypes, List<String> materialCategories, Map<String, Object> all) { }
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+    private final CacheControl cacheControl;
+
+    private volatile Snapshot current;
+    private volatile boolean dirty = true;
+
+    public ReferenceDataSnapshot(JdbcTemplate jdbc, ObjectMapper objectMapper,
+                                 @Value("${app.reference.maxAgeSeconds:3600}") long maxAgeSeconds) {
+        this.jdbc = jdbc;
+        this.objectMapper = objectMapper;
+        this.cacheControl = CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePrivate();
+    }
+
+    public Snapshot get() {
+        Snapshot snapshot = current;
+        if (snapshot == null || dirty) {
+            snapshot = rebuild();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Отдает часть снимка с ETag снимка и долгим Cache-Control; при
+     * совпадении If-None-Match - 304 без тела.
+     */
+    public <T> ResponseEntity<T> respond(WebRequest request, Function<Snapshot, T> part) {
+        Snapshot snapshot = get();
+        if (request.checkNotModified(snapshot.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok().eTag(snapshot.etag()).cacheControl(cacheControl).body(part.apply(snapshot));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDataChanged(DataChangedEvent event) {
+        if (SOURCE_TABLES.contains(event.table())) {
+            dirty = true;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.reference.refreshIntervalMs:300000}")
+    public void refresh() {
+        try {
+            dirty = true;
+            rebuild();
+        } catch (Exception e) {
+            log.error("Failed to refresh reference data snapshot", e);
+        }
+    }
+
+    private synchronized Snapshot rebuild() {
+        Snapshot previous = current;
+        if (previous != null && !dirty) {
+            return previous;
+        }
+        // Сбрасываем до чтения: запись, пришедшая во время сборки, снова пометит снимок
+        dirty = false;
+        try {
+            List<String> seasons = jdbc.queryForList("SELECT DISTINCT season FROM field WHERE season IS NOT NULL ORDER BY season DESC", String.class);
+            List<String> crops = jdbc.queryForList("SELECT DISTINCT crop FROM field WHERE crop IS NOT NULL ORDER BY crop", String.class);
+            List<String> machineTypes = jdbc.queryForList("SELECT DISTINCT type FROM machine ORDER BY type", String.class);
+            List<String> materialCategories = jdbc.queryForList("SELECT DISTINCT category FROM material WHERE category IS NOT NULL ORDER BY category", String.class);
+
+            Map<String, Object> all = new LinkedHashMap<>();
+            all.put("seasons", seasons);
+            all.put("crops", crops);
+            all.put("machineTypes", machineTypes);
+            all.put("materialCategories", materialCategories);
+            all.put("taskStatuses", TASK_STATUSES);
+            all.put("waybillStatuses", WAYBILL_STATUSES);
+            all.put("maintenanceStatuses", MAINTENANCE_STATUSES);
+
+            String etag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(all)) + "\"";
+            if (previous != null && previous.etag().equals(etag)) {
+                return previous;
+            }
+            long version = previous != null ? previous.version() + 1 : 1;
+            Snapshot snapshot = new Snapshot(version, etag, seasons, crops, machineTypes, materialCategories, Collections.unmodifiableMap(all));
+            current = snapshot;
+            log.info("Reference data snapshot rebuilt: version={}, etag={}", version, etag);
+            return snapshot;
+        } catch (Exception e) {
+            dirty = true;
+            if (previous != null) {
+                log.error("Failed to rebuild reference data snapshot, serving version {}", previous.version(), e);
+                return previous;
+            }
+            throw new IllegalStateException("Failed to build reference data snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.errors.BadRequestException;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+
+/**
+ * Размер интервала агрегатов. Дни, недели и месяцы считаются по времени
+ * хозяйства; недели не хранятся и собираются из дневных агрегатов.
+ */
+public enum RollupGrain {
+    HOUR, DAY, WEEK, MONTH;
+
+    public ZonedDateTime truncate(ZonedDateTime t) {
+        return switch (this) {
+            case HOUR -> t.truncatedTo(ChronoUnit.HOURS);
+            case DAY -> t.truncatedTo(ChronoUnit.DAYS);
+            case WEEK -> t.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> t.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+        };
+    }
+
+    public ZonedDateTime next(ZonedDateTime bucketStart) {
+        return switch (this) {
+            case HOUR -> bucketStart.plusHours(1);
+            case DAY -> bucketStart.plusDays(1);
+            case WEEK -> bucketStart.plusWeeks(1);
+            case MONTH -> bucketStart.plusMonths(1);
+        };
+    }
+
+    public boolean isAligned(ZonedDateTime t) {
+        return truncate(t).isEqual(t);
+    }
+
+    /** Хранимый интервал, из которого собирается этот */
+    public RollupGrain storedSource() {
+        return this == WEEK ? DAY : this;
+    }
+
+    /**
+     * Самый крупный интервал, границы которого совпадают с началом и концом периода.
+     */
+    public static RollupGrain coarsestAligned(ZonedDateTime from, ZonedDateTime to) {
+        for (RollupGrain grain : new RollupGrain[] { MONTH, WEEK, DAY, HOUR }) {
+            if (grain.isAligned(from) && grain.isAligned(to)) {
+                return grain;
+            }
+        }
+        throw new BadRequestException("from and to must be aligned to whole hours");
+    }
+
+    public static RollupGrain parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown bucket: " + value + " (expected hour, day, week or month)");
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.errors.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Запросы агрегатов fuel_rollup и material_rollup. Интервал пересчитывается
+ * целиком (удаление и вставка), поэтому повторный пересчет безопасен; пересчеты
+ * одного источника идут под advisory lock, а уникальные индексы не дают
+ * появиться дублям. Часы, дни и месяцы усекаются в часовом поясе хозяйства.
+ */
+@Repository
+public class RollupRepository {
+    private static final Logger log = LoggerFactory.getLogger(RollupRepository.class);
+
+    /** Источник агрегатов: таблица, измерения и показатели */
+    public enum Source {
+        FUEL("fuel_rollup", "field_id, machine_id, season", "liters, amount, tx_count",
+             Set.of("field_id", "machine_id", "season"),
+             "SELECT DISTINCT date_trunc('hour', ts, ?) FROM fuel_transaction WHERE created_at > ? AND created_at <= ?",
+             "SELECT date_trunc('hour', ft.ts, ?) AS bucket_start, t.field_id, COALESCE(t.assigned_machine, mc.id) AS machine_id, " +
+             "fd.season, SUM(ft.liters), SUM(ft.amount), COUNT(*) " +
+             "FROM fuel_transaction ft LEFT JOIN task t ON t.id = ft.matched_task LEFT JOIN field fd ON fd.id = t.field_id " +
+             "LEFT JOIN machine mc ON t.id IS NULL AND mc.reg_number = ft.vehicle_reg " +
+             "WHERE ft.ts >= ? AND ft.ts < ? AND date_trunc('hour', ft.ts, ?) = ANY(?) GROUP BY 1, 2, 3, 4"),
+        MATERIAL("material_rollup", "field_id, machine_id, season, material_id", "qty, cost, issue_count",
+                 Set.of("field_id", "machine_id", "season", "material_id"),
+                 "SELECT DISTINCT date_trunc('hour', created_at, ?) FROM material_issue WHERE created_at > ? AND created_at <= ?",
+                 "SELECT date_trunc('hour', mi.created_at, ?) AS bucket_start, t.field_id, t.assigned_machine, fd.season, " +
+                 "mb.material_id, SUM(mi.qty), SUM(mi.qty * mb.unit_price), COUNT(*) " +
+                 "FROM material_issue mi JOIN material_batch mb ON mb.id = mi.material_batch_id " +
+                 "LEFT JOIN task t ON t.id = mi.task_id LEFT JOIN field fd ON fd.id = t.field_id " +
+                 "WHERE mi.created_at >= ? AND mi.created_at < ? AND date_trunc('hour', mi.created_at, ?) = ANY(?) GROUP BY 1, 2, 3, 4, 5");
+
+        final String table;
+        final String dimensions;
+        final String measures;
+        final Set<String> groupable;
+        final String dirtyHoursSql;
+        final String hourSql;
+
+        Source(String table, String dimensions, String measures, Set<String> groupable, String dirtyHoursSql, String hourSql) {
+            this.table = table;
+            this.dimensions = dimensions;
+            this.measures = measures;
+            this.groupable = groupable;
+            this.dirtyHoursSql = dirtyHoursSql;
+            this.hourSql = hourSql;
+        }
+
+        public Set<String> groupable() {
+            return groupable;
+        }
+
+        public static Source parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Unknown source: " + value + " (expected FUEL or MATERIAL)");
+            }
+        }
+
+        private String sums() {
+            StringBuilder sb = new StringBuilder();
+            for (String m : measures.split(", ")) {
+                sb.append(", SUM(").append(m).append(") AS ").append(m);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+
+    public RollupRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    /**
+     * Не дает двум узлам пересчитывать агрегаты одновременно; действует до конца транзакции.
+     */
+    public boolean tryLock(Source source) {
+        Boolean locked = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext(?))", Boolean.class, "rollup:" + source.name());
+        return Boolean.TRUE.equals(locked);
+    }
+
+    /**
+     * То же, что {@link #tryLock(Source)}, но ждет, пока пересчет на другом узле закончит окно.
+     */
+    public void lock(Source source) {
+        jdbc.queryForList("SELECT pg_advisory_xact_lock(hashtext(?))", "rollup:" + source.name());
+    }
+
+    public OffsetDateTime findWatermark(Source source) {
+        List<OffsetDateTime> result = jdbc.queryForList("SELECT watermark FROM rollup_watermark WHERE source = ?",
+                OffsetDateTime.class, source.name());
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public void saveWatermark(Source source, OffsetDateTime watermark) {
+        jdbc.update("INSERT INTO rollup_watermark (source, watermark) VALUES (?, ?) " +
+                    "ON CONFLICT (source) DO UPDATE SET watermark = EXCLUDED.watermark, updated_at = now()",
+                    source.name(), watermark);
+    }
+
+    /**
+     * Самая ранняя несопоставленная транзакция: пока она не сопоставлена,
+     * ее поле неизвестно, и водяной знак топлива не двигается дальше нее.
+     */
+    public OffsetDateTime findOldestUnmatchedFuel() {
+        return jdbc.queryForObject("SELECT MIN(created_at) FROM fuel_transaction WHERE NOT match_checked", OffsetDateTime.class);
+    }
+
+    /**
+     * Часы хозяйства, в которые попали строки, созданные в (from, to].
+     */
+    public List<OffsetDateTime> findDirtyHours(Source source, OffsetDateTime from, OffsetDateTime to, String timezone) {
+        return jdbc.queryForList(source.dirtyHoursSql, OffsetDateTime.class, timezone, from, to);
+    }
+
+    /**
+     * Пересчитывает часовые агрегаты из исходной таблицы.
+     */
+    public void recomputeHours(Source source, Collection<OffsetDateTime> hours, String timezone) {
+        if (hours.isEmpty()) {
+            return;
+        }
+        OffsetDateTime min = hours.stream().min(OffsetDateTime::compareTo).orElseThrow();
+        OffsetDateTime max = hours.stream().max(OffsetDateTime::compareTo).orElseThrow().plusHours(1);
+        try {
+            delete(source, RollupGrain.HOUR, hours);
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement("INSERT INTO " + source.table + " (grain, bucket_start, " +
+                        source.dimensions + ", " + source.measures + ") SELECT 'HOUR', s.* FROM (" + source.hourSql + ") s");
+                ps.setString(1, timezone);
+                ps.setObject(2, min);
+                ps.setObject(3, max);
+                ps.setString(4, timezone);
+                ps.setArray(5, con.createArrayOf("timestamptz", hours.toArray()));
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to recompute hourly rollups: source={}, hours={}", source, hours.size(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Пересчитывает дневные или месячные агрегаты из агрегатов меньшего
+     * интервала (дни из часов, месяцы из дней) в часовом поясе хозяйства.
+     */
+    public void recomputeFrom(Source source, RollupGrain grain, Collection<OffsetDateTime> buckets, String timezone) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        RollupGrain finer = grain == RollupGrain.MONTH ? RollupGrain.DAY : RollupGrain.HOUR;
+        String unit = grain == RollupGrain.MONTH ? "month" : "day";
+        OffsetDateTime min = buckets.stream().min(OffsetDateTime::compareTo).orElseThrow();
+        // Конец последнего интервала по календарю хозяйства: день при переходе на летнее время длится 23 или 25 часов
+        OffsetDateTime max = grain.next(buckets.stream().max(OffsetDateTime::compareTo).orElseThrow()
+                .atZoneSameInstant(ZoneId.of(timezone))).toOffsetDateTime();
+        String bucket = "date_trunc('" + unit + "', bucket_start AT TIME ZONE ?) AT TIME ZONE ?";
+        String sql = "INSERT INTO " + source.table + " (grain, bucket_start, " + source.dimensions + ", " + source.measures + ") " +
+                     "SELECT ?, " + bucket + ", " + source.dimensions + source.sums() + " FROM " + source.table + " " +
+                     "WHERE grain = ? AND bucket_start >= ? AND bucket_start < ? AND " + bucket + " = ANY(?) " +
+                     "GROUP BY 2, " + source.dimensions;
+        try {
+            delete(source, grain, buckets);
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                ps.setString(1, grain.name());
+                ps.setString(2, timezone);
+                ps.setString(3, timezone);
+                ps.setString(4, finer.name());
+                ps.setObject(5, min);
+                ps.setObject(6, max);
+                ps.setString(7, timezone);
+                ps.setString(8, timezone);
+                ps.setArray(9, con.createArrayOf("timestamptz", buckets.toArray()));
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to recompute rollups: source={}, grain={}, buckets={}", source, grain, buckets.size(), e);
+            throw e;
+        }
+    }
+
+    private void delete(Source source, RollupGrain grain, Collection<OffsetDateTime> buckets) {
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM " + source.table + " WHERE grain = ? AND bucket_start = ANY(?)");
+            ps.setString(1, grain.name());
+            ps.setArray(2, con.createArrayOf("timestamptz", buckets.toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * Ряд агрегатов за [from, to) с разбивкой по одному измерению (или без
+     * разбивки, если groupBy = null). Недели собираются из дневных агрегатов.
+     */
+    public List<Map<String, Object>> query(Source source, RollupGrain grain, OffsetDateTime from, OffsetDateTime to,
+                                           String groupBy, String timezone) {
+        if (groupBy != null && !source.groupable.contains(groupBy)) {
+            throw new BadRequestException("Unsupported groupBy: " + groupBy);
+        }
+        boolean week = grain == RollupGrain.WEEK;
+        String bucket = week ? "date_trunc('week', bucket_start AT TIME ZONE ?) AT TIME ZONE ?" : "bucket_start";
+        String key = groupBy != null ? ", " + groupBy : "";
+        String sql = "SELECT " + bucket + " AS bucket_start" + key + source.sums() + " FROM " + source.table + " " +
+                     "WHERE grain = ? AND bucket_start >= ? AND bucket_start < ? " +
+                     "GROUP BY 1" + (groupBy != null ? ", 2" : "") + " ORDER BY 1" + (groupBy != null ? ", 2" : "");
+        try {
+            return week
+                    ? jdbc.queryForList(sql, timezone, timezone, grain.storedSource().name(), from, to)
+                    : jdbc.queryForList(sql, grain.name(), from, to);
+        } catch (Exception e) {
+            log.error("Failed to query rollups: source={}, grain={}, from={}, to={}, groupBy={}", source, grain, from, to, groupBy, e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.agrocrm.analytics;
+
+import com.agrocrm.analytics.RollupRepository.Source;
+import com.agrocrm.errors.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Агрегаты топлива и материалов по часам, дням и месяцам.
+ *
+ * Планировщик берет строки, созданные после водяного знака (по created_at,
+ * с отставанием app.analytics.rollup.lagSeconds на незакоммиченные
+ * транзакции), находит затронутые часы и пересчитывает их, а затем дни и
+ * месяцы, в которые эти часы входят. Поэтому выписка за прошлые периоды,
+ * загруженная сегодня, попадает в свои интервалы.
+ */
+@Service
+public class RollupService {
+    private static final Logger log = LoggerFactory.getLogger(RollupService.class);
+
+    private final RollupRepository repo;
+    private final TransactionTemplate tx;
+    private final ZoneId farmZone;
+    private final long lagSeconds;
+    private final Duration maxWindow;
+    private final int maxBuckets;
+
+    public RollupService(RollupRepository repo, PlatformTransactionManager transactionManager,
+                         @Value("${app.farm.timezone:Europe/Moscow}") String farmTimezone,
+                         @Value("${app.analytics.rollup.lagSeconds:120}") long lagSeconds,
+                         @Value("${app.analytics.rollup.maxWindowHours:24}") long maxWindowHours,
+                         @Value("${app.analytics.rollup.maxBuckets:2000}") int maxBuckets) {
+        this.repo = repo;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.farmZone = ZoneId.of(farmTimezone);
+        this.lagSeconds = lagSeconds;
+        this.maxWindow = Duration.ofHours(maxWindowHours);
+        this.maxBuckets = maxBuckets;
+    }
+
+    @Scheduled(fixedDelayString = "${app.analytics.rollup.intervalMs:60000}")
+    public void scheduledRun() {
+        for (Source source : Source.values()) {
+            try {
+                catchUp(source);
+            } catch (Exception e) {
+                log.error("Rollup update failed: source={}", source, e);
+            }
+        }
+    }
+
+    /**
+     * Продвигает водяной знак источника до текущего момента окнами по
+     * maxWindowHours, каждое окно в своей транзакции.
+     */
+    public void catchUp(Source source) {
+        long started = System.currentTimeMillis();
+        int windows = 0;
+        while (Boolean.TRUE.equals(tx.execute(status -> advance(source)))) {
+            windows++;
+        }
+        if (windows > 0) {
+            log.info("Rollups updated: source={}, windows={}, elapsedMs={}", source, windows, System.currentTimeMillis() - started);
+        }
+    }
+
+    private boolean advance(Source source) {
+        if (!repo.tryLock(source)) {
+            return false;
+        }
+        OffsetDateTime upper = OffsetDateTime.now().minusSeconds(lagSeconds);
+        if (source == Source.FUEL) {
+            OffsetDateTime unmatched = repo.findOldestUnmatchedFuel();
+            if (unmatched != null && unmatched.isBefore(upper)) {
+                upper = unmatched.minusNanos(1000);
+            }
+        }
+        OffsetDateTime watermark = repo.findWatermark(source);
+        OffsetDateTime from = watermark != null ? watermark : OffsetDateTime.parse("1970-01-01T00:00:00Z");
+        if (!from.isBefore(upper)) {
+            return false;
+        }
+        // Первый запуск идет по всей истории одним окном
+        OffsetDateTime to = watermark != null && from.plus(maxWindow).isBefore(upper) ? from.plus(maxWindow) : upper;
+
+        recompute(source, repo.findDirtyHours(source, from, to, farmZone.getId()));
+        repo.saveWatermark(source, to);
+        return true;
+    }
+
+    /**
+     * Пересчитывает агрегаты источника за период [from, to), например после
+     * повторного сопоставления транзакций с задачами. Каждая часть идет под
+     * той же блокировкой, что и плановый пересчет, и ждет его окна.
+     */
+    public void rebuild(Source source, OffsetDateTime from, OffsetDateTime to) {
+        List<OffsetDateTime> hours = new ArrayList<>();
+        for (ZonedDateTime h = RollupGrain.HOUR.truncate(from.atZoneSameInstant(farmZone)); h.toOffsetDateTime().isBefore(to); h = h.plusHours(1)) {
+            hours.add(h.toOffsetDateTime());
+        }
+        // По месяцу часов в транзакции
+        for (int i = 0; i < hours.size(); i += 744) {
+            List<OffsetDateTime> part = hours.subList(i, Math.min(hours.size(), i + 744));
+            tx.executeWithoutResult(status -> {
+                repo.lock(source);
+                recompute(source, part);
+            });
+        }
+        log.info("Rollups rebuilt: source={}, from={}, to={}, hours={}", source, from, to, hours.size());
+    }
+
+    private void recompute(Source source, List<OffsetDateTime> hours) {
+        if (hours.isEmpty()) {
+            return;
+        }
+        Set<OffsetDateTime> days = new TreeSet<>();
+        Set<OffsetDateTime> months = new TreeSet<>();
+        for (OffsetDateTime hour : hours) {
+            ZonedDateTime local = hour.atZoneSameInstant(farmZone);
+            days.add(RollupGrain.DAY.truncate(local).toOffsetDateTime());
+            months.add(RollupGrain.MONTH.truncate(local).toOffsetDateTime());
+        }
+        repo.recomputeHours(source, hours, farmZone.getId());
+        repo.recomputeFrom(source, RollupGrain.DAY, days, farmZone.getId());
+        repo.recomputeFrom(source, RollupGrain.MONTH, months, farmZone.getId());
+    }
+
+    /**
+     * Ряд агрегатов за [from, to). Если интервал не задан, берется самый
+     * крупный, границы которого совпадают с границами периода.
+     */
+    public Map<String, Object> query(Source source, OffsetDateTime from, OffsetDateTime to, RollupGrain requested, String groupBy) {
+        if (!from.isBefore(to)) {
+            throw new BadRequestException("from must be before to");
+        }
+        ZonedDateTime start = from.atZoneSameInstant(farmZone);
+        ZonedDateTime end = to.atZoneSameInstant(farmZone);
+        RollupGrain grain = requested != null ? requested : RollupGrain.coarsestAligned(start, end);
+
+        // Границы выравниваются по интервалу: частичный интервал в агрегатах не хранится
+        ZonedDateTime alignedStart = grain.truncate(start);
+        ZonedDateTime alignedEnd = grain.isAligned(end) ? end : grain.next(grain.truncate(end));
+        long buckets = 0;
+        for (ZonedDateTime b = alignedStart; b.isBefore(alignedEnd); b = grain.next(b)) {
+            if (++buckets > maxBuckets) {
+                throw new BadRequestException("Too many buckets for the period, use a larger bucket");
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("bucket", grain.name());
+        result.put("from", alignedStart.toOffsetDateTime());
+        result.put("to", alignedEnd.toOffsetDateTime());
+        result.put("groupBy", groupBy);
+        result.put("rows", repo.query(source, grain, alignedStart.toOffsetDateTime(), alignedEnd.toOffsetDateTime(),
+                                      groupBy, farmZone.getId()));
+        return result;
+    }
+}
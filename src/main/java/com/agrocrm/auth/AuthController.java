@@ -4,6 +4,7 @@ import com.agrocrm.config.AuditService;
 import com.agrocrm.domain.session.SessionService;
 import com.agrocrm.domain.session.UserSession;
 import com.agrocrm.security.JwtService;
+import com.agrocrm.security.VerifiedToken;
 import com.agrocrm.user.CustomUserDetailsService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
@@ -140,22 +141,15 @@ public class AuthController {
     })
     public ResponseEntity<AuthResponse> refreshToken(@Valid @RequestBody RefreshTokenRequest request) {
         try {
-            // Проверяем, что это refresh токен
-            if (!jwtService.isRefreshToken(request.getRefreshToken())) {
-                log.warn("Invalid token type for refresh: not a refresh token");
+            // Проверяем подпись, срок действия и тип токена за один разбор
+            VerifiedToken verified = jwtService.verifyRefreshToken(request.getRefreshToken());
+            if (verified == null) {
+                log.warn("Invalid or expired refresh token");
                 return ResponseEntity.status(401).build();
             }
 
-            // Проверяем, что токен не истек
-            if (jwtService.isTokenExpired(request.getRefreshToken())) {
-                log.warn("Refresh token expired");
-                return ResponseEntity.status(401).build();
-            }
-
-            // Парсим токен
-            var claims = jwtService.parse(request.getRefreshToken());
-            String username = claims.getSubject();
-            String sessionId = claims.get("sessionId", String.class);
+            String username = verified.getSubject();
+            String sessionId = verified.getSessionId();
 
             // Проверяем, что сессия активна
             if (!sessionService.isSessionActive(UUID.fromString(sessionId))) {
@@ -214,17 +208,16 @@ public class AuthController {
             
             String token = authHeader.substring(7);
             
-            // Проверяем, что это access токен
-            if (!jwtService.isAccessToken(token)) {
+            // Проверяем access токен (подпись, срок и тип) за один разбор
+            VerifiedToken verified = jwtService.verifyAccessToken(token);
+            if (verified == null) {
                 return ResponseEntity.status(401).build();
             }
             
-            // Парсим токен
-            var claims = jwtService.parse(token);
-            String sessionId = claims.get("sessionId", String.class);
+            String sessionId = verified.getSessionId();
             
             // Получаем информацию о пользователе
-            String username = claims.getSubject();
+            String username = verified.getSubject();
             UUID userId = getUserIdByUsername(username);
             
             // Завершаем сессию
@@ -269,17 +262,16 @@ public class AuthController {
             
             String token = authHeader.substring(7);
             
-            // Проверяем, что это access токен
-            if (!jwtService.isAccessToken(token)) {
+            // Проверяем access токен (подпись, срок и тип) за один разбор
+            VerifiedToken verified = jwtService.verifyAccessToken(token);
+            if (verified == null) {
                 return ResponseEntity.status(401).build();
             }
             
-            // Парсим токен
-            var claims = jwtService.parse(token);
-            String sessionId = claims.get("sessionId", String.class);
+            String sessionId = verified.getSessionId();
             
             // Получаем информацию о пользователе
-            String username = claims.getSubject();
+            String username = verified.getSubject();
             UUID userId = getUserIdByUsername(username);
             
             // Завершаем все сессии кроме текущей
@@ -0,0 +1,13 @@
+package com.agrocrm.config;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Запись аудита в очереди на запись. Время события фиксируется в момент вызова,
+ * а не в момент фактической вставки.
+ */
+public record AuditRecord(UUID userId, String action, String entity, String entityId,
+                          Map<String, Object> details, OffsetDateTime ts) {
+}
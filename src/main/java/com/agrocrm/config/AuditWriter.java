@@ -0,0 +1,280 @@
+package com.agrocrm.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновая запись аудита: ограниченная очередь, которую разбирает один поток
+ * и вставляет записи пакетами через JDBC batch.
+ *
+ * Поведение при переполнении очереди задается app.audit.overflowPolicy:
+ * BLOCK - вызывающий поток ждет освобождения места,
+ * DROP - запись отбрасывается,
+ * SPILL - запись дописывается в файл и вставляется позже.
+ */
+@Component
+public class AuditWriter {
+    private static final Logger log = LoggerFactory.getLogger(AuditWriter.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO audit_log(user_id, action, entity, entity_id, details, ts) VALUES (?,?,?,?, ?::jsonb, ?)";
+
+    public enum OverflowPolicy { BLOCK, DROP, SPILL }
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<AuditRecord> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long shutdownTimeoutMs;
+    private final Path spillFile;
+    private final Object spillLock = new Object();
+
+    private final Timer writeTimer;
+    private final Counter droppedCounter;
+    private final Counter spilledCounter;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public AuditWriter(JdbcTemplate jdbc, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                       @Value("${app.audit.queueCapacity:10000}") int queueCapacity,
+                       @Value("${app.audit.batchSize:500}") int batchSize,
+                       @Value("${app.audit.flushIntervalMs:1000}") long flushIntervalMs,
+                       @Value("${app.audit.shutdownTimeoutMs:10000}") long shutdownTimeoutMs,
+                       @Value("${app.audit.overflowPolicy:BLOCK}") OverflowPolicy overflowPolicy,
+                       @Value("${app.audit.spillPath:./audit-spill.ndjson}") String spillPath) {
+        this.jdbc = jdbc;
+        this.objectMapper = objectMapper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = Path.of(spillPath);
+
+        Gauge.builder("audit.queue.depth", queue, BlockingQueue::size)
+                .description("Audit records waiting to be written")
+                .register(meterRegistry);
+        this.writeTimer = Timer.builder("audit.write.latency")
+                .description("Time to insert one batch of audit records")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("audit.records.dropped").register(meterRegistry);
+        this.spilledCounter = Counter.builder("audit.records.spilled").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "audit-writer");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("Audit writer started: overflowPolicy={}, batchSize={}", overflowPolicy, batchSize);
+    }
+
+    /**
+     * Останавливает поток флагом running: он дописывает очередь и выходит
+     * сам, не дольше flushIntervalMs после опустевшей очереди. Прерывание
+     * посреди получения соединения или записи пачки потеряло бы ее, поэтому
+     * поток прерывается только после shutdownTimeoutMs.
+     */
+    @PreDestroy
+    void stop() {
+        running = false;
+        try {
+            worker.join(shutdownTimeoutMs);
+            if (worker.isAlive()) {
+                log.warn("Audit writer did not stop in {} ms, interrupting", shutdownTimeoutMs);
+                worker.interrupt();
+                worker.join(flushIntervalMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Дописываем то, что осталось, если поток не успел
+        List<AuditRecord> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            writeOrSpill(rest);
+        }
+        log.info("Audit writer stopped: remaining={}", rest.size());
+    }
+
+    public void submit(AuditRecord record) {
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    queue.put(record);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCounter.increment();
+                    log.warn("Interrupted while enqueuing audit record: action={}", record.action());
+                }
+            }
+            case DROP -> {
+                if (!queue.offer(record)) {
+                    droppedCounter.increment();
+                    log.warn("Audit queue is full, record dropped: action={}, entity={}", record.action(), record.entity());
+                }
+            }
+            case SPILL -> {
+                if (!queue.offer(record)) {
+                    spill(List.of(record));
+                }
+            }
+        }
+    }
+
+    private void runLoop() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                AuditRecord first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (running) {
+                        replaySpill();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeOrSpill(batch);
+            } catch (InterruptedException e) {
+                // Прерывание только после shutdownTimeoutMs; остаток допишет stop()
+                break;
+            } catch (Exception e) {
+                log.error("Unexpected error in audit writer", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeOrSpill(List<AuditRecord> batch) {
+        try {
+            write(batch);
+        } catch (Exception e) {
+            log.error("Failed to write audit batch: size={}", batch.size(), e);
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(batch);
+            } else {
+                droppedCounter.increment(batch.size());
+            }
+        }
+    }
+
+    private void write(List<AuditRecord> batch) {
+        writeTimer.record(() -> {
+            jdbc.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, r) -> {
+                ps.setObject(1, r.userId());
+                ps.setString(2, r.action());
+                ps.setString(3, r.entity());
+                ps.setString(4, r.entityId());
+                ps.setString(5, toJson(r));
+                ps.setObject(6, r.ts());
+            });
+        });
+    }
+
+    private String toJson(AuditRecord r) {
+        if (r.details() == null || r.details().isEmpty()) {
+            return "{}";
+        }
+        try {
+            return objectMapper.writeValueAsString(r.details());
+        } catch (Exception e) {
+            log.warn("Failed to serialize audit details: action={}, entity={}", r.action(), r.entity(), e);
+            return "{}";
+        }
+    }
+
+    private void spill(List<AuditRecord> records) {
+        synchronized (spillLock) {
+            try (BufferedWriter out = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (AuditRecord r : records) {
+                    out.write(objectMapper.writeValueAsString(r));
+                    out.newLine();
+                }
+                spilledCounter.increment(records.size());
+            } catch (IOException e) {
+                droppedCounter.increment(records.size());
+                log.error("Failed to spill audit records to {}: count={}", spillFile, records.size(), e);
+            }
+        }
+    }
+
+    private void replaySpill() {
+        // Незавершенный прошлый повтор (.replay) обрабатываем раньше новых записей
+        Path replaying = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        synchronized (spillLock) {
+            if (!Files.exists(replaying)) {
+                if (!Files.exists(spillFile)) {
+                    return;
+                }
+                try {
+                    Files.move(spillFile, replaying, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    log.error("Failed to rotate audit spill file {}", spillFile, e);
+                    return;
+                }
+            }
+        }
+
+        int replayed = 0;
+        try (BufferedReader in = Files.newBufferedReader(replaying, StandardCharsets.UTF_8)) {
+            List<AuditRecord> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                batch.add(objectMapper.readValue(line, AuditRecord.class));
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    replayed += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                replayed += batch.size();
+            }
+        } catch (Exception e) {
+            // Файл остается на месте и будет повторен; уже вставленные записи могут задублироваться
+            log.error("Failed to replay audit spill file {}: replayed={}", replaying, replayed, e);
+            return;
+        }
+        try {
+            Files.delete(replaying);
+        } catch (IOException e) {
+            log.error("Failed to delete replayed audit spill file {}", replaying, e);
+        }
+        log.info("Replayed spilled audit records: count={}", replayed);
+    }
+}
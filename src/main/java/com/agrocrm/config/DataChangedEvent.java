@@ -0,0 +1,14 @@
+package com.agrocrm.config;
+
+/**
+ * Изменение данных таблицы, от которой зависят кэшированные отчеты.
+ * Публикуется репозиториями после записи; слушатели обрабатывают его
+ * после коммита транзакции.
+ */
+public record DataChangedEvent(String table) {
+    public static final String FIELD = "field";
+    public static final String MACHINE = "machine";
+    public static final String MATERIAL = "material";
+    public static final String MAINTENANCE_ORDER = "maintenance_order";
+    public static final String FIELD_COST = "field_cost";
+}
@@ -0,0 +1,117 @@
+package com.agrocrm.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Потоковая выдача больших списков в формате NDJSON (один JSON-объект на строку).
+ * Строки читаются курсором с ограниченным fetch size и сразу пишутся в ответ,
+ * поэтому память не зависит от количества строк.
+ *
+ * Ответ пишется асинхронно и ограничен spring.mvc.async.request-timeout. По
+ * таймауту чтение курсора прерывается на следующей строке, а транзакция
+ * откатывается, чтобы не держать соединение до конца выборки.
+ */
+@Component
+public class NdjsonStreamer {
+    private static final Logger log = LoggerFactory.getLogger(NdjsonStreamer.class);
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE);
+
+    // Сколько строк драйвер держит в памяти за один сетевой запрос
+    public static final int FETCH_SIZE = 1000;
+
+    private final ObjectWriter writer;
+    private final TransactionTemplate readOnlyTx;
+
+    public NdjsonStreamer(ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+        this.writer = objectMapper.writer();
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    /**
+     * Запрос с fetch size для построчного чтения. PostgreSQL использует курсор
+     * только внутри транзакции, которую открывает {@link #stream(Consumer)}.
+     */
+    public static PreparedStatementCreator fetching(String sql, Object... args) {
+        return con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+            return ps;
+        };
+    }
+
+    /**
+     * @param producer передает каждую прочитанную строку в переданный ему consumer
+     */
+    public <T> ResponseEntity<StreamingResponseBody> stream(Consumer<Consumer<T>> producer) {
+        AtomicBoolean timedOut = onTimeout();
+        StreamingResponseBody body = out -> {
+            OutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+            readOnlyTx.executeWithoutResult(status -> producer.accept(row -> writeLine(buffered, row, timedOut)));
+            buffered.flush();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Флаг, который выставляется, когда асинхронный запрос текущего потока
+     * истекает по таймауту.
+     */
+    private static AtomicBoolean onTimeout() {
+        AtomicBoolean timedOut = new AtomicBoolean();
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            String uri = attributes.getRequest().getRequestURI();
+            WebAsyncUtils.getAsyncManager(attributes.getRequest()).registerCallableInterceptor(NdjsonStreamer.class.getName(),
+                    new CallableProcessingInterceptor() {
+                        @Override
+                        public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+                            timedOut.set(true);
+                            log.warn("NDJSON stream timed out, aborting: uri={}", uri);
+                            return RESULT_NONE;
+                        }
+                    });
+        }
+        return timedOut;
+    }
+
+    private void writeLine(OutputStream out, Object row, AtomicBoolean timedOut) {
+        if (timedOut.get()) {
+            throw new UncheckedIOException(new IOException("NDJSON stream timed out"));
+        }
+        try {
+            out.write(writer.writeValueAsBytes(row));
+            out.write('\n');
+        } catch (IOException e) {
+            // Клиент закрыл соединение: прерываем чтение курсора
+            throw new UncheckedIOException(e);
+        }
+    }
+}
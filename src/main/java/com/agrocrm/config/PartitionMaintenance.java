@@ -0,0 +1,113 @@
+package com.agrocrm.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Месячные секции outbox_event и audit_log: заранее создает секции на
+ * premakeMonths месяцев вперед и удаляет устаревшие целиком вместо
+ * построчного DELETE, после которого таблица и индексы остаются раздутыми.
+ *
+ * Секция outbox_event удаляется, только если все ее события доставлены:
+ * месяц с недоставленными или DEAD событиями пропускается с предупреждением.
+ * Секции audit_log старше app.partitions.audit.retentionMonths удаляются
+ * без условий; 0 - хранить всегда.
+ */
+@Component
+public class PartitionMaintenance {
+    private static final Logger log = LoggerFactory.getLogger(PartitionMaintenance.class);
+
+    private static final String OUTBOX = "outbox_event";
+    private static final String AUDIT = "audit_log";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final PartitionRepository repo;
+    private final TransactionTemplate tx;
+    private final int premakeMonths;
+    private final int outboxRetentionMonths;
+    private final int auditRetentionMonths;
+    private final long lockTimeoutMs;
+
+    public PartitionMaintenance(PartitionRepository repo,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.partitions.premakeMonths:3}") int premakeMonths,
+                                @Value("${app.partitions.outbox.retentionMonths:3}") int outboxRetentionMonths,
+                                @Value("${app.partitions.audit.retentionMonths:24}") int auditRetentionMonths,
+                                @Value("${app.partitions.lockTimeoutMs:5000}") long lockTimeoutMs) {
+        this.repo = repo;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.premakeMonths = Math.max(1, premakeMonths);
+        this.outboxRetentionMonths = Math.max(1, outboxRetentionMonths);
+        this.auditRetentionMonths = Math.max(0, auditRetentionMonths);
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Scheduled(fixedDelayString = "${app.partitions.intervalMs:21600000}", initialDelayString = "${app.partitions.initialDelayMs:60000}")
+    public void scheduledRun() {
+        for (String parent : new String[] {OUTBOX, AUDIT}) {
+            try {
+                premake(parent);
+                int retention = OUTBOX.equals(parent) ? outboxRetentionMonths : auditRetentionMonths;
+                if (retention > 0) {
+                    dropExpired(parent, YearMonth.now(ZoneOffset.UTC).minusMonths(retention));
+                }
+            } catch (Exception e) {
+                log.error("Failed to maintain partitions: parent={}", parent, e);
+            }
+        }
+    }
+
+    private void premake(String parent) {
+        Integer created = tx.execute(status -> repo.tryLock() ? repo.ensureMonthly(parent, premakeMonths) : 0);
+        if (created != null && created > 0) {
+            log.info("Partitions created: parent={}, count={}", parent, created);
+        }
+        if (repo.hasRows(parent + "_default")) {
+            log.warn("Default partition is not empty, rows are outside monthly partitions: parent={}", parent);
+        }
+    }
+
+    /**
+     * Удаляет секции месяцев раньше keepFrom, каждую в своей транзакции.
+     */
+    private void dropExpired(String parent, YearMonth keepFrom) {
+        Pattern name = Pattern.compile(Pattern.quote(parent) + "_p(\\d{6})");
+        for (String partition : repo.findPartitions(parent)) {
+            Matcher m = name.matcher(partition);
+            if (!m.matches() || !YearMonth.parse(m.group(1), MONTH).isBefore(keepFrom)) {
+                continue;
+            }
+            try {
+                Boolean dropped = tx.execute(status -> {
+                    if (!repo.tryLock()) {
+                        return false;
+                    }
+                    repo.lockForDrop(partition, lockTimeoutMs);
+                    if (OUTBOX.equals(parent) && repo.hasUndeliveredEvents(partition)) {
+                        log.warn("Partition kept, it has undelivered or dead outbox events: partition={}", partition);
+                        return false;
+                    }
+                    repo.drop(partition);
+                    return true;
+                });
+                if (Boolean.TRUE.equals(dropped)) {
+                    log.info("Expired partition dropped: partition={}", partition);
+                }
+            } catch (Exception e) {
+                // чаще всего lock_timeout: секция занята, попробуем в следующий запуск
+                log.warn("Failed to drop expired partition: partition={}", partition, e);
+            }
+        }
+    }
+}
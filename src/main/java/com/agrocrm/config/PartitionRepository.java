@@ -0,0 +1,88 @@
+package com.agrocrm.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Обслуживание месячных секций outbox_event и audit_log. Имена секций -
+ * parent_pYYYYMM, их создает функция ensure_monthly_partitions.
+ */
+@Repository
+public class PartitionRepository {
+    private static final Logger log = LoggerFactory.getLogger(PartitionRepository.class);
+
+    private final JdbcTemplate jdbc;
+
+    public PartitionRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    /**
+     * Не дает двум узлам обслуживать секции одновременно; действует до конца транзакции.
+     */
+    public boolean tryLock() {
+        Boolean locked = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext('partition_maintenance'))", Boolean.class);
+        return Boolean.TRUE.equals(locked);
+    }
+
+    /**
+     * Создает секции с текущего месяца по месяц через monthsAhead месяцев.
+     * Возвращает число созданных.
+     */
+    public int ensureMonthly(String parent, int monthsAhead) {
+        try {
+            Integer created = jdbc.queryForObject(
+                    "SELECT ensure_monthly_partitions(?, (now() AT TIME ZONE 'UTC')::date, " +
+                    "((now() + make_interval(months => ?)) AT TIME ZONE 'UTC')::date)",
+                    Integer.class, parent, monthsAhead);
+            return created != null ? created : 0;
+        } catch (Exception e) {
+            log.error("Failed to create partitions: parent={}, monthsAhead={}", parent, monthsAhead, e);
+            throw e;
+        }
+    }
+
+    public List<String> findPartitions(String parent) {
+        return jdbc.queryForList("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                                 "WHERE i.inhparent = ?::regclass ORDER BY c.relname", String.class, parent);
+    }
+
+    /**
+     * Блокирует секцию перед удалением, не дольше lockTimeoutMs: обработчики
+     * outbox держат блокировки строк на время отправки, и ждать их дольше
+     * нельзя - за удалением в очередь встанут все вставки.
+     */
+    public void lockForDrop(String partition, long lockTimeoutMs) {
+        jdbc.execute("SET LOCAL lock_timeout = " + lockTimeoutMs);
+        jdbc.execute("LOCK TABLE " + quote(partition) + " IN ACCESS EXCLUSIVE MODE");
+    }
+
+    /**
+     * Есть ли в секции outbox_event события, которые еще не доставлены или
+     * лежат в DEAD. Читает частичные индексы idx_outbox_pending и idx_outbox_dead.
+     */
+    public boolean hasUndeliveredEvents(String partition) {
+        return Boolean.TRUE.equals(jdbc.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + quote(partition) + " WHERE status IN ('NEW','FAILED','DEAD'))", Boolean.class));
+    }
+
+    public boolean hasRows(String partition) {
+        return Boolean.TRUE.equals(jdbc.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + quote(partition) + ")", Boolean.class));
+    }
+
+    public void drop(String partition) {
+        try {
+            jdbc.execute("DROP TABLE " + quote(partition));
+        } catch (Exception e) {
+            log.error("Failed to drop partition: partition={}", partition, e);
+            throw e;
+        }
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
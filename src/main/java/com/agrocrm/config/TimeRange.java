@@ -0,0 +1,40 @@
+package com.agrocrm.config;
+
+import com.agrocrm.errors.BadRequestException;
+
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Период отчета [from, to). Общие правила для параметров from/to:
+ * незаданный конец - текущий момент, незаданное начало - defaultDays
+ * дней до конца, начало должно быть раньше конца.
+ */
+public record TimeRange(OffsetDateTime from, OffsetDateTime to) {
+
+    public static TimeRange lastDays(OffsetDateTime from, OffsetDateTime to, int defaultDays) {
+        OffsetDateTime end = to != null ? to : OffsetDateTime.now();
+        OffsetDateTime start = from != null ? from : end.minusDays(defaultDays);
+        if (!start.isBefore(end)) {
+            throw new BadRequestException("from must be before to");
+        }
+        return new TimeRange(start, end);
+    }
+
+    /**
+     * Конец периода не позже текущего момента: будущее время еще не
+     * наступило и не должно попадать в расчеты.
+     */
+    public TimeRange untilNow() {
+        OffsetDateTime now = OffsetDateTime.now();
+        return to.isAfter(now) ? new TimeRange(from, now.isAfter(from) ? now : from) : this;
+    }
+
+    /**
+     * Границы, усеченные до unit: период "до текущего момента" меняется
+     * только раз в unit, и по нему можно строить ключ кэша.
+     */
+    public TimeRange truncatedTo(ChronoUnit unit) {
+        return new TimeRange(from.truncatedTo(unit), to.truncatedTo(unit));
+    }
+}
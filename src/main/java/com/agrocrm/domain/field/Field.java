@@ -1,5 +1,6 @@
 package com.agrocrm.domain.field;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.DecimalMin;
@@ -31,7 +32,12 @@ public class Field {
     private String soilType;
     
     @Schema(description = "Геоданные поля в формате GeoJSON")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String geojson;
+    
+    @Schema(description = "Упрощенные геоданные для обзорной карты (только fields=map)", accessMode = Schema.AccessMode.READ_ONLY)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String geojsonSimplified;
 
     public Field() {}
 
@@ -59,4 +65,6 @@ public class Field {
     public void setSoilType(String soilType) { this.soilType = soilType; }
     public String getGeojson() { return geojson; }
     public void setGeojson(String geojson) { this.geojson = geojson; }
+    public String getGeojsonSimplified() { return geojsonSimplified; }
+    public void setGeojsonSimplified(String geojsonSimplified) { this.geojsonSimplified = geojsonSimplified; }
 }
@@ -1,12 +1,16 @@
 package com.agrocrm.domain.field;
 
 import com.agrocrm.config.AuditService;
+import com.agrocrm.config.NdjsonStreamer;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import com.agrocrm.security.SecurityUtil;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -28,11 +32,13 @@ public class FieldController {
     private final FieldService service;
     private final SecurityUtil sec;
     private final AuditService auditService;
+    private final NdjsonStreamer ndjson;
 
-    public FieldController(FieldService service, SecurityUtil sec, AuditService auditService) {
+    public FieldController(FieldService service, SecurityUtil sec, AuditService auditService, NdjsonStreamer ndjson) {
         this.service = service;
         this.sec = sec;
         this.auditService = auditService;
+        this.ndjson = ndjson;
     }
 
     @GetMapping
@@ -51,7 +57,16 @@ public class FieldController {
             @RequestParam(defaultValue = "0") int page,
             
             @Parameter(description = "Размер страницы", example = "10") 
-            @RequestParam(defaultValue = "10") int size) { 
+            @RequestParam(defaultValue = "10") int size,
+            
+            @Parameter(description = "Режим пагинации: offset (по номеру страницы) или cursor (по курсору)", example = "offset")
+            @RequestParam(defaultValue = "offset") String paging,
+            
+            @Parameter(description = "Курсор из nextCursor/previousCursor предыдущего ответа (включает режим cursor)")
+            @RequestParam(required = false) String cursor,
+            
+            @Parameter(description = "Проекция: summary (без геометрии), map (упрощенная геометрия) или full", example = "full")
+            @RequestParam(defaultValue = "full") String fields) { 
         try {
             // Валидация параметров
             if (page < 0) {
@@ -61,13 +76,34 @@ public class FieldController {
                 size = 10;
             }
             
-            return service.listPaginated(page, size);
+            FieldProjection projection = FieldProjection.parse(fields);
+            if ("cursor".equalsIgnoreCase(paging) || cursor != null) {
+                return service.listByCursor(cursor, size, projection);
+            }
+            return service.listPaginated(page, size, projection);
         } catch (Exception e) {
-            log.error("Failed to list fields with pagination: page={}, size={}", page, size, e);
+            log.error("Failed to list fields with pagination: page={}, size={}, paging={}", page, size, paging, e);
             throw e;
         }
     }
 
+    @GetMapping(produces = NdjsonStreamer.NDJSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST','MANAGER')")
+    @Operation(
+        summary = "Выгрузить все поля потоком",
+        description = "Возвращает все поля в формате NDJSON (по одному JSON-объекту на строку) без пагинации; выбирается заголовком Accept: application/x-ndjson"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Выгрузка полей начата"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<StreamingResponseBody> export(
+            @Parameter(description = "Проекция: summary (без геометрии), map (упрощенная геометрия) или full", example = "summary")
+            @RequestParam(defaultValue = "full") String fields) {
+        FieldProjection projection = FieldProjection.parse(fields);
+        return ndjson.<Field>stream(sink -> service.stream(projection, sink));
+    }
+
     @GetMapping("/{id}")
     @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST','MANAGER')")
     @Operation(
@@ -88,6 +124,32 @@ public class FieldController {
         }
     }
 
+    @GetMapping(value = "/{id}/geometry", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST','MANAGER')")
+    @Operation(
+        summary = "Получить геометрию поля",
+        description = "Возвращает GeoJSON поля отдельно от атрибутов: полный или упрощенный для обзорной карты"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Геометрия получена"),
+        @ApiResponse(responseCode = "404", description = "Поле не найдено или у него нет геометрии"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<String> geometry(
+            @Parameter(description = "ID поля") @PathVariable UUID id,
+            @Parameter(description = "Вернуть упрощенную геометрию") @RequestParam(defaultValue = "false") boolean simplified) {
+        try {
+            String geojson = service.getGeometry(id, simplified);
+            if (geojson == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(geojson);
+        } catch (Exception e) {
+            log.error("Failed to get field geometry: id={}", id, e);
+            throw e;
+        }
+    }
+
     @PostMapping
     @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST')")
     @Operation(
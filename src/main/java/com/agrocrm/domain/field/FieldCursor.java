@@ -0,0 +1,45 @@
+package com.agrocrm.domain.field;
+
+import com.agrocrm.errors.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Непрозрачный курсор для постраничного чтения полей по ключу (name, id).
+ * Клиент получает его в ответе и передает обратно без изменений.
+ */
+public record FieldCursor(Direction direction, String name, UUID id) {
+
+    public enum Direction { AFTER, BEFORE }
+
+    public static FieldCursor after(Field f) {
+        return new FieldCursor(Direction.AFTER, f.getName(), f.getId());
+    }
+
+    public static FieldCursor before(Field f) {
+        return new FieldCursor(Direction.BEFORE, f.getName(), f.getId());
+    }
+
+    public String encode() {
+        // Имя идет последним: оно может содержать любой разделитель
+        String raw = (direction == Direction.AFTER ? "a" : "b") + "|" + id + "|" + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FieldCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 3);
+            Direction direction = switch (parts[0]) {
+                case "a" -> Direction.AFTER;
+                case "b" -> Direction.BEFORE;
+                default -> throw new BadRequestException("Unknown cursor direction");
+            };
+            return new FieldCursor(direction, parts[2], UUID.fromString(parts[1]));
+        } catch (RuntimeException e) {
+            throw new BadRequestException("Invalid field cursor", e);
+        }
+    }
+}
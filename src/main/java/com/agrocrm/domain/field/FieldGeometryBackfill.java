@@ -0,0 +1,66 @@
+package com.agrocrm.domain.field;
+
+import com.agrocrm.config.DataChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Дозаполняет geojson_simplified у полей, созданных до появления колонки:
+ * упрощение считается в приложении ({@link GeoJsonSimplifier}), поэтому в
+ * миграции его не посчитать. Запускается при старте, проходит таблицу по id
+ * пачками; поля, геометрию которых не удалось разобрать, остаются пустыми и
+ * продолжают отдавать исходный geojson.
+ */
+@Component
+public class FieldGeometryBackfill {
+    private static final Logger log = LoggerFactory.getLogger(FieldGeometryBackfill.class);
+
+    private final FieldRepository repo;
+    private final GeoJsonSimplifier simplifier;
+    private final ApplicationEventPublisher events;
+    private final int batchSize;
+
+    public FieldGeometryBackfill(FieldRepository repo, GeoJsonSimplifier simplifier, ApplicationEventPublisher events,
+                                 @Value("${app.fields.geometry.backfillBatchSize:200}") int batchSize) {
+        this.repo = repo;
+        this.simplifier = simplifier;
+        this.events = events;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        try {
+            int updated = 0;
+            int skipped = 0;
+            UUID after = null;
+            Map<UUID, String> batch;
+            do {
+                batch = repo.findWithoutSimplified(after, batchSize);
+                for (Map.Entry<UUID, String> e : batch.entrySet()) {
+                    after = e.getKey();
+                    String simplified = simplifier.simplify(e.getValue());
+                    if (simplified == null) {
+                        skipped++;
+                        continue;
+                    }
+                    updated += repo.saveSimplified(e.getKey(), simplified);
+                }
+            } while (batch.size() == batchSize);
+            if (updated > 0 || skipped > 0) {
+                log.info("Field geometry backfilled: updated={}, skipped={}", updated, skipped);
+                events.publishEvent(new DataChangedEvent(DataChangedEvent.FIELD));
+            }
+        } catch (Exception e) {
+            log.error("Failed to backfill simplified field geometry", e);
+        }
+    }
+}
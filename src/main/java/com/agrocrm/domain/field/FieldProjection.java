@@ -0,0 +1,36 @@
+package com.agrocrm.domain.field;
+
+import com.agrocrm.errors.BadRequestException;
+
+/**
+ * Набор колонок, возвращаемых списочными запросами полей.
+ */
+public enum FieldProjection {
+    /** Только атрибуты поля, без геометрии */
+    SUMMARY("NULL::text AS geojson, NULL::text AS geojson_simplified"),
+    /** Упрощенная геометрия для обзорной карты */
+    MAP("NULL::text AS geojson, COALESCE(geojson_simplified, geojson)::text AS geojson_simplified"),
+    /** Полная исходная геометрия */
+    FULL("geojson::text AS geojson, NULL::text AS geojson_simplified");
+
+    private final String geometryColumns;
+
+    FieldProjection(String geometryColumns) {
+        this.geometryColumns = geometryColumns;
+    }
+
+    String columns() {
+        return "id, name, area_ha, crop, season, soil_type, " + geometryColumns;
+    }
+
+    public static FieldProjection parse(String value) {
+        if (value == null || value.isBlank()) {
+            return FULL;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown field projection: " + value + " (expected summary, map or full)");
+        }
+    }
+}
@@ -1,25 +1,36 @@
 package com.agrocrm.domain.field;
 
+import com.agrocrm.config.DataChangedEvent;
+import com.agrocrm.config.NdjsonStreamer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Repository
 public class FieldRepository {
     private static final Logger log = LoggerFactory.getLogger(FieldRepository.class);
 
     private final JdbcTemplate jdbc;
+    private final ApplicationEventPublisher events;
 
-    public FieldRepository(JdbcTemplate jdbc) {
+    public FieldRepository(JdbcTemplate jdbc, ApplicationEventPublisher events) {
         this.jdbc = jdbc;
+        this.events = events;
     }
 
     private RowMapper<Field> mapper = new RowMapper<Field>() {
@@ -37,9 +48,15 @@ public class FieldRepository {
         }
     };
 
-    public List<Field> findAll() {
+    private RowMapper<Field> projectedMapper = (rs, rowNum) -> {
+        Field field = mapper.mapRow(rs, rowNum);
+        field.setGeojsonSimplified(rs.getString("geojson_simplified"));
+        return field;
+    };
+
+    public List<Field> findAll(FieldProjection projection) {
         try {
-            List<Field> fields = jdbc.query("SELECT id, name, area_ha, crop, season, soil_type, geojson::text FROM field ORDER BY name", mapper);
+            List<Field> fields = jdbc.query("SELECT " + projection.columns() + " FROM field ORDER BY name", projectedMapper);
             log.debug("Found {} fields", fields.size());
             return fields;
         } catch (Exception e) {
@@ -48,11 +65,25 @@ public class FieldRepository {
         }
     }
     
-    public List<Field> findAllPaginated(int page, int size) {
+    /**
+     * Построчное чтение всех полей курсором для потоковой выдачи; должно
+     * вызываться внутри транзакции.
+     */
+    public void streamAll(FieldProjection projection, Consumer<Field> sink) {
+        try {
+            String sql = "SELECT " + projection.columns() + " FROM field ORDER BY name, id";
+            jdbc.query(NdjsonStreamer.fetching(sql), rs -> { sink.accept(projectedMapper.mapRow(rs, rs.getRow())); });
+        } catch (Exception e) {
+            log.error("Failed to stream fields", e);
+            throw e;
+        }
+    }
+    
+    public List<Field> findAllPaginated(int page, int size, FieldProjection projection) {
         try {
             int offset = page * size;
-            String sql = "SELECT id, name, area_ha, crop, season, soil_type, geojson::text FROM field ORDER BY name LIMIT ? OFFSET ?";
-            List<Field> fields = jdbc.query(sql, mapper, size, offset);
+            String sql = "SELECT " + projection.columns() + " FROM field ORDER BY name, id LIMIT ? OFFSET ?";
+            List<Field> fields = jdbc.query(sql, projectedMapper, size, offset);
             log.debug("Found {} fields for page {} with size {}", fields.size(), page, size);
             return fields;
         } catch (Exception e) {
@@ -61,6 +92,35 @@ public class FieldRepository {
         }
     }
     
+    /**
+     * Страница по ключу (name, id) без OFFSET: стоимость не зависит от глубины.
+     * Возвращает до limit строк в порядке возрастания (name, id).
+     */
+    public List<Field> findPageByCursor(FieldCursor cursor, int limit, FieldProjection projection) {
+        try {
+            List<Field> fields;
+            if (cursor == null) {
+                String sql = "SELECT " + projection.columns() + " FROM field ORDER BY name, id LIMIT ?";
+                fields = jdbc.query(sql, projectedMapper, limit);
+            } else if (cursor.direction() == FieldCursor.Direction.AFTER) {
+                String sql = "SELECT " + projection.columns() + " FROM field " +
+                             "WHERE (name, id) > (?, ?) ORDER BY name, id LIMIT ?";
+                fields = jdbc.query(sql, projectedMapper, cursor.name(), cursor.id(), limit);
+            } else {
+                String sql = "SELECT " + projection.columns() + " FROM field " +
+                             "WHERE (name, id) < (?, ?) ORDER BY name DESC, id DESC LIMIT ?";
+                fields = new ArrayList<>(jdbc.query(sql, projectedMapper, cursor.name(), cursor.id(), limit));
+                Collections.reverse(fields);
+            }
+            log.debug("Found {} fields by cursor: direction={}, limit={}", fields.size(),
+                    cursor != null ? cursor.direction() : null, limit);
+            return fields;
+        } catch (Exception e) {
+            log.error("Failed to find fields by cursor: limit={}", limit, e);
+            throw e;
+        }
+    }
+
     public long countAll() {
         try {
             Long count = jdbc.queryForObject("SELECT COUNT(*) FROM field", Long.class);
@@ -83,12 +143,65 @@ public class FieldRepository {
         }
     }
 
-    public UUID create(Field f, UUID userId) {
+    /**
+     * Геометрия поля отдельно от атрибутов; null, если поле не найдено.
+     */
+    public String findGeometry(UUID id, boolean simplified) {
+        try {
+            String column = simplified ? "COALESCE(geojson_simplified, geojson)" : "geojson";
+            List<String> result = jdbc.queryForList("SELECT " + column + "::text FROM field WHERE id = ?", String.class, id);
+            return result.isEmpty() ? null : result.get(0);
+        } catch (Exception e) {
+            log.error("Failed to find field geometry: id={}, simplified={}", id, simplified, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Исходная геометрия полей без упрощенной, по возрастанию id после afterId
+     * (null - с начала). Для дозаполнения geojson_simplified у старых строк.
+     */
+    public Map<UUID, String> findWithoutSimplified(UUID afterId, int limit) {
+        try {
+            String sql = "SELECT id, geojson::text AS geojson FROM field " +
+                         "WHERE geojson IS NOT NULL AND geojson_simplified IS NULL" +
+                         (afterId != null ? " AND id > ?" : "") + " ORDER BY id LIMIT ?";
+            Map<UUID, String> result = new LinkedHashMap<>();
+            RowCallbackHandler collect = rs -> result.put(rs.getObject("id", UUID.class), rs.getString("geojson"));
+            if (afterId != null) {
+                jdbc.query(sql, collect, afterId, limit);
+            } else {
+                jdbc.query(sql, collect, limit);
+            }
+            return result;
+        } catch (Exception e) {
+            log.error("Failed to find fields without simplified geometry: afterId={}", afterId, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Записывает упрощенную геометрию, если поле не успели отредактировать
+     * (тогда она уже посчитана при записи). updated_at не меняется.
+     */
+    public int saveSimplified(UUID id, String geojsonSimplified) {
+        try {
+            return jdbc.update("UPDATE field SET geojson_simplified = ?::jsonb WHERE id = ? AND geojson_simplified IS NULL",
+                               geojsonSimplified, id);
+        } catch (Exception e) {
+            log.error("Failed to save simplified geometry: id={}", id, e);
+            throw e;
+        }
+    }
+
+    public UUID create(Field f, String geojsonSimplified, UUID userId) {
         try {
             UUID id = UUID.randomUUID();
-            String sql = "INSERT INTO field (id, name, area_ha, crop, season, soil_type, geojson, created_by) VALUES (?,?,?,?,?,?, to_jsonb(?::json), ?)";
-            jdbc.update(sql, id, f.getName(), f.getAreaHa(), f.getCrop(), f.getSeason(), f.getSoilType(), f.getGeojson(), userId);
+            String sql = "INSERT INTO field (id, name, area_ha, crop, season, soil_type, geojson, geojson_simplified, created_by) " +
+                         "VALUES (?,?,?,?,?,?, to_jsonb(?::json), to_jsonb(?::json), ?)";
+            jdbc.update(sql, id, f.getName(), f.getAreaHa(), f.getCrop(), f.getSeason(), f.getSoilType(), f.getGeojson(), geojsonSimplified, userId);
             log.debug("Created field: id={}, name={}, creator={}", id, f.getName(), userId);
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.FIELD));
             return id;
         } catch (Exception e) {
             log.error("Failed to create field: name={}, creator={}", f.getName(), userId, e);
@@ -96,11 +209,13 @@ public class FieldRepository {
         }
     }
 
-    public void update(UUID id, Field f) throws DataAccessException {
+    public void update(UUID id, Field f, String geojsonSimplified) throws DataAccessException {
         try {
-            String sql = "UPDATE field SET name=?, area_ha=?, crop=?, season=?, soil_type=?, geojson=to_jsonb(?::json), updated_at=now() WHERE id=?";
-            jdbc.update(sql, f.getName(), f.getAreaHa(), f.getCrop(), f.getSeason(), f.getSoilType(), f.getGeojson(), id);
+            String sql = "UPDATE field SET name=?, area_ha=?, crop=?, season=?, soil_type=?, geojson=to_jsonb(?::json), " +
+                         "geojson_simplified=to_jsonb(?::json), updated_at=now() WHERE id=?";
+            jdbc.update(sql, f.getName(), f.getAreaHa(), f.getCrop(), f.getSeason(), f.getSoilType(), f.getGeojson(), geojsonSimplified, id);
             log.debug("Updated field: id={}, name={}", id, f.getName());
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.FIELD));
         } catch (Exception e) {
             log.error("Failed to update field: id={}, name={}", id, f.getName(), e);
             throw e;
@@ -111,6 +226,7 @@ public class FieldRepository {
         try {
             jdbc.update("DELETE FROM field WHERE id = ?", id);
             log.debug("Deleted field: id={}", id);
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.FIELD));
         } catch (Exception e) {
             log.error("Failed to delete field: id={}", id, e);
             throw e;
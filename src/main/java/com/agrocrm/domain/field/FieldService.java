@@ -2,33 +2,49 @@ package com.agrocrm.domain.field;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Service
 public class FieldService {
     private static final Logger log = LoggerFactory.getLogger(FieldService.class);
     
     private final FieldRepository repo;
+    private final GeoJsonSimplifier simplifier;
+    private final long countCacheTtlMs;
 
-    public FieldService(FieldRepository repo) {
+    // Приблизительное количество полей для курсорного режима: точный COUNT(*) на каждую страницу не нужен
+    private volatile long cachedCount = -1;
+    private volatile long cachedCountAt;
+
+    public FieldService(FieldRepository repo, GeoJsonSimplifier simplifier,
+                        @Value("${app.fields.countCacheTtlMs:60000}") long countCacheTtlMs) {
         this.repo = repo;
+        this.simplifier = simplifier;
+        this.countCacheTtlMs = countCacheTtlMs;
     }
 
-    public List<Field> list() { 
+    public List<Field> list(FieldProjection projection) { 
         try {
-            return repo.findAll();
+            return repo.findAll(projection);
         } catch (Exception e) {
             log.error("Failed to list fields", e);
             throw e;
         }
     }
     
-    public PageableFieldResponse listPaginated(int page, int size) { 
+    public void stream(FieldProjection projection, Consumer<Field> sink) {
+        repo.streamAll(projection, sink);
+    }
+    
+    public PageableFieldResponse listPaginated(int page, int size, FieldProjection projection) { 
         try {
-            List<Field> fields = repo.findAllPaginated(page, size);
+            List<Field> fields = repo.findAllPaginated(page, size, projection);
             long totalElements = repo.countAll();
             int totalPages = (int) Math.ceil((double) totalElements / size);
             int numberOfElements = fields.size();
@@ -36,11 +52,12 @@ public class FieldService {
             
             // Создаем ссылки навигации
             String baseUrl = "/api/fields";
-            String first = baseUrl + "?page=0&size=" + size;
-            String previous = page > 0 ? baseUrl + "?page=" + (page - 1) + "&size=" + size : null;
-            String current = baseUrl + "?page=" + page + "&size=" + size;
-            String next = page < totalPages - 1 ? baseUrl + "?page=" + (page + 1) + "&size=" + size : null;
-            String last = baseUrl + "?page=" + (totalPages - 1) + "&size=" + size;
+            String suffix = "&size=" + size + projectionParam(projection);
+            String first = baseUrl + "?page=0" + suffix;
+            String previous = page > 0 ? baseUrl + "?page=" + (page - 1) + suffix : null;
+            String current = baseUrl + "?page=" + page + suffix;
+            String next = page < totalPages - 1 ? baseUrl + "?page=" + (page + 1) + suffix : null;
+            String last = baseUrl + "?page=" + (totalPages - 1) + suffix;
             
             PageableFieldResponse.NavigationLinks navigationLinks = 
                 new PageableFieldResponse.NavigationLinks(first, previous, current, next, last);
@@ -55,6 +72,62 @@ public class FieldService {
         }
     }
     
+    public PageableFieldResponse listByCursor(String cursor, int size, FieldProjection projection) {
+        try {
+            FieldCursor position = cursor != null && !cursor.isBlank() ? FieldCursor.decode(cursor) : null;
+            boolean backward = position != null && position.direction() == FieldCursor.Direction.BEFORE;
+
+            // Читаем на одну строку больше, чтобы узнать, есть ли еще страница в этом направлении
+            List<Field> fields = repo.findPageByCursor(position, size + 1, projection);
+            boolean hasMore = fields.size() > size;
+            if (hasMore) {
+                fields = backward ? fields.subList(1, fields.size()) : fields.subList(0, size);
+            }
+
+            String nextCursor = null;
+            String previousCursor = null;
+            if (!fields.isEmpty()) {
+                Field first = fields.get(0);
+                Field last = fields.get(fields.size() - 1);
+                if (backward || hasMore) {
+                    nextCursor = FieldCursor.after(last).encode();
+                }
+                if (position != null && (!backward || hasMore)) {
+                    previousCursor = FieldCursor.before(first).encode();
+                }
+            }
+
+            String baseUrl = "/api/fields?paging=cursor&size=" + size + projectionParam(projection);
+            PageableFieldResponse.NavigationLinks navigationLinks = new PageableFieldResponse.NavigationLinks(
+                    baseUrl,
+                    previousCursor != null ? baseUrl + "&cursor=" + previousCursor : null,
+                    position != null ? baseUrl + "&cursor=" + cursor : baseUrl,
+                    nextCursor != null ? baseUrl + "&cursor=" + nextCursor : null,
+                    null);
+
+            PageableFieldResponse.PageMetadata metadata = new PageableFieldResponse.PageMetadata(
+                    approximateCount(), size, fields.size(), nextCursor, previousCursor, navigationLinks);
+
+            return new PageableFieldResponse(new ArrayList<>(fields), metadata);
+        } catch (Exception e) {
+            log.error("Failed to list fields by cursor: cursor={}, size={}", cursor, size, e);
+            throw e;
+        }
+    }
+
+    private static String projectionParam(FieldProjection projection) {
+        return projection == FieldProjection.FULL ? "" : "&fields=" + projection.name().toLowerCase();
+    }
+
+    private long approximateCount() {
+        long now = System.currentTimeMillis();
+        if (cachedCount < 0 || now - cachedCountAt > countCacheTtlMs) {
+            cachedCount = repo.countAll();
+            cachedCountAt = now;
+        }
+        return cachedCount;
+    }
+    
     public Field get(UUID id) { 
         try {
             return repo.findById(id);
@@ -64,9 +137,21 @@ public class FieldService {
         }
     }
     
+    public String getGeometry(UUID id, boolean simplified) {
+        try {
+            return repo.findGeometry(id, simplified);
+        } catch (Exception e) {
+            log.error("Failed to get field geometry: id={}, simplified={}", id, simplified, e);
+            throw e;
+        }
+    }
+    
     public UUID create(Field f, UUID userId) { 
         try {
-            return repo.create(f, userId);
+            // Упрощенная геометрия считается один раз при записи, а не при каждом чтении карты
+            UUID id = repo.create(f, simplifier.simplify(f.getGeojson()), userId);
+            cachedCount = -1;
+            return id;
         } catch (Exception e) {
             log.error("Failed to create field: name={}, userId={}", f.getName(), userId, e);
             throw e;
@@ -75,7 +160,7 @@ public class FieldService {
     
     public void update(UUID id, Field f) { 
         try {
-            repo.update(id, f);
+            repo.update(id, f, simplifier.simplify(f.getGeojson()));
         } catch (Exception e) {
             log.error("Failed to update field: id={}, name={}", id, f.getName(), e);
             throw e;
@@ -85,6 +170,7 @@ public class FieldService {
     public void delete(UUID id) { 
         try {
             repo.delete(id);
+            cachedCount = -1;
         } catch (Exception e) {
             log.error("Failed to delete field: id={}", id, e);
             throw e;
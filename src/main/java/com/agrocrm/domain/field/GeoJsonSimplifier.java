@@ -0,0 +1,149 @@
+package com.agrocrm.domain.field;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Упрощение GeoJSON для обзорных карт: алгоритм Дугласа-Пекера по каждой
+ * линии/кольцу и округление координат. Считается один раз при записи поля.
+ */
+@Component
+public class GeoJsonSimplifier {
+    private static final Logger log = LoggerFactory.getLogger(GeoJsonSimplifier.class);
+
+    private final ObjectMapper objectMapper;
+    private final double tolerance;
+    private final double scale;
+
+    public GeoJsonSimplifier(ObjectMapper objectMapper,
+                             @Value("${app.fields.geometry.simplifyTolerance:0.0001}") double tolerance,
+                             @Value("${app.fields.geometry.coordinateDecimals:6}") int coordinateDecimals) {
+        this.objectMapper = objectMapper;
+        this.tolerance = tolerance;
+        this.scale = Math.pow(10, coordinateDecimals);
+    }
+
+    /**
+     * Возвращает упрощенный GeoJSON или null, если исходный пуст или не разобран.
+     */
+    public String simplify(String geojson) {
+        if (geojson == null || geojson.isBlank()) {
+            return null;
+        }
+        try {
+            JsonNode root = objectMapper.readTree(geojson);
+            simplifyNode(root);
+            return objectMapper.writeValueAsString(root);
+        } catch (Exception e) {
+            log.warn("Failed to simplify GeoJSON, overview geometry will fall back to the original", e);
+            return null;
+        }
+    }
+
+    private void simplifyNode(JsonNode node) {
+        if (!(node instanceof ObjectNode obj)) {
+            return;
+        }
+        String type = obj.path("type").asText();
+        switch (type) {
+            case "FeatureCollection" -> obj.path("features").forEach(this::simplifyNode);
+            case "Feature" -> simplifyNode(obj.path("geometry"));
+            case "GeometryCollection" -> obj.path("geometries").forEach(this::simplifyNode);
+            case "LineString" -> obj.set("coordinates", simplifyLine(obj.path("coordinates"), false));
+            case "MultiLineString", "Polygon" -> obj.set("coordinates", simplifyLines(obj.path("coordinates"), "Polygon".equals(type)));
+            case "MultiPolygon" -> {
+                ArrayNode polygons = objectMapper.createArrayNode();
+                obj.path("coordinates").forEach(p -> polygons.add(simplifyLines(p, true)));
+                obj.set("coordinates", polygons);
+            }
+            default -> { /* Point, MultiPoint: упрощать нечего */ }
+        }
+    }
+
+    private ArrayNode simplifyLines(JsonNode lines, boolean rings) {
+        ArrayNode result = objectMapper.createArrayNode();
+        lines.forEach(line -> result.add(simplifyLine(line, rings)));
+        return result;
+    }
+
+    private ArrayNode simplifyLine(JsonNode coords, boolean ring) {
+        int n = coords.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = coords.get(i).get(0).asDouble();
+            ys[i] = coords.get(i).get(1).asDouble();
+        }
+        boolean[] keep = new boolean[n];
+        if (n > 0) {
+            keep[0] = true;
+            keep[n - 1] = true;
+            douglasPeucker(xs, ys, 0, n - 1, keep);
+        }
+
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) kept++;
+        }
+        // Кольцо полигона должно остаться валидным: минимум 4 точки
+        int minPoints = ring ? 4 : 2;
+        if (kept < minPoints && n >= minPoints) {
+            keep = new boolean[n];
+            for (int i = 0; i < minPoints; i++) {
+                keep[(int) Math.round((double) i * (n - 1) / (minPoints - 1))] = true;
+            }
+        }
+
+        ArrayNode result = objectMapper.createArrayNode();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                ArrayNode point = objectMapper.createArrayNode();
+                point.add(round(xs[i]));
+                point.add(round(ys[i]));
+                result.add(point);
+            }
+        }
+        return result;
+    }
+
+    private void douglasPeucker(double[] xs, double[] ys, int first, int last, boolean[] keep) {
+        if (last <= first + 1) {
+            return;
+        }
+        double maxDistance = 0;
+        int index = -1;
+        for (int i = first + 1; i < last; i++) {
+            double d = perpendicularDistance(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+            if (d > maxDistance) {
+                maxDistance = d;
+                index = i;
+            }
+        }
+        if (index >= 0 && maxDistance > tolerance) {
+            keep[index] = true;
+            douglasPeucker(xs, ys, first, index, keep);
+            douglasPeucker(xs, ys, index, last, keep);
+        }
+    }
+
+    private static double perpendicularDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double len = Math.hypot(dx, dy);
+        if (len == 0) {
+            // Замкнутое кольцо: начало и конец совпадают, берем расстояние до точки
+            return Math.hypot(px - ax, py - ay);
+        }
+        return Math.abs(dy * px - dx * py + bx * ay - by * ax) / len;
+    }
+
+    private double round(double v) {
+        return Math.round(v * scale) / scale;
+    }
+}
@@ -57,6 +57,15 @@ public class PageableFieldResponse {
         @Schema(description = "Ссылки навигации")
         private NavigationLinks navigationLinks;
         
+        @Schema(description = "Курсор следующей страницы (курсорный режим)")
+        private String nextCursor;
+        
+        @Schema(description = "Курсор предыдущей страницы (курсорный режим)")
+        private String previousCursor;
+        
+        @Schema(description = "Общее количество элементов приблизительное (кэшируется)", example = "false")
+        private boolean approximateTotal;
+        
         public PageMetadata(long totalElements, int totalPages, int currentPage, int pageSize, 
                           long offset, int numberOfElements, NavigationLinks navigationLinks) {
             this.totalElements = totalElements;
@@ -68,6 +77,18 @@ public class PageableFieldResponse {
             this.navigationLinks = navigationLinks;
         }
         
+        public PageMetadata(long totalElements, int pageSize, int numberOfElements,
+                          String nextCursor, String previousCursor, NavigationLinks navigationLinks) {
+            this.totalElements = totalElements;
+            this.totalPages = (int) Math.ceil((double) totalElements / pageSize);
+            this.pageSize = pageSize;
+            this.numberOfElements = numberOfElements;
+            this.nextCursor = nextCursor;
+            this.previousCursor = previousCursor;
+            this.approximateTotal = true;
+            this.navigationLinks = navigationLinks;
+        }
+        
         // Getters and setters
         public long getTotalElements() { return totalElements; }
         public void setTotalElements(long totalElements) { this.totalElements = totalElements; }
@@ -89,6 +110,15 @@ public class PageableFieldResponse {
         
         public NavigationLinks getNavigationLinks() { return navigationLinks; }
         public void setNavigationLinks(NavigationLinks navigationLinks) { this.navigationLinks = navigationLinks; }
+        
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+        
+        public String getPreviousCursor() { return previousCursor; }
+        public void setPreviousCursor(String previousCursor) { this.previousCursor = previousCursor; }
+        
+        public boolean isApproximateTotal() { return approximateTotal; }
+        public void setApproximateTotal(boolean approximateTotal) { this.approximateTotal = approximateTotal; }
     }
     
     @Schema(description = "Ссылки навигации по страницам")
@@ -0,0 +1,44 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * Коды аномалий топливной транзакции. В fuel_transaction.anomalies хранится
+ * JSON-массив кодов; значение, пришедшее от источника в другом виде,
+ * сохраняется первым элементом массива.
+ */
+public final class FuelAnomalies {
+    public static final String NIGHT_REFUEL = "NIGHT_REFUEL";
+    public static final String DAILY_LIMIT_EXCEEDED = "DAILY_LIMIT_EXCEEDED";
+    public static final String OVERCONSUMPTION = "OVERCONSUMPTION";
+
+    private FuelAnomalies() { }
+
+    /**
+     * Добавляет код к аномалиям транзакции, если его там еще нет.
+     */
+    public static void add(ObjectMapper objectMapper, FuelTransaction f, String code) {
+        ArrayNode codes = objectMapper.createArrayNode();
+        if (f.getAnomalies() != null) {
+            try {
+                JsonNode existing = objectMapper.readTree(f.getAnomalies());
+                if (existing.isArray()) {
+                    codes.addAll((ArrayNode) existing);
+                } else if (!existing.isMissingNode() && !existing.isNull()) {
+                    codes.add(existing);
+                }
+            } catch (Exception e) {
+                codes.add(f.getAnomalies());
+            }
+        }
+        for (JsonNode node : codes) {
+            if (code.equals(node.asText())) {
+                return;
+            }
+        }
+        codes.add(code);
+        f.setAnomalies(codes.toString());
+    }
+}
@@ -0,0 +1,49 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+
+/**
+ * Классификация транзакции при приеме: ночная заправка определяется по
+ * локальному времени хозяйства, а не по UTC-времени в БД.
+ */
+@Component
+public class FuelClassifier {
+    private final ObjectMapper objectMapper;
+    private final ZoneId farmZone;
+    private final int nightStartHour;
+    private final int nightEndHour;
+
+    public FuelClassifier(ObjectMapper objectMapper,
+                          @Value("${app.farm.timezone:Europe/Moscow}") String farmTimezone,
+                          @Value("${app.fuel.night.startHour:22}") int nightStartHour,
+                          @Value("${app.fuel.night.endHour:6}") int nightEndHour) {
+        this.objectMapper = objectMapper;
+        this.farmZone = ZoneId.of(farmTimezone);
+        this.nightStartHour = nightStartHour;
+        this.nightEndHour = nightEndHour;
+    }
+
+    public ZoneId getFarmZone() { return farmZone; }
+    public int getNightStartHour() { return nightStartHour; }
+    public int getNightEndHour() { return nightEndHour; }
+
+    public void classify(FuelTransaction f) {
+        boolean night = isNight(f);
+        f.setNight(night);
+        if (night) {
+            FuelAnomalies.add(objectMapper, f, FuelAnomalies.NIGHT_REFUEL);
+        }
+    }
+
+    private boolean isNight(FuelTransaction f) {
+        int hour = f.getTs().atZoneSameInstant(farmZone).getHour();
+        // Окно может переходить через полночь (22-06) или нет (0-5)
+        return nightStartHour > nightEndHour
+                ? hour >= nightStartHour || hour < nightEndHour
+                : hour >= nightStartHour && hour < nightEndHour;
+    }
+}
@@ -0,0 +1,173 @@
+package com.agrocrm.domain.fuel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Запросы оценки расхода топлива по задачам.
+ */
+@Repository
+public class FuelConsumptionRepository {
+    private static final Logger log = LoggerFactory.getLogger(FuelConsumptionRepository.class);
+
+    /**
+     * Исходные данные задачи: залитые литры, моточасы по путевым листам
+     * и площадь поля вместе с нормами машины. Любое из значений кроме
+     * литров может отсутствовать.
+     */
+    public record TaskConsumption(UUID taskId, UUID machineId, BigDecimal liters, BigDecimal engineHours,
+                                  BigDecimal normLph, BigDecimal areaHa, BigDecimal normLpha, OffsetDateTime periodTs) { }
+
+    /** Результат оценки задачи */
+    public record Score(UUID taskId, UUID machineId, BigDecimal actualLiters, BigDecimal expectedLiters,
+                        String basis, BigDecimal ratio, boolean flagged, OffsetDateTime periodTs) { }
+
+    private final JdbcTemplate jdbc;
+
+    public FuelConsumptionRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    /**
+     * Задачи с техникой, начатые не раньше since.
+     */
+    public List<UUID> findRecentTaskIds(OffsetDateTime since) {
+        return jdbc.queryForList("SELECT id FROM task WHERE assigned_machine IS NOT NULL AND actual_start >= ?", UUID.class, since);
+    }
+
+    /**
+     * Читает данные задач построчно в порядке машин. Литры и моточасы
+     * агрегируются по задаче отдельно, чтобы заправки и путевые листы не
+     * перемножались при соединении.
+     */
+    public void streamConsumption(Collection<UUID> taskIds, Consumer<TaskConsumption> sink) {
+        String sql = "WITH t AS (SELECT id, field_id, assigned_machine, actual_start, actual_end FROM task " +
+                     "  WHERE id = ANY(?) AND assigned_machine IS NOT NULL AND actual_start IS NOT NULL), " +
+                     "fuel AS (SELECT matched_task AS task_id, SUM(liters) AS liters FROM fuel_transaction " +
+                     "  WHERE matched_task IN (SELECT id FROM t) GROUP BY matched_task), " +
+                     "hours AS (SELECT task_id, SUM(engine_hours_end - engine_hours_start) AS hours FROM waybill " +
+                     "  WHERE task_id IN (SELECT id FROM t) AND engine_hours_end >= engine_hours_start GROUP BY task_id) " +
+                     "SELECT t.id, t.assigned_machine, COALESCE(fuel.liters, 0) AS liters, hours.hours, " +
+                     "  m.fuel_norm_lph, fd.area_ha, m.fuel_norm_lpha, COALESCE(t.actual_end, t.actual_start) AS period_ts " +
+                     "FROM t JOIN machine m ON m.id = t.assigned_machine JOIN field fd ON fd.id = t.field_id " +
+                     "LEFT JOIN fuel ON fuel.task_id = t.id LEFT JOIN hours ON hours.task_id = t.id " +
+                     "ORDER BY t.assigned_machine, period_ts";
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("uuid", taskIds.toArray()));
+            return ps;
+        }, rs -> {
+            sink.accept(new TaskConsumption((UUID) rs.getObject("id"), (UUID) rs.getObject("assigned_machine"),
+                    rs.getBigDecimal("liters"), rs.getBigDecimal("hours"), rs.getBigDecimal("fuel_norm_lph"),
+                    rs.getBigDecimal("area_ha"), rs.getBigDecimal("fuel_norm_lpha"),
+                    rs.getObject("period_ts", OffsetDateTime.class)));
+        });
+    }
+
+    public void saveScores(List<Score> scores) {
+        String sql = "INSERT INTO fuel_consumption_score " +
+                     "(task_id, machine_id, actual_liters, expected_liters, basis, ratio, flagged, period_ts, scored_at) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, now()) " +
+                     "ON CONFLICT (task_id) DO UPDATE SET machine_id = EXCLUDED.machine_id, " +
+                     "actual_liters = EXCLUDED.actual_liters, expected_liters = EXCLUDED.expected_liters, " +
+                     "basis = EXCLUDED.basis, ratio = EXCLUDED.ratio, flagged = EXCLUDED.flagged, " +
+                     "period_ts = EXCLUDED.period_ts, scored_at = now()";
+        try {
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Score s = scores.get(i);
+                    ps.setObject(1, s.taskId());
+                    ps.setObject(2, s.machineId());
+                    ps.setBigDecimal(3, s.actualLiters());
+                    ps.setBigDecimal(4, s.expectedLiters());
+                    ps.setString(5, s.basis());
+                    ps.setBigDecimal(6, s.ratio());
+                    ps.setBoolean(7, s.flagged());
+                    ps.setObject(8, s.periodTs());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return scores.size();
+                }
+            });
+        } catch (Exception e) {
+            log.error("Failed to save fuel consumption scores: count={}", scores.size(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Добавляет код аномалии транзакциям помеченных задач и снимает его
+     * с транзакций задач, где перерасхода больше нет. Обновляются только
+     * строки, у которых признак действительно меняется.
+     */
+    public int markAnomalies(UUID[] taskIds, boolean[] flagged, String code) {
+        Boolean[] flags = new Boolean[flagged.length];
+        for (int i = 0; i < flagged.length; i++) {
+            flags[i] = flagged[i];
+        }
+        String sql = "UPDATE fuel_transaction f SET anomalies = CASE WHEN m.flagged THEN " +
+                     "  (CASE WHEN f.anomalies IS NULL OR jsonb_typeof(f.anomalies) = 'null' THEN '[]'::jsonb " +
+                     "        WHEN jsonb_typeof(f.anomalies) = 'array' THEN f.anomalies " +
+                     "        ELSE jsonb_build_array(f.anomalies) END) || jsonb_build_array(?::text) " +
+                     "  ELSE f.anomalies - ?::text END " +
+                     "FROM unnest(?::uuid[], ?::boolean[]) AS m(task_id, flagged) " +
+                     "WHERE f.matched_task = m.task_id " +
+                     "AND m.flagged = NOT COALESCE(f.anomalies @> jsonb_build_array(?::text), false)";
+        try {
+            return jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                ps.setString(1, code);
+                ps.setString(2, code);
+                ps.setArray(3, con.createArrayOf("uuid", taskIds));
+                ps.setArray(4, con.createArrayOf("boolean", flags));
+                ps.setString(5, code);
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to mark fuel consumption anomalies: tasks={}", taskIds.length, e);
+            throw e;
+        }
+    }
+
+    private static final String OVERCONSUMPTION_SELECT = "SELECT s.task_id, t.title AS task_title, s.machine_id, m.reg_number, " +
+            "s.actual_liters, s.expected_liters, s.basis, s.ratio, s.period_ts, s.scored_at " +
+            "FROM fuel_consumption_score s JOIN task t ON t.id = s.task_id JOIN machine m ON m.id = s.machine_id " +
+            "WHERE s.flagged AND s.period_ts >= ? AND s.period_ts < ?";
+    // Порядок совпадает с idx_fuel_score_flagged (period_ts DESC, task_id)
+    private static final String OVERCONSUMPTION_ORDER = " ORDER BY s.period_ts DESC, s.task_id LIMIT ?";
+
+    /**
+     * Страница задач с перерасходом за период [from, to), новые первыми.
+     * Следующая страница начинается после (beforeTs, afterTaskId) последней
+     * строки предыдущей; оба null - первая страница. Читает частичный индекс
+     * idx_fuel_score_flagged без пропуска строк.
+     */
+    public List<Map<String,Object>> overconsumption(OffsetDateTime from, OffsetDateTime to,
+                                                    OffsetDateTime beforeTs, UUID afterTaskId, int size) {
+        try {
+            if (beforeTs == null) {
+                return jdbc.queryForList(OVERCONSUMPTION_SELECT + OVERCONSUMPTION_ORDER, from, to, size);
+            }
+            return jdbc.queryForList(OVERCONSUMPTION_SELECT + " AND (s.period_ts < ? OR (s.period_ts = ? AND s.task_id > ?))" +
+                                     OVERCONSUMPTION_ORDER, from, to, beforeTs, beforeTs, afterTaskId, size);
+        } catch (Exception e) {
+            log.error("Failed to load fuel overconsumption alerts: from={}, to={}, beforeTs={}, afterTaskId={}, size={}",
+                      from, to, beforeTs, afterTaskId, size, e);
+            throw e;
+        }
+    }
+}
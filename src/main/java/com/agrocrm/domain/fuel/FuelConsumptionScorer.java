@@ -0,0 +1,142 @@
+package com.agrocrm.domain.fuel;
+
+import com.agrocrm.domain.fuel.FuelConsumptionRepository.Score;
+import com.agrocrm.domain.fuel.FuelConsumptionRepository.TaskConsumption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Оценка расхода топлива по задачам. Ожидаемый расход считается по норме
+ * машины: моточасы путевых листов задачи * fuel_norm_lph, а если моточасов
+ * нет - площадь поля * fuel_norm_lpha. Если залито больше ожидаемого в
+ * app.fuel.overconsumption.ratio раз и разница не меньше minExcessLiters,
+ * транзакциям задачи добавляется аномалия OVERCONSUMPTION.
+ *
+ * Пересчитываются только затронутые задачи: сопоставленные с новыми
+ * транзакциями и недавно начатые (путевые листы закрываются позже заправок).
+ * Данные читаются потоком по машинам и записываются пачками.
+ */
+@Component
+public class FuelConsumptionScorer {
+    private static final Logger log = LoggerFactory.getLogger(FuelConsumptionScorer.class);
+    // Предел столбца ratio NUMERIC(8,3): большая заправка на крошечную норму не должна срывать пересчет
+    private static final BigDecimal MAX_RATIO = new BigDecimal("99999.999");
+
+    public static final String ENGINE_HOURS = "ENGINE_HOURS";
+    public static final String AREA = "AREA";
+
+    private final FuelConsumptionRepository repo;
+    private final TransactionTemplate tx;
+    private final BigDecimal ratioThreshold;
+    private final BigDecimal minExcessLiters;
+    private final int lookbackDays;
+    private final int batchSize;
+
+    public FuelConsumptionScorer(FuelConsumptionRepository repo, PlatformTransactionManager transactionManager,
+                                 @Value("${app.fuel.overconsumption.ratio:1.2}") double ratioThreshold,
+                                 @Value("${app.fuel.overconsumption.minExcessLiters:20}") double minExcessLiters,
+                                 @Value("${app.fuel.overconsumption.lookbackDays:7}") int lookbackDays,
+                                 @Value("${app.fuel.overconsumption.batchSize:500}") int batchSize) {
+        this.repo = repo;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.ratioThreshold = BigDecimal.valueOf(ratioThreshold);
+        this.minExcessLiters = BigDecimal.valueOf(minExcessLiters);
+        this.lookbackDays = lookbackDays;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${app.fuel.overconsumption.intervalMs:900000}")
+    public void scheduledRun() {
+        try {
+            rescoreRecent();
+        } catch (Exception e) {
+            log.error("Fuel consumption scoring failed", e);
+        }
+    }
+
+    /**
+     * Пересчитывает задачи, начатые за последние lookbackDays дней.
+     */
+    public int rescoreRecent() {
+        return score(repo.findRecentTaskIds(OffsetDateTime.now().minusDays(lookbackDays)));
+    }
+
+    /**
+     * Пересчитывает оценки указанных задач. Возвращает число задач с перерасходом.
+     */
+    public int score(Collection<UUID> taskIds) {
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+        long started = System.currentTimeMillis();
+        Integer flagged = tx.execute(status -> {
+            List<Score> batch = new ArrayList<>(batchSize);
+            int[] count = new int[1];
+            repo.streamConsumption(taskIds, c -> {
+                Score s = evaluate(c);
+                if (s.flagged()) {
+                    count[0]++;
+                }
+                batch.add(s);
+                if (batch.size() == batchSize) {
+                    flush(batch);
+                }
+            });
+            flush(batch);
+            return count[0];
+        });
+        log.info("Fuel consumption scored: tasks={}, flagged={}, elapsedMs={}",
+                 taskIds.size(), flagged, System.currentTimeMillis() - started);
+        return flagged != null ? flagged : 0;
+    }
+
+    private Score evaluate(TaskConsumption c) {
+        BigDecimal expected = null;
+        String basis = null;
+        if (c.engineHours() != null && c.normLph() != null && c.engineHours().signum() > 0) {
+            expected = c.engineHours().multiply(c.normLph());
+            basis = ENGINE_HOURS;
+        } else if (c.areaHa() != null && c.normLpha() != null && c.areaHa().signum() > 0) {
+            expected = c.areaHa().multiply(c.normLpha());
+            basis = AREA;
+        }
+
+        BigDecimal ratio = null;
+        boolean flagged = false;
+        if (expected != null && expected.signum() > 0) {
+            expected = expected.setScale(2, RoundingMode.HALF_UP);
+            ratio = c.liters().divide(expected, 3, RoundingMode.HALF_UP).min(MAX_RATIO);
+            flagged = ratio.compareTo(ratioThreshold) > 0
+                      && c.liters().subtract(expected).compareTo(minExcessLiters) >= 0;
+        }
+        return new Score(c.taskId(), c.machineId(), c.liters(), expected, basis, ratio, flagged, c.periodTs());
+    }
+
+    private void flush(List<Score> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        repo.saveScores(batch);
+        UUID[] taskIds = new UUID[batch.size()];
+        boolean[] flags = new boolean[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            taskIds[i] = batch.get(i).taskId();
+            flags[i] = batch.get(i).flagged();
+        }
+        repo.markAnomalies(taskIds, flags, FuelAnomalies.OVERCONSUMPTION);
+        batch.clear();
+    }
+}
@@ -1,7 +1,16 @@
 package com.agrocrm.domain.fuel;
 
+import com.agrocrm.config.NdjsonStreamer;
+import com.agrocrm.config.TimeRange;
+import com.agrocrm.security.SecurityUtil;
+import com.agrocrm.errors.BadRequestException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -9,52 +18,223 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/fuel")
 @Tag(name = "Топливо", description = "API для управления топливными транзакциями и лимитами")
 @SecurityRequirement(name = "Bearer Authentication")
 public class FuelController {
+    // Период отчетов по аномалиям, если границы не заданы
+    private static final int DEFAULT_ALERT_DAYS = 30;
+
     private final FuelRepository repo;
+    private final FuelIngestService ingestService;
+    private final FuelImportJobService importJobs;
+    private final FuelLimitEnforcer limitEnforcer;
+    private final FuelTaskMatcher matcher;
+    private final FuelConsumptionRepository consumption;
+    private final SecurityUtil sec;
+    private final NdjsonStreamer ndjson;
 
-    public FuelController(FuelRepository repo) { this.repo = repo; }
+    public FuelController(FuelRepository repo, FuelIngestService ingestService, FuelImportJobService importJobs,
+                          FuelLimitEnforcer limitEnforcer, FuelTaskMatcher matcher, FuelConsumptionRepository consumption,
+                          SecurityUtil sec, NdjsonStreamer ndjson) {
+        this.repo = repo;
+        this.ingestService = ingestService;
+        this.importJobs = importJobs;
+        this.limitEnforcer = limitEnforcer;
+        this.matcher = matcher;
+        this.consumption = consumption;
+        this.sec = sec;
+        this.ndjson = ndjson;
+    }
 
     @PostMapping("/import")
     @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
     @Operation(
         summary = "Импорт топливных транзакций",
-        description = "Загружает список топливных транзакций в систему"
+        description = "Загружает список топливных транзакций в систему. Повторы по карте, времени и литрам пропускаются; " +
+                      "в ответе результат по каждой строке"
     )
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "Транзакции успешно импортированы"),
+        @ApiResponse(responseCode = "200", description = "Импорт выполнен, результат по строкам в ответе"),
         @ApiResponse(responseCode = "400", description = "Некорректные данные транзакций"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для импорта")
     })
-    public void importTransactions(@RequestBody List<FuelTransaction> transactions) {
-        repo.bulkInsert(transactions);
+    public FuelImportResult importTransactions(
+        @RequestBody List<FuelTransaction> transactions,
+        @Parameter(description = "Способ записи: row, batch или copy; по умолчанию выбирается по объему")
+        @RequestParam(required = false) String strategy) {
+        return ingestService.ingest(transactions, FuelIngestStrategy.parse(strategy));
+    }
+
+    @PostMapping(value = "/import/file", consumes = "multipart/form-data")
+    @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
+    @Operation(
+        summary = "Импорт CSV-выписки процессингового центра",
+        description = "Принимает CSV-файл и импортирует его в фоне построчно. Возвращает задание импорта, " +
+                      "прогресс которого можно опрашивать по /api/fuel/import/jobs/{id}"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Импорт поставлен в очередь"),
+        @ApiResponse(responseCode = "400", description = "Файл не передан или некорректные параметры"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для импорта")
+    })
+    public ResponseEntity<FuelImportJob> importFile(
+        @Parameter(description = "CSV-файл выписки") @RequestParam("file") MultipartFile file,
+        @Parameter(description = "Способ записи: row, batch или copy; по умолчанию выбирается по размеру файла")
+        @RequestParam(required = false) String strategy,
+        @Parameter(description = "Источник для строк без колонки источника", example = "1C")
+        @RequestParam(defaultValue = "1C") String source,
+        @Parameter(description = "Кодировка файла, например windows-1251 или UTF-8; по умолчанию определяется по содержимому")
+        @RequestParam(required = false) String charset) throws IOException {
+        if (file.isEmpty()) {
+            throw new BadRequestException("File is empty");
+        }
+        FuelImportJob job = importJobs.submit(file, FuelIngestStrategy.parse(strategy), source, parseCharset(charset),
+                                              sec.currentUserIdOrNull());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("/api/fuel/import/jobs/" + job.getId()))
+                .body(job);
+    }
+
+    @GetMapping("/import/jobs/{id}")
+    @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
+    @Operation(
+        summary = "Статус задания импорта",
+        description = "Возвращает прогресс и итог фонового импорта выписки"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Задание найдено"),
+        @ApiResponse(responseCode = "404", description = "Задание не найдено"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<FuelImportJob> importJob(@Parameter(description = "ID задания импорта") @PathVariable UUID id) {
+        FuelImportJob job = importJobs.get(id);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    @PostMapping("/match")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Сопоставить транзакции с задачами",
+        description = "Запускает сопоставление непроверенных транзакций с задачами по госномеру техники и фактическому " +
+                      "времени работы. Если задан период, транзакции за него сопоставляются заново"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Сопоставление выполнено"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public FuelTaskMatcher.MatchStats match(
+        @Parameter(description = "Начало периода для повторного сопоставления (ISO-8601)") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода для повторного сопоставления (ISO-8601)") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to) {
+        if (from == null && to == null) {
+            return matcher.matchPending();
+        }
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new BadRequestException("Both from and to are required and from must be before to");
+        }
+        return matcher.rematch(from, to);
     }
 
     @GetMapping("/alerts/night")
     @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
     @Operation(
         summary = "Получить ночные заправки",
-        description = "Возвращает список подозрительных ночных заправок для контроля"
+        description = "Возвращает страницу ночных заправок за период (по умолчанию последние 30 дней), новые первыми. " +
+                      "Ночь определяется по часовому поясу хозяйства при приеме транзакции. Следующая страница - " +
+                      "с beforeTs и beforeId последней строки предыдущей"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Список ночных заправок получен"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public List<Map<String,Object>> nightAlerts(
+        @Parameter(description = "Начало периода (ISO-8601), включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        @Parameter(description = "ts последней строки предыдущей страницы (ISO-8601)")
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime beforeTs,
+        @Parameter(description = "id последней строки предыдущей страницы")
+        @RequestParam(required = false) UUID beforeId,
+        @Parameter(description = "Размер страницы", example = "100") @RequestParam(defaultValue = "100") int size) {
+        TimeRange period = TimeRange.lastDays(from, to, DEFAULT_ALERT_DAYS);
+        if ((beforeTs == null) != (beforeId == null)) {
+            throw new BadRequestException("beforeTs and beforeId must be given together");
+        }
+        if (size < 1 || size > 1000) size = 100;
+        return repo.nightRefuels(period.from(), period.to(), beforeTs, beforeId, size);
+    }
+
+    @GetMapping(value = "/alerts/night", produces = NdjsonStreamer.NDJSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
+    @Operation(
+        summary = "Выгрузить ночные заправки потоком",
+        description = "Возвращает ночные заправки за период в формате NDJSON; выбирается заголовком Accept: application/x-ndjson"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Выгрузка ночных заправок начата"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<StreamingResponseBody> exportNightAlerts(
+        @Parameter(description = "Начало периода (ISO-8601), включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to) {
+        TimeRange period = TimeRange.lastDays(from, to, DEFAULT_ALERT_DAYS);
+        return ndjson.<Map<String,Object>>stream(sink -> repo.streamNightRefuels(period.from(), period.to(), sink));
+    }
+
+    @GetMapping("/alerts/overconsumption")
+    @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
+    @Operation(
+        summary = "Получить задачи с перерасходом топлива",
+        description = "Возвращает страницу задач за период (по умолчанию последние 30 дней), где залито заметно больше " +
+                      "нормы машины по моточасам путевых листов или по площади поля. Новые первыми. Следующая страница - " +
+                      "с beforeTs (period_ts) и afterTaskId (task_id) последней строки предыдущей"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Список задач с перерасходом получен"),
+        @ApiResponse(responseCode = "400", description = "Некорректный период"),
         @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
     })
-    public List<Map<String,Object>> nightAlerts() {
-        return repo.nightRefuels();
+    public List<Map<String,Object>> overconsumptionAlerts(
+        @Parameter(description = "Начало периода (ISO-8601), включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Конец периода (ISO-8601), не включительно") 
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        @Parameter(description = "period_ts последней строки предыдущей страницы (ISO-8601)")
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime beforeTs,
+        @Parameter(description = "task_id последней строки предыдущей страницы")
+        @RequestParam(required = false) UUID afterTaskId,
+        @Parameter(description = "Размер страницы", example = "100") @RequestParam(defaultValue = "100") int size) {
+        TimeRange period = TimeRange.lastDays(from, to, DEFAULT_ALERT_DAYS);
+        if ((beforeTs == null) != (afterTaskId == null)) {
+            throw new BadRequestException("beforeTs and afterTaskId must be given together");
+        }
+        if (size < 1 || size > 1000) size = 100;
+        return consumption.overconsumption(period.from(), period.to(), beforeTs, afterTaskId, size);
     }
 
     @PostMapping("/limit")
     @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT','MANAGER')")
     @Operation(
         summary = "Установить дневной лимит",
-        description = "Устанавливает дневной лимит расхода топлива для топливной карты"
+        description = "Устанавливает дневной лимит расхода топлива для топливной карты. Принятые после этого транзакции " +
+                      "сверх лимита за день помечаются аномалией DAILY_LIMIT_EXCEEDED"
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Лимит успешно установлен"),
@@ -63,11 +243,18 @@ public class FuelController {
     })
     public void setLimit(
         @Parameter(description = "Номер топливной карты") @RequestParam String cardNumber, 
-        @Parameter(description = "Дневной лимит в литрах") @RequestParam double dailyLiters, 
-        FuelPolicyRepository pol) {
-        pol.setDailyLimit(cardNumber, dailyLiters);
+        @Parameter(description = "Дневной лимит в литрах") @RequestParam double dailyLiters) {
+        limitEnforcer.setDailyLimit(cardNumber, dailyLiters);
     }
-}
-
-
 
+    private static Charset parseCharset(String charset) {
+        if (charset == null || charset.isBlank()) {
+            return null;
+        }
+        try {
+            return Charset.forName(charset.trim());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown charset: " + charset);
+        }
+    }
+}
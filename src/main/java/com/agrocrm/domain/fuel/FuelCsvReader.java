@@ -0,0 +1,321 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Построчный разбор CSV-выписки процессингового центра. Читает файл потоком,
+ * держит в памяти только текущую запись. Разделитель (; , или табуляция)
+ * определяется по заголовку, колонки сопоставляются по имени.
+ *
+ * Кодировка, если не задана явно: по BOM, иначе UTF-8, если начало файла
+ * корректно в UTF-8, иначе windows-1251 - в ней выгружают процессинг и 1С.
+ */
+class FuelCsvReader implements Closeable {
+
+    /** Результат разбора строки: транзакция или причина отказа */
+    record Row(int row, FuelTransaction transaction, String error) { }
+
+    private enum Column { CARD, VEHICLE, LITERS, PRICE, AMOUNT, TS, LOCATION, SOURCE }
+
+    private static final Map<String, Column> HEADERS = Map.ofEntries(
+            Map.entry("cardnumber", Column.CARD), Map.entry("card", Column.CARD), Map.entry("номеркарты", Column.CARD),
+            Map.entry("карта", Column.CARD),
+            Map.entry("vehiclereg", Column.VEHICLE), Map.entry("vehicle", Column.VEHICLE), Map.entry("госномер", Column.VEHICLE),
+            Map.entry("liters", Column.LITERS), Map.entry("volume", Column.LITERS), Map.entry("литры", Column.LITERS),
+            Map.entry("количество", Column.LITERS),
+            Map.entry("price", Column.PRICE), Map.entry("цена", Column.PRICE),
+            Map.entry("amount", Column.AMOUNT), Map.entry("sum", Column.AMOUNT), Map.entry("сумма", Column.AMOUNT),
+            Map.entry("ts", Column.TS), Map.entry("datetime", Column.TS), Map.entry("date", Column.TS),
+            Map.entry("дата", Column.TS), Map.entry("датавремя", Column.TS),
+            Map.entry("location", Column.LOCATION), Map.entry("station", Column.LOCATION), Map.entry("азс", Column.LOCATION),
+            Map.entry("source", Column.SOURCE), Map.entry("источник", Column.SOURCE));
+
+    private static final List<DateTimeFormatter> LOCAL_FORMATS = List.of(
+            DateTimeFormatter.ofPattern("dd.MM.yyyy H:mm:ss"),
+            DateTimeFormatter.ofPattern("dd.MM.yyyy H:mm"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd H:mm:ss"),
+            DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+    private static final int NONE = -2;
+
+    static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+
+    // Сколько байт начала файла проверяется при определении кодировки
+    private static final int CHARSET_SAMPLE = 64 * 1024;
+
+    private final BufferedReader in;
+    private final Charset charset;
+    private final ZoneId zone;
+    private final String defaultSource;
+    private final ObjectMapper objectMapper;
+    private final char delimiter;
+    private final int[] columns = new int[Column.values().length];
+
+    // Буферы переиспользуются между записями
+    private final List<String> record = new ArrayList<>();
+    private final StringBuilder cell = new StringBuilder();
+    private final StringBuilder line = new StringBuilder();
+    private int pending = NONE;
+    private int row = -1;
+
+    /**
+     * @param charset кодировка файла или null, чтобы определить ее автоматически
+     */
+    FuelCsvReader(InputStream input, Charset charset, ZoneId zone, String defaultSource, ObjectMapper objectMapper) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input, CHARSET_SAMPLE);
+        this.charset = charset != null ? charset : detectCharset(buffered);
+        this.in = new BufferedReader(new InputStreamReader(buffered, this.charset), 64 * 1024);
+        this.zone = zone;
+        this.defaultSource = defaultSource;
+        this.objectMapper = objectMapper;
+        this.delimiter = detectDelimiter();
+
+        if (!readRecord()) {
+            throw new IllegalArgumentException("Fuel statement is empty");
+        }
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < record.size(); i++) {
+            Column column = HEADERS.get(normalizeHeader(record.get(i)));
+            if (column != null && columns[column.ordinal()] < 0) {
+                columns[column.ordinal()] = i;
+            }
+        }
+        if (columns[Column.CARD.ordinal()] < 0 || columns[Column.TS.ordinal()] < 0 || columns[Column.LITERS.ordinal()] < 0) {
+            throw new IllegalArgumentException("Fuel statement header must contain card number, date/time and liters columns");
+        }
+    }
+
+    Charset charset() {
+        return charset;
+    }
+
+    /**
+     * Определяет кодировку по началу потока; BOM UTF-8 пропускается.
+     */
+    static Charset detectCharset(BufferedInputStream in) throws IOException {
+        in.mark(CHARSET_SAMPLE);
+        byte[] sample = in.readNBytes(CHARSET_SAMPLE);
+        in.reset();
+        if (sample.length >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF) {
+            in.skipNBytes(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (sample.length >= 2 && ((sample[0] & 0xFF) == 0xFF && (sample[1] & 0xFF) == 0xFE
+                                   || (sample[0] & 0xFF) == 0xFE && (sample[1] & 0xFF) == 0xFF)) {
+            // декодер UTF-16 сам читает BOM и порядок байт
+            return StandardCharsets.UTF_16;
+        }
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // endOfInput = false: символ, обрезанный концом образца, ошибкой не считается
+        CoderResult result = utf8.decode(ByteBuffer.wrap(sample), CharBuffer.allocate(sample.length), false);
+        return result.isError() ? WINDOWS_1251 : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Следующая непустая строка или null в конце файла.
+     */
+    Row next() throws IOException {
+        while (readRecord()) {
+            if (record.size() == 1 && record.get(0).isBlank()) {
+                continue;
+            }
+            row++;
+            try {
+                return new Row(row, toTransaction(), null);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                return new Row(row, null, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private FuelTransaction toTransaction() throws JsonProcessingException {
+        FuelTransaction f = new FuelTransaction();
+        f.setCardNumber(text(Column.CARD));
+        f.setVehicleReg(text(Column.VEHICLE));
+        Double liters = number(Column.LITERS);
+        if (liters == null) {
+            throw new IllegalArgumentException("liters is required");
+        }
+        f.setLiters(liters);
+        f.setPrice(number(Column.PRICE));
+        f.setAmount(number(Column.AMOUNT));
+        f.setTs(timestamp(text(Column.TS)));
+        String location = text(Column.LOCATION);
+        f.setLocation(location != null ? objectMapper.writeValueAsString(location) : null);
+        String source = text(Column.SOURCE);
+        f.setSource(source != null ? source : defaultSource);
+        // Исходная строка файла сохраняется как JSON-строка для разбора спорных случаев
+        f.setRaw(objectMapper.writeValueAsString(line.toString()));
+        return f;
+    }
+
+    private String text(Column column) {
+        int index = columns[column.ordinal()];
+        if (index < 0 || index >= record.size()) {
+            return null;
+        }
+        String value = record.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private Double number(Column column) {
+        String value = text(column);
+        if (value == null) {
+            return null;
+        }
+        String normalized = value.replace(" ", "").replace("\u00A0", "").replace(',', '.');
+        try {
+            return Double.valueOf(normalized);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column.name().toLowerCase(Locale.ROOT) + " is not a number: " + value);
+        }
+    }
+
+    private OffsetDateTime timestamp(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("ts is required");
+        }
+        try {
+            return OffsetDateTime.parse(value);
+        } catch (DateTimeParseException ignored) {
+            // Без смещения: локальное время хозяйства
+        }
+        for (DateTimeFormatter format : LOCAL_FORMATS) {
+            try {
+                return LocalDateTime.parse(value, format).atZone(zone).toOffsetDateTime();
+            } catch (DateTimeParseException ignored) {
+                // пробуем следующий формат
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized date/time: " + value);
+    }
+
+    private char detectDelimiter() throws IOException {
+        in.mark(64 * 1024);
+        String header = in.readLine();
+        in.reset();
+        if (header == null) {
+            return ';';
+        }
+        int semicolons = 0, commas = 0, tabs = 0;
+        for (int i = 0; i < header.length(); i++) {
+            switch (header.charAt(i)) {
+                case ';' -> semicolons++;
+                case ',' -> commas++;
+                case '\t' -> tabs++;
+                default -> { }
+            }
+        }
+        if (tabs > semicolons && tabs > commas) return '\t';
+        return commas > semicolons ? ',' : ';';
+    }
+
+    /**
+     * Читает одну запись CSV (с учетом кавычек и переводов строк внутри них).
+     */
+    private boolean readRecord() throws IOException {
+        record.clear();
+        cell.setLength(0);
+        line.setLength(0);
+        boolean any = false;
+        boolean quoted = false;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (!any) {
+                    return false;
+                }
+                record.add(cell.toString());
+                return true;
+            }
+            any = true;
+            if (quoted) {
+                line.append((char) c);
+                if (c == '"') {
+                    int n = read();
+                    if (n == '"') {
+                        cell.append('"');
+                        line.append('"');
+                    } else {
+                        quoted = false;
+                        pending = n;
+                    }
+                } else {
+                    cell.append((char) c);
+                }
+            } else if (c == '"' && cell.length() == 0) {
+                quoted = true;
+                line.append('"');
+            } else if (c == delimiter) {
+                record.add(cell.toString());
+                cell.setLength(0);
+                line.append((char) c);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    int n = read();
+                    if (n != '\n') {
+                        pending = n;
+                    }
+                }
+                record.add(cell.toString());
+                return true;
+            } else {
+                cell.append((char) c);
+                line.append((char) c);
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (pending != NONE) {
+            int c = pending;
+            pending = NONE;
+            return c;
+        }
+        return in.read();
+    }
+
+    private static String normalizeHeader(String header) {
+        StringBuilder sb = new StringBuilder(header.length());
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
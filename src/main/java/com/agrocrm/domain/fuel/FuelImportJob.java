@@ -0,0 +1,85 @@
+package com.agrocrm.domain.fuel;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+@Schema(description = "Задание импорта топливной выписки")
+public class FuelImportJob {
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Schema(description = "ID задания")
+    private UUID id;
+
+    @Schema(description = "Статус", allowableValues = {QUEUED, RUNNING, DONE, FAILED})
+    private String status;
+
+    @Schema(description = "Имя загруженного файла")
+    private String fileName;
+
+    @Schema(description = "Размер файла в байтах")
+    private Long fileSize;
+
+    @Schema(description = "Способ записи")
+    private String strategy;
+
+    @Schema(description = "Прочитано строк")
+    private long rowsRead;
+
+    @Schema(description = "Записано строк")
+    private long accepted;
+
+    @Schema(description = "Пропущено дублей")
+    private long duplicates;
+
+    @Schema(description = "Отклонено строк")
+    private long rejected;
+
+    @Schema(description = "Первые отклоненные строки с причинами (JSON)")
+    private String rejectedRows;
+
+    @Schema(description = "Ошибка, остановившая импорт")
+    private String error;
+
+    @Schema(description = "Время создания")
+    private OffsetDateTime createdAt;
+
+    @Schema(description = "Время последнего обновления прогресса")
+    private OffsetDateTime updatedAt;
+
+    @Schema(description = "Время завершения")
+    private OffsetDateTime finishedAt;
+
+    public UUID getId() { return id; }
+    public void setId(UUID id) { this.id = id; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+    public String getStrategy() { return strategy; }
+    public void setStrategy(String strategy) { this.strategy = strategy; }
+    public long getRowsRead() { return rowsRead; }
+    public void setRowsRead(long rowsRead) { this.rowsRead = rowsRead; }
+    public long getAccepted() { return accepted; }
+    public void setAccepted(long accepted) { this.accepted = accepted; }
+    public long getDuplicates() { return duplicates; }
+    public void setDuplicates(long duplicates) { this.duplicates = duplicates; }
+    public long getRejected() { return rejected; }
+    public void setRejected(long rejected) { this.rejected = rejected; }
+    public String getRejectedRows() { return rejectedRows; }
+    public void setRejectedRows(String rejectedRows) { this.rejectedRows = rejectedRows; }
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
+    public OffsetDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(OffsetDateTime updatedAt) { this.updatedAt = updatedAt; }
+    public OffsetDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(OffsetDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
@@ -0,0 +1,107 @@
+package com.agrocrm.domain.fuel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public class FuelImportJobRepository {
+    private static final Logger log = LoggerFactory.getLogger(FuelImportJobRepository.class);
+
+    private static final String COLUMNS = "id, status, file_name, file_size, strategy, rows_read, accepted, duplicates, " +
+                                          "rejected, rejected_rows::text AS rejected_rows, error, created_at, updated_at, finished_at";
+
+    private final JdbcTemplate jdbc;
+
+    public FuelImportJobRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    private final RowMapper<FuelImportJob> mapper = (rs, rowNum) -> {
+        FuelImportJob j = new FuelImportJob();
+        j.setId((UUID) rs.getObject("id"));
+        j.setStatus(rs.getString("status"));
+        j.setFileName(rs.getString("file_name"));
+        j.setFileSize((Long) rs.getObject("file_size"));
+        j.setStrategy(rs.getString("strategy"));
+        j.setRowsRead(rs.getLong("rows_read"));
+        j.setAccepted(rs.getLong("accepted"));
+        j.setDuplicates(rs.getLong("duplicates"));
+        j.setRejected(rs.getLong("rejected"));
+        j.setRejectedRows(rs.getString("rejected_rows"));
+        j.setError(rs.getString("error"));
+        j.setCreatedAt(rs.getObject("created_at", OffsetDateTime.class));
+        j.setUpdatedAt(rs.getObject("updated_at", OffsetDateTime.class));
+        j.setFinishedAt(rs.getObject("finished_at", OffsetDateTime.class));
+        return j;
+    };
+
+    public void create(FuelImportJob j, UUID userId) {
+        try {
+            jdbc.update("INSERT INTO fuel_import_job(id, status, file_name, file_size, strategy, created_by) VALUES (?,?,?,?,?,?)",
+                    j.getId(), j.getStatus(), j.getFileName(), j.getFileSize(), j.getStrategy(), userId);
+        } catch (Exception e) {
+            log.error("Failed to create fuel import job: fileName={}", j.getFileName(), e);
+            throw e;
+        }
+    }
+
+    public FuelImportJob findById(UUID id) {
+        List<FuelImportJob> jobs = jdbc.query("SELECT " + COLUMNS + " FROM fuel_import_job WHERE id = ?", mapper, id);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    public void markRunning(UUID id) {
+        jdbc.update("UPDATE fuel_import_job SET status = 'RUNNING', updated_at = now() WHERE id = ?", id);
+    }
+
+    /**
+     * Продлевает updated_at незавершенных заданий, которые выполняет этот узел.
+     */
+    public void touch(UUID[] ids) {
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "UPDATE fuel_import_job SET updated_at = now() WHERE id = ANY(?) AND status IN ('QUEUED','RUNNING')");
+            ps.setArray(1, con.createArrayOf("uuid", ids));
+            return ps;
+        });
+    }
+
+    /**
+     * Помечает FAILED незавершенные задания, которые не обновлялись дольше
+     * staleAfterMs. Возвращает их число.
+     */
+    public int failStale(long staleAfterMs) {
+        try {
+            return jdbc.update("UPDATE fuel_import_job SET status = 'FAILED', error = 'Import interrupted by application restart', " +
+                               "updated_at = now(), finished_at = now() " +
+                               "WHERE status IN ('QUEUED','RUNNING') AND updated_at < now() - make_interval(secs => ?)",
+                               staleAfterMs / 1000.0);
+        } catch (Exception e) {
+            log.error("Failed to mark stale fuel import jobs", e);
+            throw e;
+        }
+    }
+
+    public void updateProgress(FuelImportJob j) {
+        jdbc.update("UPDATE fuel_import_job SET rows_read = ?, accepted = ?, duplicates = ?, rejected = ?, updated_at = now() WHERE id = ?",
+                j.getRowsRead(), j.getAccepted(), j.getDuplicates(), j.getRejected(), j.getId());
+    }
+
+    public void finish(FuelImportJob j) {
+        try {
+            jdbc.update("UPDATE fuel_import_job SET status = ?, rows_read = ?, accepted = ?, duplicates = ?, rejected = ?, " +
+                        "rejected_rows = ?::jsonb, error = ?, updated_at = now(), finished_at = now() WHERE id = ?",
+                    j.getStatus(), j.getRowsRead(), j.getAccepted(), j.getDuplicates(), j.getRejected(),
+                    j.getRejectedRows(), j.getError(), j.getId());
+        } catch (Exception e) {
+            log.error("Failed to finish fuel import job: id={}, status={}", j.getId(), j.getStatus(), e);
+            throw e;
+        }
+    }
+}
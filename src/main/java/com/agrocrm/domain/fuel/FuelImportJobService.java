@@ -0,0 +1,233 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновый импорт CSV-выписок процессингового центра. Файл читается
+ * потоком и записывается пачками через {@link FuelIngestService}, так что
+ * память не зависит от размера выписки. Прогресс сохраняется в
+ * fuel_import_job после каждой пачки.
+ *
+ * Задания выполняются в памяти принявшего их узла. Узел периодически
+ * отмечает свои незавершенные задания; задания, которые никто не отмечал
+ * дольше staleAfterMs (узел перезапущен или упал), помечаются FAILED при
+ * старте и затем тем же периодическим проходом.
+ */
+@Service
+public class FuelImportJobService {
+    private static final Logger log = LoggerFactory.getLogger(FuelImportJobService.class);
+
+    // Средний размер строки выписки, для выбора способа записи по размеру файла
+    private static final int ESTIMATED_ROW_BYTES = 120;
+
+    private final FuelImportJobRepository jobs;
+    private final FuelIngestService ingestService;
+    private final FuelTaskMatcher matcher;
+    private final ObjectMapper objectMapper;
+    private final ZoneId farmZone;
+    private final int maxReportedRejects;
+    private final ExecutorService executor;
+    private final long staleAfterMs;
+
+    // Незавершенные задания этого узла, для отметки updated_at
+    private final Set<UUID> active = ConcurrentHashMap.newKeySet();
+
+    public FuelImportJobService(FuelImportJobRepository jobs, FuelIngestService ingestService, FuelTaskMatcher matcher,
+                                ObjectMapper objectMapper,
+                                @Value("${app.farm.timezone:Europe/Moscow}") String farmTimezone,
+                                @Value("${app.fuel.import.workers:2}") int workers,
+                                @Value("${app.fuel.import.maxReportedRejects:1000}") int maxReportedRejects,
+                                @Value("${app.fuel.import.staleAfterMs:300000}") long staleAfterMs) {
+        this.jobs = jobs;
+        this.ingestService = ingestService;
+        this.matcher = matcher;
+        this.objectMapper = objectMapper;
+        this.farmZone = ZoneId.of(farmTimezone);
+        this.maxReportedRejects = maxReportedRejects;
+        this.staleAfterMs = staleAfterMs;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "fuel-import-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Сохраняет файл во временный каталог (загрузка multipart удаляется по
+     * завершении запроса) и ставит импорт в очередь.
+     */
+    public FuelImportJob submit(MultipartFile file, FuelIngestStrategy requested, String source, Charset charset,
+                                UUID userId) throws IOException {
+        Path tmp = Files.createTempFile("fuel-import-", ".csv");
+        try {
+            file.transferTo(tmp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        FuelImportJob job = new FuelImportJob();
+        job.setId(UUID.randomUUID());
+        job.setStatus(FuelImportJob.QUEUED);
+        job.setFileName(file.getOriginalFilename());
+        job.setFileSize(file.getSize());
+        job.setStrategy(ingestService.choose(requested, file.getSize() / ESTIMATED_ROW_BYTES).name());
+        jobs.create(job, userId);
+        log.info("Queued fuel import job: id={}, fileName={}, size={}, strategy={}, charset={}",
+                 job.getId(), job.getFileName(), job.getFileSize(), job.getStrategy(), charset != null ? charset : "auto");
+
+        active.add(job.getId());
+        try {
+            executor.submit(() -> run(job, tmp, source, charset));
+        } catch (RuntimeException e) {
+            active.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    public FuelImportJob get(UUID id) {
+        return jobs.findById(id);
+    }
+
+    /**
+     * Помечает FAILED задания, оставшиеся QUEUED или RUNNING после остановки
+     * узла, который их выполнял, и продлевает собственные незавершенные.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.fuel.import.heartbeatIntervalMs:60000}", initialDelayString = "${app.fuel.import.heartbeatIntervalMs:60000}")
+    public void heartbeat() {
+        try {
+            if (!active.isEmpty()) {
+                jobs.touch(active.toArray(new UUID[0]));
+            }
+            int failed = jobs.failStale(staleAfterMs);
+            if (failed > 0) {
+                log.warn("Fuel import jobs interrupted by node restart marked failed: count={}", failed);
+            }
+        } catch (Exception e) {
+            log.error("Failed to maintain fuel import jobs", e);
+        }
+    }
+
+    private void run(FuelImportJob job, Path file, String source, Charset charset) {
+        try {
+            runJob(job, file, source, charset);
+        } finally {
+            active.remove(job.getId());
+        }
+    }
+
+    private void runJob(FuelImportJob job, Path file, String source, Charset charset) {
+        FuelIngestStrategy strategy = FuelIngestStrategy.valueOf(job.getStrategy());
+        int chunkSize = ingestService.getChunkSize();
+        List<FuelRowResult> reported = new ArrayList<>();
+        List<FuelTransaction> chunk = new ArrayList<>(chunkSize);
+        int[] rows = new int[chunkSize];
+
+        jobs.markRunning(job.getId());
+        job.setStatus(FuelImportJob.RUNNING);
+        try (InputStream in = Files.newInputStream(file);
+             FuelCsvReader reader = new FuelCsvReader(in, charset, farmZone, source, objectMapper)) {
+            log.debug("Reading fuel import job: id={}, charset={}", job.getId(), reader.charset());
+            FuelCsvReader.Row row;
+            while ((row = reader.next()) != null) {
+                job.setRowsRead(job.getRowsRead() + 1);
+                if (row.error() != null) {
+                    record(job, FuelRowResult.rejected(row.row(), row.error()), reported);
+                    continue;
+                }
+                rows[chunk.size()] = row.row();
+                chunk.add(row.transaction());
+                if (chunk.size() == chunkSize) {
+                    flush(job, chunk, rows, strategy, reported);
+                }
+            }
+            flush(job, chunk, rows, strategy, reported);
+            job.setStatus(FuelImportJob.DONE);
+        } catch (Exception e) {
+            log.error("Fuel import job failed: id={}, rowsRead={}", job.getId(), job.getRowsRead(), e);
+            job.setStatus(FuelImportJob.FAILED);
+            job.setError(e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete fuel import temp file: {}", file, e);
+            }
+        }
+
+        try {
+            job.setRejectedRows(reported.isEmpty() ? null : objectMapper.writeValueAsString(reported));
+        } catch (Exception e) {
+            log.warn("Failed to serialize rejected rows for fuel import job: id={}", job.getId(), e);
+        }
+        jobs.finish(job);
+        log.info("Fuel import job finished: id={}, status={}, rowsRead={}, accepted={}, duplicates={}, rejected={}",
+                 job.getId(), job.getStatus(), job.getRowsRead(), job.getAccepted(), job.getDuplicates(), job.getRejected());
+
+        if (job.getAccepted() > 0) {
+            // Новые строки сразу сопоставляются с задачами, не дожидаясь планировщика
+            try {
+                matcher.matchPending();
+            } catch (Exception e) {
+                log.error("Fuel task matching after import failed: jobId={}", job.getId(), e);
+            }
+        }
+    }
+
+    private void flush(FuelImportJob job, List<FuelTransaction> chunk, int[] rows, FuelIngestStrategy strategy,
+                       List<FuelRowResult> reported) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int[] chunkRows = chunk.size() == rows.length ? rows : Arrays.copyOf(rows, chunk.size());
+        ingestService.ingestChunk(chunk, chunkRows, strategy, r -> record(job, r, reported));
+        chunk.clear();
+        jobs.updateProgress(job);
+    }
+
+    private void record(FuelImportJob job, FuelRowResult r, List<FuelRowResult> reported) {
+        switch (r.status()) {
+            case ACCEPTED -> job.setAccepted(job.getAccepted() + 1);
+            case DUPLICATE -> job.setDuplicates(job.getDuplicates() + 1);
+            case REJECTED -> {
+                job.setRejected(job.getRejected() + 1);
+                if (reported.size() < maxReportedRejects) {
+                    reported.add(r);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,27 @@
+package com.agrocrm.domain.fuel;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Итог импорта топливных транзакций")
+public record FuelImportResult(
+        @Schema(description = "Использованный способ записи") FuelIngestStrategy strategy,
+        @Schema(description = "Записано строк") int accepted,
+        @Schema(description = "Пропущено дублей") int duplicates,
+        @Schema(description = "Отклонено строк") int rejected,
+        @Schema(description = "Время записи, мс") long elapsedMs,
+        @Schema(description = "Результат по каждой строке") List<FuelRowResult> rows) {
+
+    static FuelImportResult of(FuelIngestStrategy strategy, long elapsedMs, List<FuelRowResult> rows) {
+        int accepted = 0, duplicates = 0, rejected = 0;
+        for (FuelRowResult r : rows) {
+            switch (r.status()) {
+                case ACCEPTED -> accepted++;
+                case DUPLICATE -> duplicates++;
+                case REJECTED -> rejected++;
+            }
+        }
+        return new FuelImportResult(strategy, accepted, duplicates, rejected, elapsedMs, rows);
+    }
+}
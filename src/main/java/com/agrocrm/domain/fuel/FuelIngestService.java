@@ -0,0 +1,175 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Прием топливных транзакций: проверка строк, запись пачками выбранным
+ * способом и результат по каждой строке.
+ */
+@Service
+public class FuelIngestService {
+    private static final Logger log = LoggerFactory.getLogger(FuelIngestService.class);
+
+    private final FuelRepository repo;
+    private final FuelClassifier classifier;
+    private final FuelLimitEnforcer limitEnforcer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final int chunkSize;
+    private final int copyThreshold;
+
+    public FuelIngestService(FuelRepository repo, FuelClassifier classifier, FuelLimitEnforcer limitEnforcer,
+                             ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                             @Value("${app.fuel.ingest.chunkSize:1000}") int chunkSize,
+                             @Value("${app.fuel.ingest.copyThreshold:5000}") int copyThreshold) {
+        this.repo = repo;
+        this.classifier = classifier;
+        this.limitEnforcer = limitEnforcer;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.copyThreshold = copyThreshold;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Способ записи по умолчанию: COPY окупается только на больших объемах.
+     */
+    public FuelIngestStrategy choose(FuelIngestStrategy requested, long expectedRows) {
+        if (requested != null) {
+            return requested;
+        }
+        return expectedRows >= copyThreshold ? FuelIngestStrategy.COPY : FuelIngestStrategy.BATCH;
+    }
+
+    public FuelImportResult ingest(List<FuelTransaction> transactions, FuelIngestStrategy requested) {
+        FuelIngestStrategy strategy = choose(requested, transactions.size());
+        List<FuelRowResult> results = new ArrayList<>(transactions.size());
+        long started = System.nanoTime();
+        for (int from = 0; from < transactions.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, transactions.size());
+            ingestChunk(transactions.subList(from, to), from, strategy, results::add);
+        }
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        FuelImportResult result = FuelImportResult.of(strategy, elapsedMs, results);
+        log.info("Fuel import finished: strategy={}, rows={}, accepted={}, duplicates={}, rejected={}, elapsedMs={}",
+                 strategy, transactions.size(), result.accepted(), result.duplicates(), result.rejected(), elapsedMs);
+        return result;
+    }
+
+    /**
+     * Проверяет и записывает одну пачку.
+     *
+     * @param firstRow номер первой строки пачки во входных данных
+     * @param results  получает результат по каждой строке пачки в порядке строк
+     */
+    public void ingestChunk(List<FuelTransaction> chunk, int firstRow, FuelIngestStrategy strategy,
+                            Consumer<FuelRowResult> results) {
+        int[] rows = new int[chunk.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = firstRow + i;
+        }
+        ingestChunk(chunk, rows, strategy, results);
+    }
+
+    /**
+     * То же для пачки с произвольными номерами строк (например, когда часть
+     * строк файла отклонена еще при разборе).
+     */
+    public void ingestChunk(List<FuelTransaction> chunk, int[] rowNumbers, FuelIngestStrategy strategy,
+                            Consumer<FuelRowResult> results) {
+        FuelRowResult[] outcome = new FuelRowResult[chunk.size()];
+        List<FuelTransaction> valid = new ArrayList<>(chunk.size());
+        List<Integer> validIndex = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            FuelTransaction f = chunk.get(i);
+            String reason = validate(f);
+            if (reason != null) {
+                outcome[i] = FuelRowResult.rejected(rowNumbers[i], reason);
+                continue;
+            }
+            if (f.getId() == null) {
+                f.setId(UUID.randomUUID());
+            }
+            classifier.classify(f);
+            limitEnforcer.apply(f);
+            valid.add(f);
+            validIndex.add(i);
+        }
+
+        if (!valid.isEmpty()) {
+            boolean[] inserted = null;
+            try {
+                Timer.Sample sample = Timer.start(meterRegistry);
+                inserted = repo.bulkInsert(valid, strategy);
+                sample.stop(meterRegistry.timer("fuel.ingest.chunk", "strategy", strategy.name()));
+            } catch (Exception e) {
+                log.warn("Fuel chunk insert failed, retrying row by row: strategy={}, firstRow={}, size={}",
+                         strategy, rowNumbers[0], valid.size(), e);
+            }
+            for (int k = 0; k < valid.size(); k++) {
+                int i = validIndex.get(k);
+                FuelTransaction f = valid.get(k);
+                if (inserted != null) {
+                    outcome[i] = inserted[k] ? FuelRowResult.accepted(rowNumbers[i], f.getId()) : FuelRowResult.duplicate(rowNumbers[i]);
+                } else {
+                    outcome[i] = insertSingle(f, rowNumbers[i]);
+                }
+                if (outcome[i].status() != FuelRowResult.Status.ACCEPTED) {
+                    // Дубль или отказ: литры уже учтены ранее или не записаны вовсе
+                    limitEnforcer.revert(f);
+                }
+            }
+        }
+
+        for (FuelRowResult r : outcome) {
+            results.accept(r);
+        }
+    }
+
+    private FuelRowResult insertSingle(FuelTransaction f, int row) {
+        try {
+            return repo.insertOne(f) ? FuelRowResult.accepted(row, f.getId()) : FuelRowResult.duplicate(row);
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return FuelRowResult.rejected(row, cause.getMessage());
+        }
+    }
+
+    private String validate(FuelTransaction f) {
+        if (f == null) return "empty row";
+        if (f.getCardNumber() == null || f.getCardNumber().isBlank()) return "cardNumber is required";
+        if (f.getTs() == null) return "ts is required";
+        if (f.getSource() == null || f.getSource().isBlank()) return "source is required";
+        if (Double.isNaN(f.getLiters()) || f.getLiters() < 0) return "liters must be non-negative";
+        if (!isJsonOrNull(f.getLocation())) return "location is not valid JSON";
+        if (!isJsonOrNull(f.getAnomalies())) return "anomalies is not valid JSON";
+        if (!isJsonOrNull(f.getRaw())) return "raw is not valid JSON";
+        return null;
+    }
+
+    private boolean isJsonOrNull(String value) {
+        if (value == null) return true;
+        if (value.isBlank()) return false;
+        try {
+            objectMapper.readTree(value);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
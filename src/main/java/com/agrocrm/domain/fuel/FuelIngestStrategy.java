@@ -0,0 +1,26 @@
+package com.agrocrm.domain.fuel;
+
+import com.agrocrm.errors.BadRequestException;
+
+/**
+ * Способ записи топливных транзакций в БД.
+ */
+public enum FuelIngestStrategy {
+    /** Отдельный INSERT на каждую строку (исходное поведение, для сравнения) */
+    ROW,
+    /** JDBC batch INSERT пачками по app.fuel.ingest.chunkSize */
+    BATCH,
+    /** COPY FROM STDIN во временную таблицу и один INSERT ... SELECT */
+    COPY;
+
+    public static FuelIngestStrategy parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown ingest strategy: " + value + " (expected row, batch or copy)");
+        }
+    }
+}
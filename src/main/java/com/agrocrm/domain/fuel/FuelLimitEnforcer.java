@@ -0,0 +1,230 @@
+package com.agrocrm.domain.fuel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Контроль дневных лимитов топливных карт при приеме транзакций.
+ *
+ * Суммы за день по каждой карте хранятся в памяти (в сотых долях литра,
+ * без ошибок округления) и восстанавливаются из fuel_transaction при старте.
+ * Транзакция, после которой сумма за локальный день хозяйства превышает
+ * лимит карты, помечается аномалией DAILY_LIMIT_EXCEEDED.
+ *
+ * Счетчики строятся в новой карте и подменяются целиком; литры, принятые
+ * во время построения, дописываются в новую карту перед подменой. Пока
+ * счетчиков нет (старт или неудачное построение), сумма за день берется
+ * запросом к fuel_transaction, так что лимиты проверяются и тогда, только
+ * медленнее; построение повторяется с периодом перечитывания лимитов.
+ *
+ * Допущение: прием транзакций идет через один узел. Счетчики локальны для
+ * узла, записи других узлов попадают в них только после перезапуска.
+ */
+@Component
+public class FuelLimitEnforcer {
+    private static final Logger log = LoggerFactory.getLogger(FuelLimitEnforcer.class);
+
+    private record CardDay(String cardNumber, long epochDay) { }
+
+    private final FuelRepository fuelRepository;
+    private final FuelPolicyRepository policyRepository;
+    private final ObjectMapper objectMapper;
+    private final ZoneId farmZone;
+    private final int windowDays;
+
+    // null, пока счетчики не построены
+    private volatile Map<CardDay, AtomicLong> totals;
+    // Литры, принятые во время построения счетчиков; null вне построения
+    private volatile Map<CardDay, AtomicLong> rebuildDeltas;
+    // apply/revert под read lock, подмена счетчиков под write lock
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private volatile Map<String, Long> limits = new ConcurrentHashMap<>();
+
+    public FuelLimitEnforcer(FuelRepository fuelRepository, FuelPolicyRepository policyRepository, ObjectMapper objectMapper,
+                             @Value("${app.farm.timezone:Europe/Moscow}") String farmTimezone,
+                             @Value("${app.fuel.limits.windowDays:35}") int windowDays) {
+        this.fuelRepository = fuelRepository;
+        this.policyRepository = policyRepository;
+        this.objectMapper = objectMapper;
+        this.farmZone = ZoneId.of(farmTimezone);
+        this.windowDays = windowDays;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long started = System.currentTimeMillis();
+        Map<CardDay, AtomicLong> fresh = new ConcurrentHashMap<>();
+        rebuildDeltas = new ConcurrentHashMap<>();
+        try {
+            reloadLimits();
+            OffsetDateTime since = windowStart().atStartOfDay(farmZone).toOffsetDateTime();
+            fuelRepository.dailyTotals(farmZone.getId(), since, (card, day, liters) ->
+                    fresh.computeIfAbsent(new CardDay(card, day.toEpochDay()), k -> new AtomicLong())
+                         .addAndGet(liters.movePointRight(2).longValue()));
+            swapLock.writeLock().lock();
+            try {
+                // Строки, принятые во время чтения, могли в него не попасть; если попали,
+                // сумма завышена до следующего перезапуска - лимит срабатывает раньше, а не позже
+                rebuildDeltas.forEach((key, delta) ->
+                        fresh.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta.get()));
+                totals = fresh;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            log.info("Fuel limit counters rebuilt: cards={}, counters={}, elapsedMs={}",
+                     limits.size(), fresh.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("Failed to rebuild fuel limit counters, daily totals are read from the database until the next attempt", e);
+        } finally {
+            rebuildDeltas = null;
+        }
+    }
+
+    /**
+     * Лимиты могут меняться на другом узле, поэтому периодически перечитываются.
+     * Если счетчики не построены, построение повторяется.
+     */
+    @Scheduled(fixedDelayString = "${app.fuel.limits.reloadIntervalMs:60000}", initialDelayString = "${app.fuel.limits.reloadIntervalMs:60000}")
+    public void reloadLimits() {
+        try {
+            Map<String, Long> fresh = new ConcurrentHashMap<>();
+            policyRepository.findEnabledLimits().forEach((card, liters) -> fresh.put(card, toCentiliters(liters)));
+            limits = fresh;
+        } catch (Exception e) {
+            log.error("Failed to reload fuel limits", e);
+        }
+        if (totals == null && rebuildDeltas == null) {
+            rebuild();
+        }
+    }
+
+    public void setDailyLimit(String cardNumber, double liters) {
+        policyRepository.setDailyLimit(cardNumber, liters);
+        if (liters > 0) {
+            limits.put(cardNumber, toCentiliters(liters));
+        } else {
+            limits.remove(cardNumber);
+        }
+    }
+
+    /**
+     * Учитывает транзакцию в сумме за день и помечает превышение лимита.
+     * Если транзакция затем не записалась, ее нужно вернуть через {@link #revert}.
+     */
+    public void apply(FuelTransaction f) {
+        CardDay key = keyOf(f);
+        if (key == null) {
+            return;
+        }
+        Long limit = limits.get(f.getCardNumber());
+        long liters = toCentiliters(f.getLiters());
+        long total;
+        swapLock.readLock().lock();
+        try {
+            Map<CardDay, AtomicLong> current = totals;
+            addDelta(key, liters);
+            if (current != null) {
+                total = current.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(liters);
+            } else if (limit != null) {
+                // Счетчиков нет: сумма за день из БД; строки этой же пачки еще не записаны
+                total = toCentiliters(storedDailyTotal(key)) + liters;
+            } else {
+                return;
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        if (limit != null && total > limit) {
+            FuelAnomalies.add(objectMapper, f, FuelAnomalies.DAILY_LIMIT_EXCEEDED);
+        }
+    }
+
+    public void revert(FuelTransaction f) {
+        CardDay key = keyOf(f);
+        if (key == null) {
+            return;
+        }
+        long liters = toCentiliters(f.getLiters());
+        swapLock.readLock().lock();
+        try {
+            addDelta(key, -liters);
+            Map<CardDay, AtomicLong> current = totals;
+            AtomicLong counter = current != null ? current.get(key) : null;
+            if (counter != null) {
+                counter.addAndGet(-liters);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сумма литров по карте за локальный день хозяйства: по счетчикам, а пока
+     * их нет - из БД.
+     */
+    public double dailyTotal(String cardNumber, LocalDate day) {
+        CardDay key = new CardDay(cardNumber, day.toEpochDay());
+        Map<CardDay, AtomicLong> current = totals;
+        if (current == null) {
+            return storedDailyTotal(key);
+        }
+        AtomicLong counter = current.get(key);
+        return counter != null ? counter.get() / 100.0 : 0;
+    }
+
+    @Scheduled(cron = "${app.fuel.limits.pruneCron:0 15 3 * * *}")
+    public void prune() {
+        Map<CardDay, AtomicLong> current = totals;
+        if (current != null) {
+            long oldest = windowStart().toEpochDay();
+            current.keySet().removeIf(k -> k.epochDay() < oldest);
+        }
+    }
+
+    private void addDelta(CardDay key, long liters) {
+        Map<CardDay, AtomicLong> deltas = rebuildDeltas;
+        if (deltas != null) {
+            deltas.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(liters);
+        }
+    }
+
+    private double storedDailyTotal(CardDay key) {
+        LocalDate day = LocalDate.ofEpochDay(key.epochDay());
+        return fuelRepository.cardTotal(key.cardNumber(),
+                day.atStartOfDay(farmZone).toOffsetDateTime(), day.plusDays(1).atStartOfDay(farmZone).toOffsetDateTime());
+    }
+
+    /**
+     * Транзакции старше окна счетчиков не проверяются: их суммы в памяти неполны.
+     */
+    private CardDay keyOf(FuelTransaction f) {
+        long day = f.getTs().atZoneSameInstant(farmZone).toLocalDate().toEpochDay();
+        if (day < windowStart().toEpochDay()) {
+            return null;
+        }
+        return new CardDay(f.getCardNumber(), day);
+    }
+
+    private LocalDate windowStart() {
+        return LocalDate.now(farmZone).minusDays(windowDays);
+    }
+
+    private static long toCentiliters(double liters) {
+        return Math.round(liters * 100);
+    }
+}
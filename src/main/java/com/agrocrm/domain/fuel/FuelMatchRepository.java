@@ -0,0 +1,151 @@
+package com.agrocrm.domain.fuel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Запросы сопоставления топливных транзакций с задачами.
+ */
+@Repository
+public class FuelMatchRepository {
+    private static final Logger log = LoggerFactory.getLogger(FuelMatchRepository.class);
+
+    /** Транзакция, ожидающая сопоставления */
+    public record PendingFuel(UUID id, String vehicleReg, long tsMillis) { }
+
+    /** Фактический интервал работы техники по задаче; для незавершенной задачи endMillis = Long.MAX_VALUE */
+    public record TaskWindow(UUID taskId, UUID machineId, long startMillis, long endMillis) { }
+
+    private final JdbcTemplate jdbc;
+
+    public FuelMatchRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    /**
+     * Не дает двум узлам сопоставлять одновременно; действует до конца транзакции.
+     */
+    public boolean tryLock() {
+        Boolean locked = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext('fuel_task_matcher'))", Boolean.class);
+        return Boolean.TRUE.equals(locked);
+    }
+
+    /**
+     * То же, что {@link #tryLock()}, но ждет завершения текущей пачки.
+     */
+    public void lock() {
+        jdbc.execute("SELECT pg_advisory_xact_lock(hashtext('fuel_task_matcher'))");
+    }
+
+    public List<PendingFuel> findPending(int limit) {
+        return jdbc.query("SELECT id, vehicle_reg, ts FROM fuel_transaction WHERE NOT match_checked ORDER BY ts LIMIT ?",
+                (rs, rowNum) -> new PendingFuel((UUID) rs.getObject("id"), rs.getString("vehicle_reg"),
+                        rs.getObject("ts", OffsetDateTime.class).toInstant().toEpochMilli()),
+                limit);
+    }
+
+    /**
+     * Справочник техники: нормализованный госномер -> id.
+     */
+    public Map<String, UUID> findMachinesByReg() {
+        Map<String, UUID> machines = new HashMap<>();
+        jdbc.query("SELECT id, reg_number FROM machine",
+                rs -> { machines.put(normalizeReg(rs.getString("reg_number")), (UUID) rs.getObject("id")); });
+        return machines;
+    }
+
+    public List<TaskWindow> findTaskWindows(Collection<UUID> machineIds, OffsetDateTime from, OffsetDateTime to) {
+        String sql = "SELECT id, assigned_machine, actual_start, actual_end FROM task " +
+                     "WHERE assigned_machine = ANY(?) AND actual_start IS NOT NULL AND actual_start <= ? " +
+                     "AND (actual_end IS NULL OR actual_end >= ?)";
+        return jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("uuid", machineIds.toArray()));
+            ps.setObject(2, to);
+            ps.setObject(3, from);
+            return ps;
+        }, (rs, rowNum) -> {
+            OffsetDateTime end = rs.getObject("actual_end", OffsetDateTime.class);
+            return new TaskWindow((UUID) rs.getObject("id"), (UUID) rs.getObject("assigned_machine"),
+                    rs.getObject("actual_start", OffsetDateTime.class).toInstant().toEpochMilli(),
+                    end != null ? end.toInstant().toEpochMilli() : Long.MAX_VALUE);
+        });
+    }
+
+    /**
+     * Отмечает транзакции проверенными и проставляет найденные задачи одним
+     * запросом. taskIds[i] может быть null; уже заданная вручную задача не перезаписывается,
+     * проставленная здесь помечается auto_matched.
+     */
+    public int saveMatches(UUID[] ids, UUID[] taskIds) {
+        try {
+            return jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "UPDATE fuel_transaction f SET matched_task = COALESCE(f.matched_task, m.task_id), " +
+                        "auto_matched = f.auto_matched OR (f.matched_task IS NULL AND m.task_id IS NOT NULL), match_checked = true " +
+                        "FROM unnest(?::uuid[], ?::uuid[]) AS m(id, task_id) WHERE f.id = m.id");
+                ps.setArray(1, con.createArrayOf("uuid", ids));
+                ps.setArray(2, con.createArrayOf("uuid", taskIds));
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to save fuel task matches: count={}", ids.length, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Задачи, сопоставленные автоматически транзакциям за период.
+     */
+    public List<UUID> findAutoMatchedTasks(OffsetDateTime from, OffsetDateTime to) {
+        return jdbc.queryForList("SELECT DISTINCT matched_task FROM fuel_transaction WHERE ts >= ? AND ts < ? AND auto_matched",
+                                 UUID.class, from, to);
+    }
+
+    /**
+     * Снимает автоматические сопоставления за период и сбрасывает признак
+     * проверки, чтобы транзакции сопоставились заново. Ручные связи остаются.
+     */
+    public int resetChecked(OffsetDateTime from, OffsetDateTime to) {
+        try {
+            return jdbc.update("UPDATE fuel_transaction SET matched_task = CASE WHEN auto_matched THEN NULL ELSE matched_task END, " +
+                               "auto_matched = false, match_checked = false " +
+                               "WHERE ts >= ? AND ts < ? AND (match_checked OR auto_matched)", from, to);
+        } catch (Exception e) {
+            log.error("Failed to reset fuel task matches: from={}, to={}", from, to, e);
+            throw e;
+        }
+    }
+
+    // Кириллические буквы госномера, совпадающие по написанию с латинскими
+    private static final String CYRILLIC_PLATE = "АВЕКМНОРСТУХ";
+    private static final String LATIN_PLATE = "ABEKMHOPCTYX";
+
+    /**
+     * Госномер без пробелов и дефисов, в верхнем регистре и с латинскими
+     * буквами вместо одинаковых кириллических: в выписках их путают.
+     */
+    static String normalizeReg(String reg) {
+        if (reg == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(reg.length());
+        for (int i = 0; i < reg.length(); i++) {
+            char c = Character.toUpperCase(reg.charAt(i));
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            int k = CYRILLIC_PLATE.indexOf(c);
+            sb.append(k >= 0 ? LATIN_PLATE.charAt(k) : c);
+        }
+        return sb.toString();
+    }
+}
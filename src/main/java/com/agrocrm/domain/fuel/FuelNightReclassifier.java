@@ -0,0 +1,55 @@
+package com.agrocrm.domain.fuel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+/**
+ * Держит is_night и код NIGHT_REFUEL загруженных транзакций в соответствии
+ * с настройками: если app.farm.timezone или app.fuel.night.* отличаются от
+ * записанных в fuel_night_setting (бэкфилл миграции считал по Europe/Moscow,
+ * 22-06), при старте флаг и код пересчитываются по всей таблице.
+ */
+@Component
+public class FuelNightReclassifier {
+    private static final Logger log = LoggerFactory.getLogger(FuelNightReclassifier.class);
+
+    private final FuelRepository repo;
+    private final FuelClassifier classifier;
+    private final TransactionTemplate tx;
+
+    public FuelNightReclassifier(FuelRepository repo, FuelClassifier classifier, PlatformTransactionManager transactionManager) {
+        this.repo = repo;
+        this.classifier = classifier;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reclassifyIfChanged() {
+        String timezone = classifier.getFarmZone().getId();
+        int startHour = classifier.getNightStartHour();
+        int endHour = classifier.getNightEndHour();
+        try {
+            tx.executeWithoutResult(status -> {
+                Map<String, Object> applied = repo.lockNightSetting();
+                if (timezone.equals(applied.get("timezone"))
+                        && startHour == ((Number) applied.get("start_hour")).intValue()
+                        && endHour == ((Number) applied.get("end_hour")).intValue()) {
+                    return;
+                }
+                int updated = repo.reclassifyNight(timezone, startHour, endHour);
+                repo.saveNightSetting(timezone, startHour, endHour);
+                log.info("Night refuels reclassified: timezone={}, window={}-{}, updated={}, previous={}",
+                         timezone, startHour, endHour, updated, applied);
+            });
+        } catch (Exception e) {
+            log.error("Failed to reclassify night refuels: timezone={}", timezone, e);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.agrocrm.domain.fuel;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Repository
 public class FuelPolicyRepository {
     private final JdbcTemplate jdbc;
@@ -13,4 +16,14 @@ public class FuelPolicyRepository {
         jdbc.update("INSERT INTO fuel_limit(card_number, daily_limit_liters) VALUES (?, ?) ON CONFLICT (card_number) DO UPDATE SET daily_limit_liters = EXCLUDED.daily_limit_liters",
                 cardNumber, liters);
     }
+
+    /**
+     * Действующие дневные лимиты: номер карты -> литры.
+     */
+    public Map<String, Double> findEnabledLimits() {
+        Map<String, Double> limits = new HashMap<>();
+        jdbc.query("SELECT card_number, daily_limit_liters FROM fuel_limit WHERE enabled AND daily_limit_liters > 0",
+                rs -> { limits.put(rs.getString("card_number"), rs.getDouble("daily_limit_liters")); });
+        return limits;
+    }
 }
@@ -1,31 +1,363 @@
 package com.agrocrm.domain.fuel;
 
+import com.agrocrm.analytics.FieldCostRepository;
+import com.agrocrm.config.NdjsonStreamer;
+import com.agrocrm.integration.outbox.OutboxPublisher;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Repository
 public class FuelRepository {
+    private static final Logger log = LoggerFactory.getLogger(FuelRepository.class);
+
+    private static final String COLUMNS = "id, card_number, vehicle_reg, liters, price, amount, ts, location, source, matched_task, anomalies, raw, is_night";
+
+    // Повторная строка с тем же естественным ключом (карта, время, литры) пропускается
+    private static final String ON_CONFLICT = " ON CONFLICT (card_number, ts, liters) DO NOTHING";
+
+    private static final String INSERT_SQL = "INSERT INTO fuel_transaction (" + COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?::jsonb, ?, ?, ?::jsonb, ?::jsonb, ?)" + ON_CONFLICT;
+
     private final JdbcTemplate jdbc;
+    private final FieldCostRepository fieldCosts;
+    private final OutboxPublisher outbox;
+
+    public FuelRepository(JdbcTemplate jdbc, FieldCostRepository fieldCosts, OutboxPublisher outbox) {
+        this.jdbc = jdbc;
+        this.fieldCosts = fieldCosts;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Записывает пачку транзакций выбранным способом. У каждой транзакции
+     * должен быть id. Возвращает признак записи по каждой строке: false
+     * означает дубль по естественному ключу.
+     */
+    @Transactional
+    public boolean[] bulkInsert(List<FuelTransaction> chunk, FuelIngestStrategy strategy) {
+        boolean[] inserted = switch (strategy) {
+            case ROW -> insertEach(chunk);
+            case BATCH -> insertBatch(chunk);
+            case COPY -> insertCopy(chunk);
+        };
+        addFieldCosts(chunk, inserted);
+        publishImported(chunk, inserted);
+        return inserted;
+    }
+
+    /**
+     * Одна строка в собственной транзакции; используется, когда пачка
+     * целиком не записалась, чтобы найти и отклонить конкретные строки.
+     */
+    @Transactional
+    public boolean insertOne(FuelTransaction f) {
+        boolean inserted = jdbc.update(INSERT_SQL, ps -> bind(ps, f)) > 0;
+        addFieldCosts(List.of(f), new boolean[] { inserted });
+        publishImported(List.of(f), new boolean[] { inserted });
+        return inserted;
+    }
+
+    /**
+     * FUEL_TRANSACTION по каждой записанной строке; события пачки
+     * вставляются в outbox_event одним оператором при коммите.
+     */
+    private void publishImported(List<FuelTransaction> chunk, boolean[] inserted) {
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!inserted[i]) {
+                continue;
+            }
+            FuelTransaction f = chunk.get(i);
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("transactionId", f.getId());
+            payload.put("cardNumber", f.getCardNumber());
+            payload.put("vehicleReg", f.getVehicleReg());
+            payload.put("liters", f.getLiters());
+            payload.put("amount", f.getAmount());
+            payload.put("ts", f.getTs());
+            payload.put("matchedTask", f.getMatchedTask());
+            outbox.publish("FUEL_TRANSACTION", "FUEL_TRANSACTION", f.getId(), payload);
+        }
+    }
+
+    /**
+     * Транзакции, пришедшие уже с задачей, сразу учитываются в затратах поля;
+     * остальные - при сопоставлении.
+     */
+    private void addFieldCosts(List<FuelTransaction> chunk, boolean[] inserted) {
+        Map<UUID, BigDecimal> byTask = new HashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            FuelTransaction f = chunk.get(i);
+            if (inserted[i] && f.getMatchedTask() != null && f.getAmount() != null) {
+                byTask.merge(f.getMatchedTask(), BigDecimal.valueOf(f.getAmount()), BigDecimal::add);
+            }
+        }
+        fieldCosts.addFuelByTask(byTask);
+    }
+
+    private boolean[] insertEach(List<FuelTransaction> chunk) {
+        boolean[] inserted = new boolean[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            FuelTransaction f = chunk.get(i);
+            inserted[i] = jdbc.update(INSERT_SQL, ps -> bind(ps, f)) > 0;
+        }
+        return inserted;
+    }
+
+    private boolean[] insertBatch(List<FuelTransaction> chunk) {
+        int[] counts = jdbc.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                bind(ps, chunk.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return chunk.size();
+            }
+        });
+        boolean[] inserted = new boolean[chunk.size()];
+        for (int i = 0; i < counts.length; i++) {
+            // SUCCESS_NO_INFO возвращается только при reWriteBatchedInserts=true;
+            // тогда дубли не отличить от записанных строк
+            inserted[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+        }
+        return inserted;
+    }
+
+    private boolean[] insertCopy(List<FuelTransaction> chunk) {
+        Set<UUID> insertedIds = jdbc.execute((ConnectionCallback<Set<UUID>>) con -> {
+            try (Statement st = con.createStatement()) {
+                // Временная таблица живет в соединении пула и очищается при коммите
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS fuel_import (LIKE fuel_transaction INCLUDING DEFAULTS) ON COMMIT DELETE ROWS");
+                st.execute("TRUNCATE fuel_import");
+            }
+
+            CopyIn copy = con.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn("COPY fuel_import (" + COLUMNS + ") FROM STDIN");
+            try {
+                StringBuilder line = new StringBuilder(256);
+                for (FuelTransaction f : chunk) {
+                    line.setLength(0);
+                    appendCopyRow(line, f);
+                    byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                    copy.writeToCopy(bytes, 0, bytes.length);
+                }
+                copy.endCopy();
+            } finally {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+            }
+
+            Set<UUID> ids = new HashSet<>();
+            try (Statement st = con.createStatement();
+                 var rs = st.executeQuery("INSERT INTO fuel_transaction (" + COLUMNS + ") SELECT " + COLUMNS +
+                                          " FROM fuel_import" + ON_CONFLICT + " RETURNING id")) {
+                while (rs.next()) {
+                    ids.add((UUID) rs.getObject(1));
+                }
+            }
+            return ids;
+        });
 
-    public FuelRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+        boolean[] inserted = new boolean[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            inserted[i] = insertedIds.contains(chunk.get(i).getId());
+        }
+        return inserted;
+    }
+
+    private static void bind(PreparedStatement ps, FuelTransaction f) throws SQLException {
+        ps.setObject(1, f.getId());
+        ps.setString(2, f.getCardNumber());
+        ps.setString(3, f.getVehicleReg());
+        ps.setDouble(4, f.getLiters());
+        ps.setObject(5, f.getPrice());
+        ps.setObject(6, f.getAmount());
+        ps.setObject(7, f.getTs());
+        ps.setString(8, f.getLocation());
+        ps.setString(9, f.getSource());
+        ps.setObject(10, f.getMatchedTask());
+        ps.setString(11, f.getAnomalies());
+        ps.setString(12, f.getRaw());
+        ps.setBoolean(13, f.isNight());
+    }
+
+    /**
+     * Строка в текстовом формате COPY: поля через табуляцию, NULL как \N.
+     */
+    private static void appendCopyRow(StringBuilder sb, FuelTransaction f) {
+        appendCopyValue(sb, f.getId()).append('\t');
+        appendCopyValue(sb, f.getCardNumber()).append('\t');
+        appendCopyValue(sb, f.getVehicleReg()).append('\t');
+        appendCopyValue(sb, BigDecimal.valueOf(f.getLiters()).toPlainString()).append('\t');
+        appendCopyValue(sb, f.getPrice() != null ? BigDecimal.valueOf(f.getPrice()).toPlainString() : null).append('\t');
+        appendCopyValue(sb, f.getAmount() != null ? BigDecimal.valueOf(f.getAmount()).toPlainString() : null).append('\t');
+        appendCopyValue(sb, f.getTs()).append('\t');
+        appendCopyValue(sb, f.getLocation()).append('\t');
+        appendCopyValue(sb, f.getSource()).append('\t');
+        appendCopyValue(sb, f.getMatchedTask()).append('\t');
+        appendCopyValue(sb, f.getAnomalies()).append('\t');
+        appendCopyValue(sb, f.getRaw()).append('\t');
+        appendCopyValue(sb, f.isNight() ? "t" : "f").append('\n');
+    }
+
+    private static StringBuilder appendCopyValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            return sb.append("\\N");
+        }
+        String s = value.toString();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Суммы литров по карте и локальному дню хозяйства начиная с since.
+     */
+    public void dailyTotals(String timezone, OffsetDateTime since, DailyTotalHandler handler) {
+        String sql = "SELECT card_number, (ts AT TIME ZONE ?)::date AS day, SUM(liters) AS liters FROM fuel_transaction " +
+                     "WHERE ts >= ? GROUP BY 1, 2";
+        jdbc.query(sql, rs -> {
+            handler.accept(rs.getString("card_number"), rs.getObject("day", LocalDate.class), rs.getBigDecimal("liters"));
+        }, timezone, since);
+    }
+
+    /**
+     * Литры по карте за [from, to); читает индекс idx_fuel_card_ts.
+     */
+    public double cardTotal(String cardNumber, OffsetDateTime from, OffsetDateTime to) {
+        try {
+            Double total = jdbc.queryForObject("SELECT COALESCE(SUM(liters), 0) FROM fuel_transaction " +
+                                               "WHERE card_number = ? AND ts >= ? AND ts < ?", Double.class, cardNumber, from, to);
+            return total != null ? total : 0;
+        } catch (Exception e) {
+            log.error("Failed to sum card liters: cardNumber={}, from={}, to={}", cardNumber, from, to, e);
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface DailyTotalHandler {
+        void accept(String cardNumber, LocalDate day, BigDecimal liters);
+    }
+
+    private static final String NIGHT_REFUELS_SELECT = "SELECT id, card_number, vehicle_reg, liters, ts, location, anomalies::text AS anomalies " +
+            "FROM fuel_transaction WHERE is_night AND ts >= ? AND ts < ?";
+    private static final String NIGHT_REFUELS_ORDER = " ORDER BY ts DESC, id DESC";
+    private static final String NIGHT_REFUELS_SQL = NIGHT_REFUELS_SELECT + NIGHT_REFUELS_ORDER;
+
+    /**
+     * Страница ночных заправок за период [from, to), новые первыми. Следующая
+     * страница начинается после (beforeTs, beforeId) последней строки
+     * предыдущей; оба null - первая страница. Читает только частичный индекс
+     * idx_fuel_night_ts, поэтому время не зависит ни от объема истории, ни от
+     * номера страницы.
+     */
+    public List<Map<String,Object>> nightRefuels(OffsetDateTime from, OffsetDateTime to,
+                                                 OffsetDateTime beforeTs, UUID beforeId, int size) {
+        try {
+            if (beforeTs == null) {
+                return jdbc.queryForList(NIGHT_REFUELS_SQL + " LIMIT ?", from, to, size);
+            }
+            return jdbc.queryForList(NIGHT_REFUELS_SELECT + " AND (ts, id) < (?, ?)" + NIGHT_REFUELS_ORDER + " LIMIT ?",
+                                     from, to, beforeTs, beforeId, size);
+        } catch (Exception e) {
+            log.error("Failed to load night refuels: from={}, to={}, beforeTs={}, beforeId={}, size={}", from, to, beforeTs, beforeId, size, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Часовой пояс и окно ночи, по которым посчитан is_night, и блокировка
+     * строки до конца транзакции, чтобы узлы не пересчитывали одновременно.
+     */
+    public Map<String, Object> lockNightSetting() {
+        return jdbc.queryForMap("SELECT timezone, start_hour, end_hour FROM fuel_night_setting WHERE id = 1 FOR UPDATE");
+    }
+
+    public void saveNightSetting(String timezone, int startHour, int endHour) {
+        jdbc.update("UPDATE fuel_night_setting SET timezone = ?, start_hour = ?, end_hour = ?, updated_at = now() WHERE id = 1",
+                    timezone, startHour, endHour);
+    }
 
-    public void bulkInsert(List<FuelTransaction> list) {
-        for (FuelTransaction f : list) {
-            UUID id = f.getId() != null ? f.getId() : UUID.randomUUID();
-            String sql = "INSERT INTO fuel_transaction (id, card_number, vehicle_reg, liters, price, amount, ts, location, source, matched_task, anomalies, raw) " +
-                         "VALUES (?, ?, ?, ?, ?, ?, ?, to_jsonb(?::json), ?, ?, to_jsonb(?::json), to_jsonb(?::json))";
-            jdbc.update(sql, id, f.getCardNumber(), f.getVehicleReg(), f.getLiters(), f.getPrice(), f.getAmount(),
-                    f.getTs(), f.getLocation(), f.getSource(), f.getMatchedTask(), f.getAnomalies(), f.getRaw());
+    /**
+     * Пересчитывает is_night всех транзакций по часовому поясу и окну ночи и
+     * вместе с ним код NIGHT_REFUEL в anomalies, как при приеме. Меняет только
+     * строки, где флаг или код расходятся с окном. Возвращает их число.
+     */
+    public int reclassifyNight(String timezone, int startHour, int endHour) {
+        String hour = "EXTRACT(HOUR FROM ts AT TIME ZONE ?)";
+        String night = startHour > endHour
+                ? "(" + hour + " >= ? OR " + hour + " < ?)"
+                : "(" + hour + " >= ? AND " + hour + " < ?)";
+        Object[] nightParams = { timezone, startHour, timezone, endHour };
+        String code = FuelAnomalies.NIGHT_REFUEL;
+        String hasCode = "COALESCE(anomalies @> jsonb_build_array(?::text), false)";
+        // Код удаляется, только если он есть, - значит, anomalies уже массив
+        String sql = "UPDATE fuel_transaction SET is_night = " + night + ", " +
+                     "anomalies = CASE WHEN " + night + " = " + hasCode + " THEN anomalies " +
+                     "  WHEN " + night + " THEN (CASE WHEN anomalies IS NULL OR jsonb_typeof(anomalies) = 'null' THEN '[]'::jsonb " +
+                     "    WHEN jsonb_typeof(anomalies) = 'array' THEN anomalies " +
+                     "    ELSE jsonb_build_array(anomalies) END) || jsonb_build_array(?::text) " +
+                     "  ELSE anomalies - ?::text END " +
+                     "WHERE is_night IS DISTINCT FROM " + night + " OR " + night + " <> " + hasCode;
+        List<Object> params = new ArrayList<>();
+        params.addAll(List.of(nightParams));
+        params.addAll(List.of(nightParams));
+        params.add(code);
+        params.addAll(List.of(nightParams));
+        params.add(code);
+        params.add(code);
+        params.addAll(List.of(nightParams));
+        params.addAll(List.of(nightParams));
+        params.add(code);
+        try {
+            return jdbc.update(sql, params.toArray());
+        } catch (Exception e) {
+            log.error("Failed to reclassify night refuels: timezone={}, startHour={}, endHour={}", timezone, startHour, endHour, e);
+            throw e;
         }
     }
 
-    public List<Map<String,Object>> nightRefuels() {
-        String sql = "SELECT id, card_number, liters, ts, location FROM fuel_transaction " +
-                     "WHERE EXTRACT(HOUR FROM ts) < 6 OR EXTRACT(HOUR FROM ts) >= 22 ORDER BY ts DESC";
-        return jdbc.queryForList(sql);
+    /**
+     * Ночные заправки за период построчно через курсор; должно вызываться внутри транзакции.
+     */
+    public void streamNightRefuels(OffsetDateTime from, OffsetDateTime to, Consumer<Map<String,Object>> sink) {
+        ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+        jdbc.query(NdjsonStreamer.fetching(NIGHT_REFUELS_SQL, from, to), rs -> { sink.accept(rowMapper.mapRow(rs, rs.getRow())); });
     }
 }
@@ -0,0 +1,34 @@
+package com.agrocrm.domain.fuel;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.UUID;
+
+@Schema(description = "Результат импорта одной топливной транзакции")
+public record FuelRowResult(
+        @Schema(description = "Номер строки во входных данных (с 0)") int row,
+        @Schema(description = "ID записанной транзакции") UUID id,
+        @Schema(description = "Итог обработки строки") Status status,
+        @Schema(description = "Причина отказа") String reason) {
+
+    public enum Status {
+        /** Строка записана */
+        ACCEPTED,
+        /** Транзакция с той же картой, временем и литрами уже есть */
+        DUPLICATE,
+        /** Строка не прошла проверку или не записалась */
+        REJECTED
+    }
+
+    static FuelRowResult accepted(int row, UUID id) {
+        return new FuelRowResult(row, id, Status.ACCEPTED, null);
+    }
+
+    static FuelRowResult duplicate(int row) {
+        return new FuelRowResult(row, null, Status.DUPLICATE, null);
+    }
+
+    static FuelRowResult rejected(int row, String reason) {
+        return new FuelRowResult(row, null, Status.REJECTED, reason);
+    }
+}
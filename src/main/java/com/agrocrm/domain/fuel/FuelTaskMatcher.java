@@ -0,0 +1,248 @@
+package com.agrocrm.domain.fuel;
+
+import com.agrocrm.analytics.FieldCostRepository;
+import com.agrocrm.analytics.RollupRepository;
+import com.agrocrm.analytics.RollupService;
+import com.agrocrm.domain.fuel.FuelMatchRepository.PendingFuel;
+import com.agrocrm.domain.fuel.FuelMatchRepository.TaskWindow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Сопоставление топливных транзакций с задачами:
+ * vehicle_reg -> machine.reg_number -> task.assigned_machine и фактическое
+ * время работы (actual_start/actual_end) с допуском app.fuel.matching.toleranceMinutes.
+ *
+ * Непроверенные транзакции берутся пачками, окна задач по всей пачке читаются
+ * одним запросом, а сопоставление идет проходом по отсортированным по времени
+ * транзакциям и интервалам каждой машины - без запросов на каждую строку.
+ * После сопоставления пересчитывается оценка расхода затронутых задач.
+ */
+@Component
+public class FuelTaskMatcher {
+    private static final Logger log = LoggerFactory.getLogger(FuelTaskMatcher.class);
+
+    public record MatchStats(long checked, long matched) { }
+
+    private final FuelMatchRepository repo;
+    private final FuelConsumptionScorer scorer;
+    private final FieldCostRepository fieldCosts;
+    private final RollupService rollups;
+    private final TransactionTemplate tx;
+    private final int batchSize;
+    private final long toleranceMillis;
+    private final ReentrantLock running = new ReentrantLock();
+
+    public FuelTaskMatcher(FuelMatchRepository repo, FuelConsumptionScorer scorer, FieldCostRepository fieldCosts,
+                           RollupService rollups, PlatformTransactionManager transactionManager,
+                           @Value("${app.fuel.matching.batchSize:50000}") int batchSize,
+                           @Value("${app.fuel.matching.toleranceMinutes:60}") long toleranceMinutes) {
+        this.repo = repo;
+        this.scorer = scorer;
+        this.fieldCosts = fieldCosts;
+        this.rollups = rollups;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.toleranceMillis = toleranceMinutes * 60_000;
+    }
+
+    @Scheduled(fixedDelayString = "${app.fuel.matching.intervalMs:60000}")
+    public void scheduledRun() {
+        try {
+            matchPending();
+        } catch (Exception e) {
+            log.error("Fuel task matching failed", e);
+        }
+    }
+
+    /**
+     * Сопоставляет все непроверенные транзакции. Если сопоставление уже идет
+     * на этом или другом узле, возвращает пустую статистику.
+     */
+    public MatchStats matchPending() {
+        if (!running.tryLock()) {
+            return new MatchStats(0, 0);
+        }
+        return matchLocked(false);
+    }
+
+    /**
+     * Сопоставляет под уже взятым running; wait - ждать пачки другого узла,
+     * а не прекращать работу.
+     */
+    private MatchStats matchLocked(boolean wait) {
+        try {
+            long started = System.currentTimeMillis();
+            long checked = 0, matched = 0;
+            Set<UUID> touchedTasks = new HashSet<>();
+            while (true) {
+                MatchStats batch = tx.execute(status -> matchBatch(touchedTasks, wait));
+                if (batch == null || batch.checked() == 0) {
+                    break;
+                }
+                checked += batch.checked();
+                matched += batch.matched();
+            }
+            if (checked > 0) {
+                log.info("Fuel task matching finished: checked={}, matched={}, elapsedMs={}",
+                         checked, matched, System.currentTimeMillis() - started);
+            }
+            if (!touchedTasks.isEmpty()) {
+                try {
+                    scorer.score(touchedTasks);
+                } catch (Exception e) {
+                    log.error("Fuel consumption scoring after matching failed: tasks={}", touchedTasks.size(), e);
+                }
+            }
+            return new MatchStats(checked, matched);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    /**
+     * Повторное сопоставление транзакций за период, например после правки
+     * фактического времени задач. Автоматические сопоставления снимаются и
+     * ищутся заново, ручные остаются. Оценки задач, потерявших заправки, и
+     * агрегаты топлива за период пересчитываются. Идущее сопоставление на
+     * этом или другом узле не прерывает повтор: он ждет его и доводит
+     * сопоставление до конца, иначе агрегаты пересчитались бы по
+     * транзакциям со снятой задачей.
+     */
+    public MatchStats rematch(OffsetDateTime from, OffsetDateTime to) {
+        running.lock();
+        List<UUID> previousTasks;
+        try {
+            previousTasks = tx.execute(status -> {
+                repo.lock();
+                List<UUID> tasks = repo.findAutoMatchedTasks(from, to);
+                fieldCosts.removeAutoMatchedFuel(from, to);
+                int reset = repo.resetChecked(from, to);
+                log.info("Reset fuel task matching: from={}, to={}, rows={}, tasks={}", from, to, reset, tasks.size());
+                return tasks;
+            });
+        } catch (RuntimeException e) {
+            running.unlock();
+            throw e;
+        }
+        // running снимается в matchLocked
+        MatchStats stats = matchLocked(true);
+        if (previousTasks != null && !previousTasks.isEmpty()) {
+            try {
+                scorer.score(previousTasks);
+            } catch (Exception e) {
+                log.error("Fuel consumption rescoring after rematch failed: tasks={}", previousTasks.size(), e);
+            }
+        }
+        rollups.rebuild(RollupRepository.Source.FUEL, from, to);
+        return stats;
+    }
+
+    private MatchStats matchBatch(Set<UUID> touchedTasks, boolean wait) {
+        if (wait) {
+            repo.lock();
+        } else if (!repo.tryLock()) {
+            return null;
+        }
+        List<PendingFuel> pending = repo.findPending(batchSize);
+        if (pending.isEmpty()) {
+            return new MatchStats(0, 0);
+        }
+
+        Map<String, UUID> machinesByReg = repo.findMachinesByReg();
+        Map<UUID, List<PendingFuel>> byMachine = new HashMap<>();
+        long minTs = Long.MAX_VALUE, maxTs = Long.MIN_VALUE;
+        for (PendingFuel f : pending) {
+            UUID machineId = machinesByReg.get(FuelMatchRepository.normalizeReg(f.vehicleReg()));
+            if (machineId == null) {
+                continue;
+            }
+            byMachine.computeIfAbsent(machineId, k -> new ArrayList<>()).add(f);
+            minTs = Math.min(minTs, f.tsMillis());
+            maxTs = Math.max(maxTs, f.tsMillis());
+        }
+
+        Map<UUID, UUID> matches = new HashMap<>();
+        if (!byMachine.isEmpty()) {
+            Map<UUID, List<TaskWindow>> windows = new HashMap<>();
+            for (TaskWindow w : repo.findTaskWindows(byMachine.keySet(), toTime(minTs - toleranceMillis), toTime(maxTs + toleranceMillis))) {
+                windows.computeIfAbsent(w.machineId(), k -> new ArrayList<>()).add(w);
+            }
+            byMachine.forEach((machineId, fuels) -> sweep(fuels, windows.getOrDefault(machineId, List.of()), matches));
+        }
+
+        UUID[] ids = new UUID[pending.size()];
+        UUID[] taskIds = new UUID[pending.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            ids[i] = pending.get(i).id();
+            taskIds[i] = matches.get(ids[i]);
+        }
+        // Затраты полей учитываются до записи, пока новые сопоставления отличимы от старых
+        if (!matches.isEmpty()) {
+            fieldCosts.addMatchedFuel(ids, taskIds);
+        }
+        repo.saveMatches(ids, taskIds);
+        touchedTasks.addAll(matches.values());
+        return new MatchStats(pending.size(), matches.size());
+    }
+
+    /**
+     * Проход по транзакциям одной машины в порядке времени. Интервалы задач
+     * входят в активный набор по началу и выбывают по окончанию, поэтому
+     * каждый интервал рассматривается O(1) раз на проход.
+     */
+    private void sweep(List<PendingFuel> fuels, List<TaskWindow> windows, Map<UUID, UUID> matches) {
+        if (windows.isEmpty()) {
+            return;
+        }
+        fuels.sort(Comparator.comparingLong(PendingFuel::tsMillis));
+        List<TaskWindow> sorted = new ArrayList<>(windows);
+        sorted.sort(Comparator.comparingLong(TaskWindow::startMillis));
+
+        List<TaskWindow> active = new ArrayList<>();
+        int next = 0;
+        for (PendingFuel f : fuels) {
+            long t = f.tsMillis();
+            while (next < sorted.size() && sorted.get(next).startMillis() - toleranceMillis <= t) {
+                active.add(sorted.get(next++));
+            }
+            active.removeIf(w -> w.endMillis() != Long.MAX_VALUE && w.endMillis() + toleranceMillis < t);
+
+            TaskWindow best = null;
+            long bestDistance = Long.MAX_VALUE;
+            for (TaskWindow w : active) {
+                long distance = t < w.startMillis() ? w.startMillis() - t : (t > w.endMillis() ? t - w.endMillis() : 0);
+                // При равном расстоянии берем задачу, начатую позже
+                if (distance < bestDistance || (distance == bestDistance && w.startMillis() > best.startMillis())) {
+                    best = w;
+                    bestDistance = distance;
+                }
+            }
+            if (best != null) {
+                matches.put(f.id(), best.taskId());
+            }
+        }
+    }
+
+    private static OffsetDateTime toTime(long millis) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
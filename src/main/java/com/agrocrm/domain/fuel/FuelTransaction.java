@@ -39,6 +39,9 @@ public class FuelTransaction {
     @Schema(description = "Аномалии в транзакции")
     private String anomalies;
     
+    @Schema(description = "Заправка в ночное время по часовому поясу хозяйства", accessMode = Schema.AccessMode.READ_ONLY)
+    private boolean night;
+    
     @Schema(description = "Исходные данные транзакции")
     private String raw;
 
@@ -64,6 +67,8 @@ public class FuelTransaction {
     public void setMatchedTask(UUID matchedTask) { this.matchedTask = matchedTask; }
     public String getAnomalies() { return anomalies; }
     public void setAnomalies(String anomalies) { this.anomalies = anomalies; }
+    public boolean isNight() { return night; }
+    public void setNight(boolean night) { this.night = night; }
     public String getRaw() { return raw; }
     public void setRaw(String raw) { this.raw = raw; }
 }
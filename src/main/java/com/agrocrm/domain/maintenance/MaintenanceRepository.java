@@ -1,24 +1,42 @@
 package com.agrocrm.domain.maintenance;
 
+import com.agrocrm.config.DataChangedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.math.BigDecimal;
 
+/**
+ * Заявки на ТО. Вместе со статусами заявок ведутся счетчики машины в
+ * machine_uptime и интервалы простоя в machine_downtime: машина простаивает,
+ * пока у нее есть хотя бы одна заявка в работе (IN_PROGRESS).
+ */
 @Repository
 public class MaintenanceRepository {
     private static final Logger log = LoggerFactory.getLogger(MaintenanceRepository.class);
+
+    private static final Set<String> OPEN_STATUSES = Set.of("PLANNED", "IN_PROGRESS");
+    private static final String IN_PROGRESS = "IN_PROGRESS";
     
     private final JdbcTemplate jdbc;
+    private final ApplicationEventPublisher events;
 
-    public MaintenanceRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public MaintenanceRepository(JdbcTemplate jdbc, ApplicationEventPublisher events) {
+        this.jdbc = jdbc;
+        this.events = events;
+    }
 
     private RowMapper<MaintenanceOrder> mapper = new RowMapper<MaintenanceOrder>() {
         @Override
@@ -35,11 +53,14 @@ public class MaintenanceRepository {
         }
     };
 
+    @Transactional
     public UUID create(MaintenanceOrder o) {
         try {
             UUID id = UUID.randomUUID();
             String sql = "INSERT INTO maintenance_order(id, machine_id, type, planned_ts, status, parts, cost) VALUES (?,?,?,?,'PLANNED', to_jsonb(?::json), ?)";
             jdbc.update(sql, id, o.getMachineId(), o.getType(), o.getPlannedTs(), o.getParts(), o.getCost());
+            adjustUptime(o.getMachineId(), 1, 0);
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.MAINTENANCE_ORDER));
             return id;
         } catch (Exception e) {
             log.error("Failed to create maintenance order", e);
@@ -47,15 +68,118 @@ public class MaintenanceRepository {
         }
     }
 
+    @Transactional
     public void setStatus(UUID id, String status) {
         try {
+            // Блокируем заявку, чтобы параллельные смены статуса не посчитались дважды
+            List<Map<String, Object>> rows = jdbc.queryForList(
+                    "SELECT machine_id, status FROM maintenance_order WHERE id=? FOR UPDATE", id);
+            if (rows.isEmpty()) {
+                return;
+            }
+            UUID machineId = (UUID) rows.get(0).get("machine_id");
+            String previous = (String) rows.get(0).get("status");
             jdbc.update("UPDATE maintenance_order SET status=? WHERE id=?", status, id);
+            if (!status.equals(previous)) {
+                adjustUptime(machineId,
+                        (OPEN_STATUSES.contains(status) ? 1 : 0) - (OPEN_STATUSES.contains(previous) ? 1 : 0),
+                        (IN_PROGRESS.equals(status) ? 1 : 0) - (IN_PROGRESS.equals(previous) ? 1 : 0));
+            }
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.MAINTENANCE_ORDER));
         } catch (Exception e) {
             log.error("Failed to update maintenance order status: id={}, status={}", id, status, e);
             throw e;
         }
     }
 
+    /**
+     * Меняет счетчики машины. Первая заявка в работе открывает интервал
+     * простоя, завершение последней закрывает его и добавляет часы к итогу.
+     * Строка machine_uptime блокируется upsert'ом до конца транзакции.
+     */
+    private void adjustUptime(UUID machineId, int openDelta, int inProgressDelta) {
+        if (openDelta == 0 && inProgressDelta == 0) {
+            return;
+        }
+        Integer inProgress = jdbc.queryForObject(
+                "INSERT INTO machine_uptime (machine_id, open_orders, in_progress_orders) VALUES (?, GREATEST(?, 0), GREATEST(?, 0)) " +
+                "ON CONFLICT (machine_id) DO UPDATE SET open_orders = GREATEST(machine_uptime.open_orders + EXCLUDED.open_orders + LEAST(?, 0), 0), " +
+                "in_progress_orders = GREATEST(machine_uptime.in_progress_orders + EXCLUDED.in_progress_orders + LEAST(?, 0), 0), " +
+                "updated_at = now() RETURNING in_progress_orders",
+                Integer.class, machineId, openDelta, inProgressDelta, openDelta, inProgressDelta);
+        if (inProgressDelta > 0 && inProgress != null && inProgress == inProgressDelta) {
+            jdbc.update("INSERT INTO machine_downtime (machine_id, started_at) VALUES (?, now()) " +
+                        "ON CONFLICT (machine_id) WHERE ended_at IS NULL DO NOTHING", machineId);
+        } else if (inProgressDelta < 0 && inProgress != null && inProgress == 0) {
+            jdbc.update("WITH closed AS (UPDATE machine_downtime SET ended_at = now() " +
+                        "  WHERE machine_id = ? AND ended_at IS NULL RETURNING started_at, ended_at) " +
+                        "UPDATE machine_uptime SET downtime_hours = downtime_hours + " +
+                        "  COALESCE((SELECT SUM(EXTRACT(EPOCH FROM ended_at - started_at)) / 3600 FROM closed), 0) " +
+                        "WHERE machine_id = ?", machineId, machineId);
+        }
+    }
+
+    /**
+     * Сверяет счетчики и интервалы простоя с заявками: закрывает интервалы
+     * машин без заявок в работе, открывает недостающие, пересчитывает
+     * счетчики и накопленный простой. Таблица счетчиков блокируется на запись
+     * до конца транзакции, чтобы смены статусов не потерялись. Возвращает
+     * число машин.
+     */
+    @Transactional
+    public int rebuildUptime() {
+        try {
+            jdbc.execute("LOCK TABLE machine_uptime IN EXCLUSIVE MODE");
+            jdbc.update("UPDATE machine_downtime d SET ended_at = now() WHERE ended_at IS NULL AND NOT EXISTS " +
+                        "(SELECT 1 FROM maintenance_order o WHERE o.machine_id = d.machine_id AND o.status = 'IN_PROGRESS')");
+            jdbc.update("INSERT INTO machine_downtime (machine_id, started_at) " +
+                        "SELECT DISTINCT machine_id, now() FROM maintenance_order WHERE status = 'IN_PROGRESS' " +
+                        "ON CONFLICT (machine_id) WHERE ended_at IS NULL DO NOTHING");
+            int machines = jdbc.update(
+                    "INSERT INTO machine_uptime (machine_id, open_orders, in_progress_orders, downtime_hours, updated_at) " +
+                    "SELECT m.id, COALESCE(o.open_orders, 0), COALESCE(o.in_progress_orders, 0), COALESCE(d.hours, 0), now() " +
+                    "FROM machine m " +
+                    "LEFT JOIN (SELECT machine_id, COUNT(*) FILTER (WHERE status IN ('PLANNED','IN_PROGRESS')) AS open_orders, " +
+                    "  COUNT(*) FILTER (WHERE status = 'IN_PROGRESS') AS in_progress_orders " +
+                    "  FROM maintenance_order GROUP BY machine_id) o ON o.machine_id = m.id " +
+                    "LEFT JOIN (SELECT machine_id, SUM(EXTRACT(EPOCH FROM ended_at - started_at)) / 3600 AS hours " +
+                    "  FROM machine_downtime WHERE ended_at IS NOT NULL GROUP BY machine_id) d ON d.machine_id = m.id " +
+                    "ON CONFLICT (machine_id) DO UPDATE SET open_orders = EXCLUDED.open_orders, " +
+                    "in_progress_orders = EXCLUDED.in_progress_orders, downtime_hours = EXCLUDED.downtime_hours, updated_at = now()");
+            events.publishEvent(new DataChangedEvent(DataChangedEvent.MAINTENANCE_ORDER));
+            return machines;
+        } catch (Exception e) {
+            log.error("Failed to rebuild machine uptime counters", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Показатели машин за период [from, to): открытые заявки и заявки в
+     * работе на текущий момент, часы простоя в периоде (незакрытый простой
+     * считается до текущего момента) и доля времени без простоя. Конец
+     * периода не должен быть позже текущего момента, иначе будущее время
+     * посчитается простоем; для пустого периода доля не определена.
+     */
+    public List<Map<String, Object>> uptime(OffsetDateTime from, OffsetDateTime to) {
+        String sql = "SELECT m.id, m.reg_number, COALESCE(u.open_orders, 0) AS pending_orders, " +
+                     "COALESCE(u.in_progress_orders, 0) AS in_progress_orders, " +
+                     "ROUND(COALESCE(d.hours, 0), 2) AS downtime_hours, " +
+                     "ROUND(1 - COALESCE(d.hours, 0) / NULLIF(EXTRACT(EPOCH FROM ?::timestamptz - ?::timestamptz) / 3600, 0), 4) AS uptime_ratio, " +
+                     "COALESCE(u.downtime_hours, 0) AS total_downtime_hours " +
+                     "FROM machine m LEFT JOIN machine_uptime u ON u.machine_id = m.id " +
+                     "LEFT JOIN (SELECT machine_id, SUM(EXTRACT(EPOCH FROM LEAST(COALESCE(ended_at, now()), ?) - GREATEST(started_at, ?)) / 3600) AS hours " +
+                     "  FROM machine_downtime WHERE started_at < ? AND (ended_at IS NULL OR ended_at > ?) " +
+                     "  GROUP BY machine_id) d ON d.machine_id = m.id " +
+                     "ORDER BY pending_orders DESC, downtime_hours DESC";
+        try {
+            return jdbc.queryForList(sql, to, from, to, from, to, from);
+        } catch (Exception e) {
+            log.error("Failed to load machine uptime: from={}, to={}", from, to, e);
+            throw e;
+        }
+    }
+
     public List<MaintenanceOrder> list(String status) {
         try {
             String sql = "SELECT *, parts::text as parts FROM maintenance_order " + (status != null ? "WHERE status=?" : "") + " ORDER BY planned_ts DESC";
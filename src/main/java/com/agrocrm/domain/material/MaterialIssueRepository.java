@@ -1,11 +1,15 @@
 package com.agrocrm.domain.material;
 
+import com.agrocrm.analytics.FieldCostRepository;
+import com.agrocrm.integration.outbox.OutboxPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 
 @Repository
@@ -13,8 +17,14 @@ public class MaterialIssueRepository {
     private static final Logger log = LoggerFactory.getLogger(MaterialIssueRepository.class);
     
     private final JdbcTemplate jdbc;
+    private final FieldCostRepository fieldCosts;
+    private final OutboxPublisher outbox;
 
-    public MaterialIssueRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public MaterialIssueRepository(JdbcTemplate jdbc, FieldCostRepository fieldCosts, OutboxPublisher outbox) {
+        this.jdbc = jdbc;
+        this.fieldCosts = fieldCosts;
+        this.outbox = outbox;
+    }
 
     @Transactional
     public UUID issue(MaterialIssue mi, UUID userId) {
@@ -23,7 +33,17 @@ public class MaterialIssueRepository {
             jdbc.update("INSERT INTO material_issue(id, task_id, material_batch_id, qty, created_by) VALUES (?,?,?,?,?)",
                     id, mi.getTaskId(), mi.getMaterialBatchId(), mi.getQty(), userId);
             // списываем со склада
-            jdbc.update("UPDATE material_batch SET qty = qty - ? WHERE id=?", mi.getQty(), mi.getMaterialBatchId());
+            UUID materialId = jdbc.query("UPDATE material_batch SET qty = qty - ? WHERE id=? RETURNING material_id",
+                    rs -> rs.next() ? (UUID) rs.getObject(1) : null, mi.getQty(), mi.getMaterialBatchId());
+            fieldCosts.addMaterialIssue(mi.getTaskId(), mi.getMaterialBatchId(), mi.getQty());
+
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("issueId", id);
+            payload.put("taskId", mi.getTaskId());
+            payload.put("materialBatchId", mi.getMaterialBatchId());
+            payload.put("materialId", materialId);
+            payload.put("qty", mi.getQty());
+            outbox.publish("MATERIAL_ISSUED", "MATERIAL_ISSUE", id, payload);
             return id;
         } catch (Exception e) {
             log.error("Failed to issue material: taskId={}, materialBatchId={}, qty={}, userId={}", 
@@ -1,5 +1,7 @@
 package com.agrocrm.domain.material;
 
+import com.agrocrm.config.DataChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
@@ -12,8 +14,12 @@ import java.util.UUID;
 @Repository
 public class MaterialRepository {
     private final JdbcTemplate jdbc;
+    private final ApplicationEventPublisher events;
 
-    public MaterialRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public MaterialRepository(JdbcTemplate jdbc, ApplicationEventPublisher events) {
+        this.jdbc = jdbc;
+        this.events = events;
+    }
 
     private RowMapper<Material> mapper = new RowMapper<Material>() {
         @Override
@@ -36,13 +42,18 @@ public class MaterialRepository {
         UUID id = UUID.randomUUID();
         jdbc.update("INSERT INTO material(id, name, type, unit, price_per_unit) VALUES (?,?,?,?,?)",
                 id, m.getName(), m.getType(), m.getUnit(), m.getPricePerUnit());
+        events.publishEvent(new DataChangedEvent(DataChangedEvent.MATERIAL));
         return id;
     }
 
     public void update(UUID id, Material m) {
         jdbc.update("UPDATE material SET name=?, type=?, unit=?, price_per_unit=? WHERE id=?",
                 m.getName(), m.getType(), m.getUnit(), m.getPricePerUnit(), id);
+        events.publishEvent(new DataChangedEvent(DataChangedEvent.MATERIAL));
     }
 
-    public void delete(UUID id) { jdbc.update("DELETE FROM material WHERE id=?", id); }
+    public void delete(UUID id) {
+        jdbc.update("DELETE FROM material WHERE id=?", id);
+        events.publishEvent(new DataChangedEvent(DataChangedEvent.MATERIAL));
+    }
 }
@@ -0,0 +1,60 @@
+package com.agrocrm.domain.session;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отложенная запись last_activity: вместо UPDATE на каждый запрос накапливает
+ * ID активных сессий и периодически обновляет их одним запросом.
+ */
+@Component
+public class SessionActivityBuffer {
+    private static final Logger log = LoggerFactory.getLogger(SessionActivityBuffer.class);
+
+    private final UserSessionRepository sessionRepository;
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    public SessionActivityBuffer(UserSessionRepository sessionRepository) {
+        this.sessionRepository = sessionRepository;
+    }
+
+    public void touch(UUID sessionId) {
+        pending.add(sessionId);
+    }
+
+    @Scheduled(fixedDelayString = "${app.session.activityFlushIntervalMs:15000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<UUID> batch = new ArrayList<>(pending.size());
+        Iterator<UUID> it = pending.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            it.remove();
+        }
+        try {
+            int updated = sessionRepository.updateLastActivity(batch);
+            log.debug("Flushed session activity: sessions={}, updated={}", batch.size(), updated);
+        } catch (Exception e) {
+            // Возвращаем ID в буфер, чтобы не потерять активность до следующей попытки
+            pending.addAll(batch);
+            log.error("Failed to flush session activity: sessions={}", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
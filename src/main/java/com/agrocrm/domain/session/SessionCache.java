@@ -0,0 +1,84 @@
+package com.agrocrm.domain.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограниченный по размеру и времени жизни кэш проверенных сессий.
+ * Снимает запрос к user_session с каждого аутентифицированного запроса;
+ * записи явно инвалидируются при завершении сессий.
+ */
+@Component
+public class SessionCache {
+    private static final Logger log = LoggerFactory.getLogger(SessionCache.class);
+
+    private record Entry(UserSession session, long loadedAtNanos) {}
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxSize;
+
+    public SessionCache(@Value("${app.session.cache.ttlSeconds:30}") long ttlSeconds,
+                        @Value("${app.session.cache.maxSize:10000}") int maxSize) {
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.maxSize = maxSize;
+    }
+
+    public UserSession get(UUID sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAtNanos() > ttlNanos) {
+            entries.remove(sessionId, entry);
+            return null;
+        }
+        return entry.session();
+    }
+
+    public void put(UserSession session) {
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+        entries.put(session.getId(), new Entry(session, System.nanoTime()));
+    }
+
+    public void invalidate(UUID sessionId) {
+        entries.remove(sessionId);
+    }
+
+    public void invalidateUser(UUID userId) {
+        entries.values().removeIf(e -> userId.equals(e.session().getUserId()));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> now - e.loadedAtNanos() > ttlNanos);
+
+        // Если истекших записей не хватило, освобождаем десятую часть кэша
+        if (entries.size() >= maxSize) {
+            int toRemove = Math.max(1, maxSize / 10);
+            Iterator<UUID> it = entries.keySet().iterator();
+            while (toRemove-- > 0 && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+            log.debug("Session cache is full, evicted entries: size={}", entries.size());
+        }
+    }
+}
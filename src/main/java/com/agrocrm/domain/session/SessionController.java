@@ -2,7 +2,7 @@ package com.agrocrm.domain.session;
 
 import com.agrocrm.config.AuditService;
 import com.agrocrm.security.JwtService;
-import io.jsonwebtoken.Claims;
+import com.agrocrm.security.VerifiedToken;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
@@ -65,14 +66,13 @@ public class SessionController {
             
             String token = authHeader.substring(7);
             
-            // Проверяем, что это access токен
-            if (!jwtService.isAccessToken(token)) {
+            // Проверяем access токен (подпись, срок и тип) за один разбор
+            VerifiedToken verified = jwtService.verifyAccessToken(token);
+            if (verified == null) {
                 return ResponseEntity.status(401).build();
             }
             
-            // Парсим токен
-            var claims = jwtService.parse(token);
-            String username = claims.getSubject();
+            String username = verified.getSubject();
             UUID userId = getUserIdByUsername(username);
             
             List<UserSession> sessions = sessionService.getActiveUserSessions(userId);
@@ -115,14 +115,13 @@ public class SessionController {
             
             String token = authHeader.substring(7);
             
-            // Проверяем, что это access токен
-            if (!jwtService.isAccessToken(token)) {
+            // Проверяем access токен (подпись, срок и тип) за один разбор
+            VerifiedToken verified = jwtService.verifyAccessToken(token);
+            if (verified == null) {
                 return ResponseEntity.status(401).build();
             }
             
-            // Парсим токен
-            var claims = jwtService.parse(token);
-            String username = claims.getSubject();
+            String username = verified.getSubject();
             UUID userId = getUserIdByUsername(username);
             
             // Проверяем, что сессия принадлежит пользователю
@@ -148,6 +147,32 @@ public class SessionController {
         }
     }
 
+    @DeleteMapping("/user/{userId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Завершение всех сессий пользователя",
+        description = "Завершает все сессии указанного пользователя на всех узлах, например при компрометации учетной записи"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(
+            responseCode = "200", 
+            description = "Сессии пользователя завершены"
+        ),
+        @ApiResponse(
+            responseCode = "403", 
+            description = "Недостаточно прав"
+        )
+    })
+    public ResponseEntity<Void> terminateAllUserSessions(@PathVariable("userId") UUID userId, HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        UUID adminId = getUserIdByUsername(authentication.getName());
+        sessionService.terminateAllUserSessions(userId);
+        auditService.logUserAction(adminId, "TERMINATE_ALL_SESSIONS", "USER", userId.toString(),
+                                   getClientIpAddress(request), request.getHeader("User-Agent"));
+        log.info("All sessions terminated: userId={}, by={}", userId, authentication.getName());
+        return ResponseEntity.ok().build();
+    }
+
     private String getClientIpAddress(HttpServletRequest request) {
         String xForwardedFor = request.getHeader("X-Forwarded-For");
         if (xForwardedFor != null && !xForwardedFor.isEmpty() && !"unknown".equalsIgnoreCase(xForwardedFor)) {
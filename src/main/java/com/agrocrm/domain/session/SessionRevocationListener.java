@@ -0,0 +1,85 @@
+package com.agrocrm.domain.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Доставляет отзывы сессий, сделанные на любом узле кластера, в локальный
+ * {@link SessionCache}. Задержка вытеснения ограничена периодом опроса.
+ *
+ * Читаем по окну времени, а не по последнему id: id из BIGSERIAL выдаются
+ * до коммита, и транзакция с меньшим id может стать видимой позже.
+ * Повторное применение отзыва безопасно, уже обработанные id отсекаются.
+ */
+@Component
+public class SessionRevocationListener {
+    private static final Logger log = LoggerFactory.getLogger(SessionRevocationListener.class);
+
+    private final SessionRevocationRepository revocationRepository;
+    private final SessionCache sessionCache;
+    private final long lookbackSeconds;
+    private final long retentionSeconds;
+
+    // id обработанных отзывов -> время обработки (мс)
+    private final Map<Long, Long> applied = new ConcurrentHashMap<>();
+
+    public SessionRevocationListener(SessionRevocationRepository revocationRepository, SessionCache sessionCache,
+                                     @Value("${app.session.revocation.lookbackSeconds:60}") long lookbackSeconds,
+                                     @Value("${app.session.revocation.retentionSeconds:3600}") long retentionSeconds) {
+        this.revocationRepository = revocationRepository;
+        this.sessionCache = sessionCache;
+        this.lookbackSeconds = lookbackSeconds;
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    @Scheduled(fixedDelayString = "${app.session.revocation.pollIntervalMs:2000}")
+    public void poll() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Map<String, Object>> recent = revocationRepository.findRecent(lookbackSeconds);
+            int count = 0;
+            for (Map<String, Object> row : recent) {
+                Long id = ((Number) row.get("id")).longValue();
+                if (applied.putIfAbsent(id, now) != null) {
+                    continue;
+                }
+                UUID sessionId = (UUID) row.get("session_id");
+                UUID userId = (UUID) row.get("user_id");
+                if (sessionId != null) {
+                    sessionCache.invalidate(sessionId);
+                }
+                if (userId != null) {
+                    sessionCache.invalidateUser(userId);
+                }
+                count++;
+            }
+            // Забываем id, которые уже вышли из окна опроса
+            applied.values().removeIf(ts -> now - ts > lookbackSeconds * 2000);
+            if (count > 0) {
+                log.debug("Applied session revocations: count={}", count);
+            }
+        } catch (Exception e) {
+            log.error("Failed to poll session revocations", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.session.revocation.cleanupIntervalMs:600000}")
+    public void cleanup() {
+        try {
+            int deleted = revocationRepository.deleteOlderThanSeconds(Math.max(retentionSeconds, lookbackSeconds * 2));
+            if (deleted > 0) {
+                log.debug("Cleaned up {} session revocations", deleted);
+            }
+        } catch (Exception e) {
+            log.error("Failed to cleanup session revocations", e);
+        }
+    }
+}
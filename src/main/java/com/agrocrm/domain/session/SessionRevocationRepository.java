@@ -0,0 +1,47 @@
+package com.agrocrm.domain.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Repository
+public class SessionRevocationRepository {
+    private static final Logger log = LoggerFactory.getLogger(SessionRevocationRepository.class);
+
+    private final JdbcTemplate jdbc;
+
+    public SessionRevocationRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+
+    public void revokeSession(UUID sessionId, String reason) {
+        try {
+            jdbc.update("INSERT INTO session_revocation(session_id, reason) VALUES (?, ?)", sessionId, reason);
+        } catch (Exception e) {
+            log.error("Failed to publish session revocation: sessionId={}", sessionId, e);
+            throw e;
+        }
+    }
+
+    public void revokeUserSessions(UUID userId, String reason) {
+        try {
+            jdbc.update("INSERT INTO session_revocation(user_id, reason) VALUES (?, ?)", userId, reason);
+        } catch (Exception e) {
+            log.error("Failed to publish user sessions revocation: userId={}", userId, e);
+            throw e;
+        }
+    }
+
+    public List<Map<String, Object>> findRecent(long lookbackSeconds) {
+        String sql = "SELECT id, session_id, user_id FROM session_revocation " +
+                     "WHERE created_at > now() - make_interval(secs => ?) ORDER BY id ASC";
+        return jdbc.queryForList(sql, lookbackSeconds);
+    }
+
+    public int deleteOlderThanSeconds(long seconds) {
+        return jdbc.update("DELETE FROM session_revocation WHERE created_at < now() - make_interval(secs => ?)", seconds);
+    }
+}
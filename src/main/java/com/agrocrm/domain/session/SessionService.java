@@ -4,6 +4,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.OffsetDateTime;
 import java.util.HashMap;
@@ -16,9 +18,16 @@ public class SessionService {
     private static final Logger log = LoggerFactory.getLogger(SessionService.class);
     
     private final UserSessionRepository sessionRepository;
+    private final SessionCache sessionCache;
+    private final SessionActivityBuffer activityBuffer;
+    private final SessionRevocationRepository revocationRepository;
 
-    public SessionService(UserSessionRepository sessionRepository) {
+    public SessionService(UserSessionRepository sessionRepository, SessionCache sessionCache,
+                          SessionActivityBuffer activityBuffer, SessionRevocationRepository revocationRepository) {
         this.sessionRepository = sessionRepository;
+        this.sessionCache = sessionCache;
+        this.activityBuffer = activityBuffer;
+        this.revocationRepository = revocationRepository;
     }
 
     @Transactional
@@ -49,6 +58,7 @@ public class SessionService {
     public void updateSessionToken(UUID sessionId, String sessionToken) {
         try {
             sessionRepository.updateSessionToken(sessionId, sessionToken);
+            revoke(sessionId, "TOKEN_ROTATED");
             log.debug("Updated session token for sessionId: {}", sessionId);
         } catch (Exception e) {
             log.error("Failed to update session token: sessionId={}", sessionId, e);
@@ -60,8 +70,8 @@ public class SessionService {
         try {
             UserSession session = sessionRepository.findByToken(sessionToken);
             if (session != null) {
-                // Обновляем время последней активности
-                sessionRepository.updateLastActivity(session.getId());
+                // Время последней активности записывается пакетно
+                activityBuffer.touch(session.getId());
                 return session;
             }
             return null;
@@ -74,12 +84,20 @@ public class SessionService {
     public UserSession validateSessionById(String sessionId) {
         try {
             UUID sessionUuid = UUID.fromString(sessionId);
-            UserSession session = sessionRepository.findById(sessionUuid);
-            if (session != null && session.getIsActive() && session.getExpiresAt().isAfter(OffsetDateTime.now())) {
-                // Обновляем время последней активности
-                sessionRepository.updateLastActivity(session.getId());
+            UserSession session = sessionCache.get(sessionUuid);
+            if (session == null) {
+                session = sessionRepository.findById(sessionUuid);
+                if (session == null || !session.getIsActive()) {
+                    return null;
+                }
+                sessionCache.put(session);
+            }
+            if (session.getIsActive() && session.getExpiresAt().isAfter(OffsetDateTime.now())) {
+                // Время последней активности записывается пакетно
+                activityBuffer.touch(session.getId());
                 return session;
             }
+            sessionCache.invalidate(sessionUuid);
             return null;
         } catch (Exception e) {
             log.error("Failed to validate session by ID: sessionId={}", sessionId, e);
@@ -121,6 +139,7 @@ public class SessionService {
             UserSession session = sessionRepository.findById(sessionId);
             if (session != null && session.getUserId().equals(userId)) {
                 sessionRepository.deactivateSession(session.getId());
+                revoke(session.getId(), "SESSION_TERMINATED");
                 sessionRepository.logSessionAudit(userId, session.getId(), "SESSION_TERMINATED", 
                                                 session.getDeviceInfo(), ipAddress, userAgent);
                 log.info("Terminated session: sessionId={}, userId={}", sessionId, userId);
@@ -138,6 +157,7 @@ public class SessionService {
             for (UserSession session : activeSessions) {
                 if (!session.getId().equals(currentSessionId)) {
                     sessionRepository.deactivateSession(session.getId());
+                    revoke(session.getId(), "SESSION_TERMINATED");
                     sessionRepository.logSessionAudit(userId, session.getId(), "SESSION_TERMINATED", 
                                                     session.getDeviceInfo(), ipAddress, userAgent);
                 }
@@ -149,12 +169,31 @@ public class SessionService {
         }
     }
 
+    /**
+     * Завершает все сессии пользователя, например при компрометации учетной
+     * записи. Отзыв по user_id публикуется в той же транзакции, что и
+     * деактивация, и сбрасывает кэш сессий пользователя на всех узлах.
+     */
+    @Transactional
+    public void terminateAllUserSessions(UUID userId) {
+        try {
+            sessionRepository.deactivateAllUserSessions(userId);
+            revocationRepository.revokeUserSessions(userId, "ALL_SESSIONS_TERMINATED");
+            runNowAndAfterCommit(() -> sessionCache.invalidateUser(userId));
+            log.info("Terminated all sessions for user: userId={}", userId);
+        } catch (Exception e) {
+            log.error("Failed to terminate all sessions: userId={}", userId, e);
+            throw e;
+        }
+    }
+
     @Transactional
     public void logout(UUID sessionId, UUID userId, String ipAddress, String userAgent) {
         try {
             UserSession session = sessionRepository.findById(sessionId);
             if (session != null && session.getUserId().equals(userId)) {
                 sessionRepository.deactivateSession(session.getId());
+                revoke(session.getId(), "LOGOUT");
                 sessionRepository.logSessionAudit(userId, session.getId(), "LOGOUT", 
                                                 session.getDeviceInfo(), ipAddress, userAgent);
                 log.info("User logged out: sessionId={}, userId={}", sessionId, userId);
@@ -169,12 +208,38 @@ public class SessionService {
     public void cleanupExpiredSessions() {
         try {
             sessionRepository.cleanupExpiredSessions();
+            runNowAndAfterCommit(sessionCache::invalidateAll);
         } catch (Exception e) {
             log.error("Failed to cleanup expired sessions", e);
             throw e;
         }
     }
 
+    /**
+     * Вытесняет сессию из локального кэша и публикует отзыв для остальных узлов
+     * в той же транзакции, что и изменение user_session.
+     */
+    private void revoke(UUID sessionId, String reason) {
+        revocationRepository.revokeSession(sessionId, reason);
+        runNowAndAfterCommit(() -> sessionCache.invalidate(sessionId));
+    }
+
+    /**
+     * Инвалидация сразу и повторно после коммита: иначе параллельный запрос
+     * может успеть закэшировать сессию в состоянии до завершения транзакции.
+     */
+    private void runNowAndAfterCommit(Runnable action) {
+        action.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+    }
+
     private Map<String, Object> parseDeviceInfo(String userAgent) {
         Map<String, Object> deviceInfo = new HashMap<>();
         
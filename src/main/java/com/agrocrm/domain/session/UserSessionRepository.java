@@ -9,9 +9,11 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -152,6 +154,24 @@ public class UserSessionRepository {
         }
     }
 
+    @Transactional
+    public int updateLastActivity(Collection<UUID> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return 0;
+        }
+        try {
+            return jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "UPDATE user_session SET last_activity = now() WHERE id = ANY(?) AND is_active = true");
+                ps.setArray(1, con.createArrayOf("uuid", sessionIds.toArray()));
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to update last activity for sessions: count={}", sessionIds.size(), e);
+            throw e;
+        }
+    }
+
     @Transactional
     public void updateSessionToken(UUID sessionId, String sessionToken) {
         try {
@@ -1,11 +1,14 @@
 package com.agrocrm.domain.task;
 
 import jakarta.validation.Valid;
+import com.agrocrm.config.NdjsonStreamer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.http.ResponseEntity;
 import com.agrocrm.security.SecurityUtil;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -27,7 +30,13 @@ public class TaskController {
     private final TaskService service;
     private final SecurityUtil sec;
 
-    public TaskController(TaskService service, SecurityUtil sec) { this.service = service; this.sec = sec; }
+    private final NdjsonStreamer ndjson;
+
+    public TaskController(TaskService service, SecurityUtil sec, NdjsonStreamer ndjson) {
+        this.service = service;
+        this.sec = sec;
+        this.ndjson = ndjson;
+    }
 
     @PostMapping
     @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST')")
@@ -73,6 +82,22 @@ public class TaskController {
         }
     }
 
+    @GetMapping(produces = NdjsonStreamer.NDJSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST','MANAGER','MECHANIC','DRIVER')")
+    @Operation(
+        summary = "Выгрузить задачи потоком",
+        description = "Возвращает задачи в формате NDJSON; выбирается заголовком Accept: application/x-ndjson"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Выгрузка задач начата"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<StreamingResponseBody> export(
+        @Parameter(description = "Статус задачи для фильтрации") @RequestParam(value = "status", required = false) String status,
+        @Parameter(description = "ID поля для фильтрации") @RequestParam(value = "fieldId", required = false) UUID fieldId) {
+        return ndjson.<Task>stream(sink -> service.stream(status, fieldId, sink));
+    }
+
     @PostMapping("/{id}/start")
     @PreAuthorize("hasAnyRole('ADMIN','AGRONOMIST','DRIVER','MECHANIC')")
     @Operation(
@@ -1,23 +1,34 @@
 package com.agrocrm.domain.task;
 
+import com.agrocrm.config.NdjsonStreamer;
+import com.agrocrm.integration.outbox.OutboxPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Repository
 public class TaskRepository {
     private static final Logger log = LoggerFactory.getLogger(TaskRepository.class);
     
     private final JdbcTemplate jdbc;
+    private final OutboxPublisher outbox;
 
-    public TaskRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public TaskRepository(JdbcTemplate jdbc, OutboxPublisher outbox) {
+        this.jdbc = jdbc;
+        this.outbox = outbox;
+    }
 
     private RowMapper<Task> mapper = new RowMapper<Task>() {
         @Override
@@ -60,12 +71,8 @@ public class TaskRepository {
 
     public List<Task> find(String status, UUID fieldId) {
         try {
-            String base = "SELECT * FROM task WHERE 1=1";
             java.util.List<Object> args = new java.util.ArrayList<>();
-            if (status != null) { base += " AND status = ?"; args.add(status); }
-            if (fieldId != null) { base += " AND field_id = ?"; args.add(fieldId); }
-            base += " ORDER BY planned_start NULLS LAST, created_at DESC";
-            List<Task> tasks = jdbc.query(base, mapper, args.toArray());
+            List<Task> tasks = jdbc.query(findSql(status, fieldId, args), mapper, args.toArray());
             log.debug("Found {} tasks: status={}, fieldId={}", tasks.size(), status, fieldId);
             return tasks;
         } catch (Exception e) {
@@ -74,6 +81,33 @@ public class TaskRepository {
         }
     }
 
+    /**
+     * То же, что {@link #find}, но строки читаются курсором и передаются в sink
+     * по одной; должно вызываться внутри транзакции.
+     */
+    public void stream(String status, UUID fieldId, Consumer<Task> sink) {
+        try {
+            java.util.List<Object> args = new java.util.ArrayList<>();
+            String sql = findSql(status, fieldId, args);
+            jdbc.query(NdjsonStreamer.fetching(sql, args.toArray()), rs -> { sink.accept(mapper.mapRow(rs, rs.getRow())); });
+        } catch (Exception e) {
+            log.error("Failed to stream tasks: status={}, fieldId={}", status, fieldId, e);
+            throw e;
+        }
+    }
+
+    private static String findSql(String status, UUID fieldId, List<Object> args) {
+        String base = "SELECT * FROM task WHERE 1=1";
+        if (status != null) { base += " AND status = ?"; args.add(status); }
+        if (fieldId != null) { base += " AND field_id = ?"; args.add(fieldId); }
+        return base + " ORDER BY planned_start NULLS LAST, created_at DESC";
+    }
+
+    /**
+     * Меняет статус задачи и в той же транзакции публикует событие для 1С:
+     * TASK_COMPLETED при завершении, TASK_STATUS_CHANGED в остальных случаях.
+     */
+    @Transactional
     public void setStatus(UUID id, String newStatus) {
         try {
             String colStart = null, colEnd = null;
@@ -82,8 +116,19 @@ public class TaskRepository {
             String sql = "UPDATE task SET status = ?" +
                          (colStart != null ? ", " + colStart + " = now()" : "") +
                          (colEnd != null ? ", " + colEnd + " = now()" : "") +
-                         ", updated_at = now() WHERE id = ?";
-            jdbc.update(sql, newStatus, id);
+                         ", updated_at = now() WHERE id = ? RETURNING field_id, actual_start, actual_end";
+            List<Map<String, Object>> updated = jdbc.query(sql, (rs, rowNum) -> {
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("taskId", id);
+                payload.put("fieldId", rs.getObject("field_id"));
+                payload.put("status", newStatus);
+                payload.put("actualStart", rs.getObject("actual_start", OffsetDateTime.class));
+                payload.put("actualEnd", rs.getObject("actual_end", OffsetDateTime.class));
+                return payload;
+            }, newStatus, id);
+            for (Map<String, Object> payload : updated) {
+                outbox.publish("DONE".equals(newStatus) ? "TASK_COMPLETED" : "TASK_STATUS_CHANGED", "TASK", id, payload);
+            }
             log.debug("Updated task status: id={}, status={}", id, newStatus);
         } catch (Exception e) {
             log.error("Failed to update task status: id={}, status={}", id, newStatus, e);
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Service
 public class TaskService {
@@ -33,6 +34,10 @@ public class TaskService {
         }
     }
     
+    public void stream(String status, UUID fieldId, Consumer<Task> sink) {
+        repo.stream(status, fieldId, sink);
+    }
+    
     public void setStatus(UUID id, String status) { 
         try {
             repo.setStatus(id, status);
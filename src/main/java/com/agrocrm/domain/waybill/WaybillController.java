@@ -1,5 +1,6 @@
 package com.agrocrm.domain.waybill;
 
+import com.agrocrm.config.NdjsonStreamer;
 import com.lowagie.text.Document;
 import com.lowagie.text.Paragraph;
 import com.lowagie.text.pdf.PdfWriter;
@@ -11,6 +12,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -33,7 +35,12 @@ public class WaybillController {
 
     private final WaybillRepository repo;
 
-    public WaybillController(WaybillRepository repo) { this.repo = repo; }
+    private final NdjsonStreamer ndjson;
+
+    public WaybillController(WaybillRepository repo, NdjsonStreamer ndjson) {
+        this.repo = repo;
+        this.ndjson = ndjson;
+    }
 
     @PostMapping
     @PreAuthorize("hasAnyRole('ADMIN','MECHANIC','AGRONOMIST')")
@@ -80,6 +87,21 @@ public class WaybillController {
         }
     }
 
+    @GetMapping(produces = NdjsonStreamer.NDJSON_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN','MECHANIC','AGRONOMIST','ACCOUNTANT','MANAGER')")
+    @Operation(
+        summary = "Выгрузить путевые листы потоком",
+        description = "Возвращает путевые листы в формате NDJSON; выбирается заголовком Accept: application/x-ndjson"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Выгрузка путевых листов начата"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав для доступа")
+    })
+    public ResponseEntity<StreamingResponseBody> export(
+        @Parameter(description = "Статус путевого листа для фильтрации") @RequestParam(value = "status", required = false) String status) {
+        return ndjson.<Waybill>stream(sink -> repo.stream(status, sink));
+    }
+
     @PostMapping("/{id}/close")
     @PreAuthorize("hasAnyRole('ADMIN','MECHANIC')")
     @Operation(
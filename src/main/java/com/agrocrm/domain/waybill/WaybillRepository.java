@@ -1,24 +1,34 @@
 package com.agrocrm.domain.waybill;
 
+import com.agrocrm.config.NdjsonStreamer;
+import com.agrocrm.integration.outbox.OutboxPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.math.BigDecimal;
+import java.util.function.Consumer;
 
 @Repository
 public class WaybillRepository {
     private static final Logger log = LoggerFactory.getLogger(WaybillRepository.class);
     
     private final JdbcTemplate jdbc;
+    private final OutboxPublisher outbox;
 
-    public WaybillRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
+    public WaybillRepository(JdbcTemplate jdbc, OutboxPublisher outbox) {
+        this.jdbc = jdbc;
+        this.outbox = outbox;
+    }
 
     private RowMapper<Waybill> mapper = new RowMapper<Waybill>() {
         @Override
@@ -66,10 +76,29 @@ public class WaybillRepository {
         }
     }
 
+    /**
+     * Закрывает путевой лист и в той же транзакции публикует WAYBILL_CLOSED.
+     */
+    @Transactional
     public void close(UUID id, Waybill w) {
         try {
-            String sql = "UPDATE waybill SET end_ts=?, odometer_end=?, engine_hours_end=?, fuel_end=?, status='SIGNED' WHERE id=?";
-            jdbc.update(sql, w.getEndTs(), w.getOdometerEnd(), w.getEngineHoursEnd(), w.getFuelEnd(), id);
+            String sql = "UPDATE waybill SET end_ts=?, odometer_end=?, engine_hours_end=?, fuel_end=?, status='SIGNED' WHERE id=? " +
+                         "RETURNING task_id, machine_id, driver_id";
+            List<Map<String, Object>> closed = jdbc.query(sql, (rs, rowNum) -> {
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("waybillId", id);
+                payload.put("taskId", rs.getObject("task_id"));
+                payload.put("machineId", rs.getObject("machine_id"));
+                payload.put("driverId", rs.getObject("driver_id"));
+                payload.put("endTs", w.getEndTs());
+                payload.put("odometerEnd", w.getOdometerEnd());
+                payload.put("engineHoursEnd", w.getEngineHoursEnd());
+                payload.put("fuelEnd", w.getFuelEnd());
+                return payload;
+            }, w.getEndTs(), w.getOdometerEnd(), w.getEngineHoursEnd(), w.getFuelEnd(), id);
+            for (Map<String, Object> payload : closed) {
+                outbox.publish("WAYBILL_CLOSED", "WAYBILL", id, payload);
+            }
             log.debug("Closed waybill: id={}, endTs={}", id, w.getEndTs());
         } catch (Exception e) {
             log.error("Failed to close waybill: id={}", id, e);
@@ -79,7 +108,7 @@ public class WaybillRepository {
 
     public List<Waybill> list(String status) {
         try {
-            String sql = "SELECT *, route::text as route_text FROM waybill " + (status != null ? "WHERE status=?" : "") + " ORDER BY created_at DESC";
+            String sql = listSql(status);
             List<Waybill> waybills = status != null ? jdbc.query(sql, mapper, status) : jdbc.query(sql, mapper);
             log.debug("Found {} waybills: status={}", waybills.size(), status);
             return waybills;
@@ -88,4 +117,21 @@ public class WaybillRepository {
             throw e;
         }
     }
+
+    /**
+     * Построчное чтение путевых листов курсором; должно вызываться внутри транзакции.
+     */
+    public void stream(String status, Consumer<Waybill> sink) {
+        try {
+            Object[] args = status != null ? new Object[]{status} : new Object[0];
+            jdbc.query(NdjsonStreamer.fetching(listSql(status), args), rs -> { sink.accept(mapper.mapRow(rs, rs.getRow())); });
+        } catch (Exception e) {
+            log.error("Failed to stream waybills: status={}", status, e);
+            throw e;
+        }
+    }
+
+    private static String listSql(String status) {
+        return "SELECT *, route::text as route_text FROM waybill " + (status != null ? "WHERE status=?" : "") + " ORDER BY created_at DESC";
+    }
 }
@@ -0,0 +1,16 @@
+package com.agrocrm.errors;
+
+/**
+ * Некорректные параметры запроса. Сообщение уходит клиенту в ответе 400,
+ * поэтому бросать только с текстом, понятным вызывающему API.
+ */
+public class BadRequestException extends IllegalArgumentException {
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+    public BadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
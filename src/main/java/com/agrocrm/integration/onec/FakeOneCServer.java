@@ -0,0 +1,171 @@
+package com.agrocrm.integration.onec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Встроенная заглушка 1С для интеграционных и нагрузочных проверок
+ * ретранслятора outbox на локальной машине. Слушает отдельный порт
+ * (app.onec.fake.port), вне Spring Security:
+ *
+ * POST /events - принимает пачку в формате {@link com.agrocrm.integration.outbox.HttpOutboxTransport}
+ * и подтверждает каждое событие; с вероятностью failureRate событие
+ * отклоняется, latencyMs имитирует время обработки в 1С.
+ * GET /stats - принятые и отклоненные события и скорость приема в
+ * событиях в секунду с первого события после запуска или сброса.
+ * POST /stats/reset - сброс счетчиков перед замером.
+ *
+ * Для замера: app.onec.fake.enabled=true, app.outbox.transport=http,
+ * app.outbox.http.url=http://localhost:18081/events.
+ */
+@Component
+@ConditionalOnProperty(name = "app.onec.fake.enabled", havingValue = "true")
+public class FakeOneCServer {
+    private static final Logger log = LoggerFactory.getLogger(FakeOneCServer.class);
+
+    private final ObjectMapper objectMapper;
+    private final int port;
+    private final long latencyMs;
+    private final double failureRate;
+    private final int threads;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong firstEventNanos = new AtomicLong();
+    private final AtomicLong lastEventNanos = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeOneCServer(ObjectMapper objectMapper,
+                          @Value("${app.onec.fake.port:18081}") int port,
+                          @Value("${app.onec.fake.latencyMs:0}") long latencyMs,
+                          @Value("${app.onec.fake.failureRate:0}") double failureRate,
+                          @Value("${app.onec.fake.threads:16}") int threads) {
+        this.objectMapper = objectMapper;
+        this.port = port;
+        this.latencyMs = latencyMs;
+        this.failureRate = failureRate;
+        this.threads = Math.max(1, threads);
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "fake-1c-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/events", this::handleEvents);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+        log.warn("Fake 1C endpoint started: url=http://localhost:{}/events, latencyMs={}, failureRate={}", port, latencyMs, failureRate);
+    }
+
+    @PreDestroy
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        log.info("Fake 1C endpoint stopped: accepted={}, rejected={}", accepted.get(), rejected.get());
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, objectMapper.createObjectNode().put("error", "Method not allowed"));
+                return;
+            }
+            JsonNode body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = objectMapper.readTree(in);
+            } catch (IOException e) {
+                respond(exchange, 400, objectMapper.createObjectNode().put("error", "Invalid JSON: " + e.getMessage()));
+                return;
+            }
+            requests.incrementAndGet();
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            ObjectNode response = objectMapper.createObjectNode();
+            ArrayNode results = response.putArray("results");
+            for (JsonNode event : body.path("events")) {
+                ObjectNode result = results.addObject();
+                result.put("id", event.path("id").asLong());
+                if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    result.put("status", "ERROR");
+                    result.put("error", "Rejected by fake 1C");
+                    rejected.incrementAndGet();
+                } else {
+                    result.put("status", "OK");
+                    accepted.incrementAndGet();
+                }
+            }
+            long now = System.nanoTime();
+            firstEventNanos.compareAndSet(0, now);
+            lastEventNanos.set(now);
+            respond(exchange, 200, response);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if ("POST".equals(exchange.getRequestMethod()) && exchange.getRequestURI().getPath().endsWith("/reset")) {
+                requests.set(0);
+                accepted.set(0);
+                rejected.set(0);
+                firstEventNanos.set(0);
+                lastEventNanos.set(0);
+            }
+            long events = accepted.get() + rejected.get();
+            long first = firstEventNanos.get();
+            double seconds = first != 0 ? (lastEventNanos.get() - first) / 1e9 : 0;
+            ObjectNode stats = objectMapper.createObjectNode();
+            stats.put("requests", requests.get());
+            stats.put("accepted", accepted.get());
+            stats.put("rejected", rejected.get());
+            stats.put("seconds", Math.round(seconds * 1000) / 1000.0);
+            stats.put("eventsPerSecond", seconds > 0 ? Math.round(events / seconds) : 0);
+            respond(exchange, 200, stats);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
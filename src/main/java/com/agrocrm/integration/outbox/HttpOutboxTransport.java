@@ -0,0 +1,161 @@
+package com.agrocrm.integration.outbox;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Доставка событий POST-запросами с JSON:
+ * {"events": [{"id", "eventType", "aggregateType", "aggregateId", "createdAt", "payload"}]}.
+ * Ответ 2xx должен содержать подтверждение по каждому событию:
+ * {"results": [{"id": 1, "status": "OK"}, {"id": 2, "status": "ERROR", "error": "..."}]}.
+ *
+ * Пачка ретранслятора делится на запросы по chunkSize событий, которые
+ * уходят одновременно по соединениям пула HttpClient (при version: HTTP_2 -
+ * по одному соединению). Число запросов в полете на весь узел ограничено
+ * maxInFlight, поэтому и число соединений к 1С не растет с числом
+ * обработчиков.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.transport", havingValue = "http")
+public class HttpOutboxTransport implements OutboxTransport {
+    private static final Logger log = LoggerFactory.getLogger(HttpOutboxTransport.class);
+
+    private static final int MAX_ERROR_BODY = 500;
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final URI url;
+    private final String authToken;
+    private final int chunkSize;
+    private final Duration requestTimeout;
+    private final Semaphore inFlight;
+
+    public HttpOutboxTransport(ObjectMapper objectMapper,
+                               @Value("${app.outbox.http.url}") String url,
+                               @Value("${app.outbox.http.authToken:}") String authToken,
+                               @Value("${app.outbox.http.version:HTTP_1_1}") HttpClient.Version version,
+                               @Value("${app.outbox.http.chunkSize:50}") int chunkSize,
+                               @Value("${app.outbox.http.maxInFlight:8}") int maxInFlight,
+                               @Value("${app.outbox.http.connectTimeoutMs:5000}") long connectTimeoutMs,
+                               @Value("${app.outbox.http.requestTimeoutMs:10000}") long requestTimeoutMs) {
+        this.objectMapper = objectMapper;
+        this.url = URI.create(url);
+        this.authToken = authToken;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        log.info("HTTP outbox transport: url={}, version={}, chunkSize={}, maxInFlight={}", url, version, chunkSize, maxInFlight);
+    }
+
+    @Override
+    public List<Ack> send(List<OutboxEvent> batch) throws InterruptedException {
+        List<CompletableFuture<List<Ack>>> requests = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i += chunkSize) {
+            List<OutboxEvent> chunk = batch.subList(i, Math.min(batch.size(), i + chunkSize));
+            inFlight.acquire();
+            CompletableFuture<List<Ack>> request;
+            try {
+                request = client.sendAsync(buildRequest(chunk), HttpResponse.BodyHandlers.ofString())
+                                .thenApply(response -> parse(chunk, response))
+                                .exceptionally(e -> failAll(chunk, e.getCause() != null ? e.getCause() : e));
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+            request.whenComplete((acks, e) -> inFlight.release());
+            requests.add(request);
+        }
+        List<Ack> acks = new ArrayList<>(batch.size());
+        for (CompletableFuture<List<Ack>> request : requests) {
+            acks.addAll(request.join());
+        }
+        return acks;
+    }
+
+    private HttpRequest buildRequest(List<OutboxEvent> chunk) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode events = body.putArray("events");
+        for (OutboxEvent e : chunk) {
+            ObjectNode node = events.addObject();
+            node.put("id", e.getId());
+            node.put("eventType", e.getEventType());
+            node.put("aggregateType", e.getAggregateType());
+            node.put("aggregateId", e.getAggregateId());
+            node.put("createdAt", e.getCreatedAt() != null ? e.getCreatedAt().toString() : null);
+            // payload уже хранится как JSON и передается без разбора
+            node.putRawValue("payload", new RawValue(e.getPayload()));
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(url)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json");
+        if (!authToken.isBlank()) {
+            request.header("Authorization", "Bearer " + authToken);
+        }
+        try {
+            return request.POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body))).build();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize outbox events", e);
+        }
+    }
+
+    private List<Ack> parse(List<OutboxEvent> chunk, HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            String body = response.body() != null && response.body().length() > MAX_ERROR_BODY
+                    ? response.body().substring(0, MAX_ERROR_BODY) : response.body();
+            return failAll(chunk, "HTTP " + response.statusCode() + ": " + body);
+        }
+        Map<Long, Ack> byId = new HashMap<>();
+        try {
+            for (JsonNode result : objectMapper.readTree(response.body()).path("results")) {
+                long id = result.path("id").asLong();
+                byId.put(id, "OK".equalsIgnoreCase(result.path("status").asText())
+                        ? Ack.delivered(id)
+                        : Ack.failed(id, result.path("error").asText("Rejected by receiver")));
+            }
+        } catch (Exception e) {
+            return failAll(chunk, "Invalid response: " + e.getMessage());
+        }
+        List<Ack> acks = new ArrayList<>(chunk.size());
+        for (OutboxEvent e : chunk) {
+            acks.add(byId.getOrDefault(e.getId(), Ack.failed(e.getId(), "No acknowledgement in response")));
+        }
+        return acks;
+    }
+
+    private List<Ack> failAll(List<OutboxEvent> chunk, Throwable error) {
+        log.warn("Outbox HTTP request failed: events={}, url={}", chunk.size(), url, error);
+        return failAll(chunk, String.valueOf(error.getMessage() != null ? error.getMessage() : error.toString()));
+    }
+
+    private List<Ack> failAll(List<OutboxEvent> chunk, String error) {
+        List<Ack> acks = new ArrayList<>(chunk.size());
+        for (OutboxEvent e : chunk) {
+            acks.add(Ack.failed(e.getId(), error));
+        }
+        return acks;
+    }
+}
@@ -0,0 +1,29 @@
+package com.agrocrm.integration.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Транспорт по умолчанию: события только пишутся в лог и считаются
+ * доставленными. Для окружений без внешней системы.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.transport", havingValue = "log", matchIfMissing = true)
+public class LoggingOutboxTransport implements OutboxTransport {
+    private static final Logger log = LoggerFactory.getLogger(LoggingOutboxTransport.class);
+
+    @Override
+    public List<Ack> send(List<OutboxEvent> batch) {
+        List<Ack> acks = new ArrayList<>(batch.size());
+        for (OutboxEvent e : batch) {
+            log.debug("Sending outbox {} type={} payload={}", e.getId(), e.getEventType(), e.getPayload());
+            acks.add(Ack.delivered(e.getId()));
+        }
+        return acks;
+    }
+}
@@ -0,0 +1,78 @@
+package com.agrocrm.integration.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/outbox")
+@Tag(name = "Интеграция", description = "API для контроля отправки событий во внешние системы")
+@SecurityRequirement(name = "Bearer Authentication")
+public class OutboxController {
+    private static final Logger log = LoggerFactory.getLogger(OutboxController.class);
+
+    private final OutboxRepository repo;
+    private final OutboxRelay relay;
+
+    public OutboxController(OutboxRepository repo, OutboxRelay relay) {
+        this.repo = repo;
+        this.relay = relay;
+    }
+
+    @GetMapping("/dead")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Неотправленные события",
+        description = "Возвращает страницу событий, исчерпавших попытки отправки, новые первыми, с последней ошибкой"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Список событий получен"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public List<OutboxEvent> dead(
+        @Parameter(description = "Тип события (опционально)") @RequestParam(required = false) String eventType,
+        @Parameter(description = "Создано не раньше (ISO 8601, опционально)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Создано раньше (ISO 8601, опционально)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+        @Parameter(description = "Номер страницы (начиная с 0)", example = "0") @RequestParam(defaultValue = "0") int page,
+        @Parameter(description = "Размер страницы", example = "100") @RequestParam(defaultValue = "100") int size) {
+        if (page < 0) page = 0;
+        if (size < 1 || size > 1000) size = 100;
+        return repo.findDead(eventType, from, to, page, size);
+    }
+
+    @PostMapping("/dead/replay")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "Повторить неотправленные события",
+        description = "Возвращает в очередь события, исчерпавшие попытки: перечисленные в ids, все события типа eventType " +
+                      "или все сразу, если фильтры не заданы; from/to ограничивают время создания. Счетчик попыток обнуляется"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "События возвращены в очередь, в ответе их число"),
+        @ApiResponse(responseCode = "403", description = "Недостаточно прав")
+    })
+    public Map<String, Object> replay(
+        @Parameter(description = "ID событий (опционально)") @RequestParam(required = false) List<Long> ids,
+        @Parameter(description = "Тип события (опционально)") @RequestParam(required = false) String eventType,
+        @Parameter(description = "Создано не раньше (ISO 8601, опционально)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+        @Parameter(description = "Создано раньше (ISO 8601, опционально)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to) {
+        int replayed = repo.replayDead(ids != null && !ids.isEmpty() ? ids.toArray(new Long[0]) : null, eventType, from, to);
+        log.info("Replayed dead outbox events: count={}, eventType={}, from={}, to={}", replayed, eventType, from, to);
+        if (replayed > 0) {
+            relay.wakeUp();
+        }
+        return Map.of("replayed", replayed);
+    }
+}
@@ -0,0 +1,113 @@
+package com.agrocrm.integration.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Запись событий в outbox_event в транзакции изменения данных: событие
+ * уходит во внешние системы тогда и только тогда, когда изменение
+ * закоммичено.
+ *
+ * События транзакции копятся в памяти и вставляются одним оператором перед
+ * коммитом, поэтому пачка импорта топлива дает одну вставку, а не по
+ * строке на транзакцию. Вызывать можно только внутри транзакции.
+ */
+@Component
+public class OutboxPublisher {
+    private static final Logger log = LoggerFactory.getLogger(OutboxPublisher.class);
+
+    private static final String INSERT_SQL = "INSERT INTO outbox_event (event_type, aggregate_type, aggregate_id, payload) " +
+            "SELECT * FROM unnest(?::text[], ?::text[], ?::uuid[], ?::jsonb[])";
+
+    private record Pending(String eventType, String aggregateType, UUID aggregateId, String payload) {}
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+
+    public OutboxPublisher(JdbcTemplate jdbc, ObjectMapper objectMapper) {
+        this.jdbc = jdbc;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Добавляет событие в текущую транзакцию. Payload сериализуется сразу,
+     * чтобы событие отражало состояние на момент вызова.
+     */
+    public void publish(String eventType, String aggregateType, UUID aggregateId, Object payload) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Outbox event " + eventType + " must be published inside a transaction");
+        }
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize outbox event " + eventType, e);
+        }
+        pending().add(new Pending(eventType, aggregateType, aggregateId, json));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Pending> pending() {
+        List<Pending> events = (List<Pending>) TransactionSynchronizationManager.getResource(this);
+        if (events == null) {
+            List<Pending> created = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    insert(created);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(OutboxPublisher.this);
+                }
+            });
+            events = created;
+        }
+        return events;
+    }
+
+    private void insert(List<Pending> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        int size = events.size();
+        String[] types = new String[size];
+        String[] aggregateTypes = new String[size];
+        UUID[] aggregateIds = new UUID[size];
+        String[] payloads = new String[size];
+        for (int i = 0; i < size; i++) {
+            Pending e = events.get(i);
+            types[i] = e.eventType();
+            aggregateTypes[i] = e.aggregateType();
+            aggregateIds[i] = e.aggregateId();
+            payloads[i] = e.payload();
+        }
+        try {
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(INSERT_SQL);
+                ps.setArray(1, con.createArrayOf("text", types));
+                ps.setArray(2, con.createArrayOf("text", aggregateTypes));
+                ps.setArray(3, con.createArrayOf("uuid", aggregateIds));
+                ps.setArray(4, con.createArrayOf("text", payloads));
+                return ps;
+            });
+            log.debug("Published outbox events: count={}", size);
+            events.clear();
+        } catch (Exception e) {
+            log.error("Failed to publish outbox events: count={}", size, e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.agrocrm.integration.outbox;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ретранслятор outbox_event во внешние системы.
+ *
+ * Несколько обработчиков (app.outbox.relay.workers) забирают пачки новых
+ * событий через FOR UPDATE SKIP LOCKED, отправляют их через
+ * {@link OutboxTransport} и одним оператором обновляют статусы;
+ * блокировка держится до конца отправки, поэтому
+ * обработчики этого и других узлов не отправляют одно событие одновременно.
+ * События одного агрегата уходят по одному в порядке создания
+ * (см. {@link OutboxRepository#claimBatch}).
+ *
+ * Неотправленное событие повторяется с задержкой по {@link OutboxRetryPolicy},
+ * после исчерпания попыток переходит в DEAD и ждет ручного повтора.
+ *
+ * Обработчики просыпаются по NOTIFY outbox_event (триггер на вставку),
+ * который слушает отдельное соединение, и к ближайшему next_attempt_at
+ * упавших событий: о повторах уведомлений нет. Опрос раз в pollIntervalMs
+ * остается на случай потерянного уведомления или переподключения.
+ */
+@Component
+public class OutboxRelay {
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final String CHANNEL = "outbox_event";
+
+    private final OutboxRepository repo;
+    private final OutboxRetryPolicy retryPolicy;
+    private final OutboxTransport transport;
+    private final DataSource dataSource;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final int workers;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final int listenTimeoutMs;
+    private final long reconnectDelayMs;
+    private final long shutdownTimeoutMs;
+
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Counter deadCounter;
+
+    // Счетчик пробуждений: обработчик ждет, пока он не изменится, поэтому
+    // уведомление, пришедшее во время обработки пачки, не теряется
+    private final Object signal = new Object();
+    private long wakeups;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    public OutboxRelay(OutboxRepository repo, OutboxRetryPolicy retryPolicy, OutboxTransport transport,
+                       DataSource dataSource, PlatformTransactionManager transactionManager,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.outbox.relay.enabled:true}") boolean enabled,
+                       @Value("${app.outbox.relay.workers:4}") int workers,
+                       @Value("${app.outbox.relay.batchSize:200}") int batchSize,
+                       @Value("${app.outbox.relay.pollIntervalMs:30000}") long pollIntervalMs,
+                       @Value("${app.outbox.relay.listenTimeoutMs:5000}") int listenTimeoutMs,
+                       @Value("${app.outbox.relay.reconnectDelayMs:5000}") long reconnectDelayMs,
+                       @Value("${app.outbox.relay.shutdownTimeoutMs:10000}") long shutdownTimeoutMs) {
+        this.repo = repo;
+        this.retryPolicy = retryPolicy;
+        this.transport = transport;
+        this.dataSource = dataSource;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.workers = Math.max(1, workers);
+        this.batchSize = batchSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.listenTimeoutMs = listenTimeoutMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.sentCounter = Counter.builder("outbox.events.sent").register(meterRegistry);
+        this.failedCounter = Counter.builder("outbox.events.failed").register(meterRegistry);
+        this.deadCounter = Counter.builder("outbox.events.dead").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("Outbox relay is disabled");
+            return;
+        }
+        running = true;
+        for (int i = 1; i <= workers; i++) {
+            threads.add(startThread(this::workerLoop, "outbox-relay-" + i));
+        }
+        threads.add(startThread(this::listenLoop, "outbox-listener"));
+        log.info("Outbox relay started: workers={}, batchSize={}", workers, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        wakeUp();
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        for (Thread t : threads) {
+            t.interrupt();
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Outbox relay stopped");
+    }
+
+    /**
+     * Будит обработчики, не дожидаясь уведомления или опроса.
+     */
+    public void wakeUp() {
+        synchronized (signal) {
+            wakeups++;
+            signal.notifyAll();
+        }
+    }
+
+    private Thread startThread(Runnable loop, String name) {
+        Thread t = new Thread(loop, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private void workerLoop() {
+        while (running) {
+            long seen;
+            synchronized (signal) {
+                seen = wakeups;
+            }
+            int processed;
+            try {
+                processed = relayBatch();
+            } catch (Exception e) {
+                log.error("Failed to relay outbox batch", e);
+                processed = 0;
+            }
+            // После непустой пачки могли освободиться следующие события тех же
+            // агрегатов, уведомления о них не будет - берем следующую сразу
+            if (processed == 0) {
+                awaitWakeUp(seen);
+            }
+        }
+    }
+
+    private void awaitWakeUp(long seen) {
+        long timeout = pollIntervalMs;
+        try {
+            OffsetDateTime nextAttempt = repo.findNextAttemptAt();
+            if (nextAttempt != null) {
+                long untilAttempt = nextAttempt.toInstant().toEpochMilli() - System.currentTimeMillis();
+                timeout = Math.max(1, Math.min(timeout, untilAttempt));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read next outbox attempt time, polling in {} ms", pollIntervalMs, e);
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (signal) {
+            long remaining;
+            while (running && wakeups == seen && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    signal.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Отправляет одну пачку в транзакции, которая держит блокировки строк.
+     * Возвращает размер пачки.
+     */
+    int relayBatch() {
+        Integer processed = tx.execute(status -> {
+            List<OutboxEvent> batch = repo.claimBatch(batchSize);
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            List<Long> sent = new ArrayList<>(batch.size());
+            List<Long> failed = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            List<Long> delays = new ArrayList<>();
+            List<Boolean> dead = new ArrayList<>();
+            int deadCount = 0;
+            OffsetDateTime from = batch.get(0).getCreatedAt();
+            OffsetDateTime to = from;
+            Map<Long, OutboxTransport.Ack> acks = send(batch);
+            for (OutboxEvent e : batch) {
+                if (e.getCreatedAt().isBefore(from)) from = e.getCreatedAt();
+                if (e.getCreatedAt().isAfter(to)) to = e.getCreatedAt();
+                OutboxTransport.Ack ack = acks.get(e.getId());
+                if (ack != null && ack.delivered()) {
+                    sent.add(e.getId());
+                    continue;
+                }
+                String error = ack != null ? ack.error() : "No acknowledgement from transport";
+                int attempts = e.getAttempts() + 1;
+                boolean exhausted = retryPolicy.isExhausted(attempts);
+                if (exhausted) {
+                    deadCount++;
+                    log.error("Outbox event moved to dead letters: id={}, type={}, attempts={}, error={}", e.getId(), e.getEventType(), attempts, error);
+                } else {
+                    log.warn("Failed to deliver outbox event: id={}, type={}, attempts={}, error={}", e.getId(), e.getEventType(), attempts, error);
+                }
+                failed.add(e.getId());
+                errors.add(error);
+                delays.add(exhausted ? 0L : retryPolicy.delayMillis(attempts));
+                dead.add(exhausted);
+            }
+            repo.markSent(sent.toArray(new Long[0]), from, to);
+            repo.markFailed(failed.toArray(new Long[0]), errors.toArray(new String[0]),
+                            delays.toArray(new Long[0]), dead.toArray(new Boolean[0]), from, to);
+            sentCounter.increment(sent.size());
+            failedCounter.increment(failed.size());
+            deadCounter.increment(deadCount);
+            log.debug("Relayed outbox batch: sent={}, failed={}, dead={}", sent.size(), failed.size(), deadCount);
+            return batch.size();
+        });
+        return processed != null ? processed : 0;
+    }
+
+    /**
+     * Отправляет пачку транспортом; если транспорт упал целиком, все события
+     * пачки получают его ошибку.
+     */
+    private Map<Long, OutboxTransport.Ack> send(List<OutboxEvent> batch) {
+        Map<Long, OutboxTransport.Ack> acks = new HashMap<>();
+        try {
+            for (OutboxTransport.Ack ack : transport.send(batch)) {
+                acks.put(ack.eventId(), ack);
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Outbox transport failed: events={}", batch.size(), e);
+            String error = String.valueOf(e.getMessage() != null ? e.getMessage() : e.toString());
+            acks.clear();
+            for (OutboxEvent event : batch) {
+                acks.put(event.getId(), OutboxTransport.Ack.failed(event.getId(), error));
+            }
+        }
+        return acks;
+    }
+
+    /**
+     * Слушает канал outbox_event на отдельном соединении из пула и будит
+     * обработчики при каждом уведомлении. После (пере)подключения будит их
+     * сразу: события, вставленные без слушателя, тоже должны уйти.
+     */
+    private void listenLoop() {
+        while (running) {
+            try (Connection con = dataSource.getConnection()) {
+                con.setAutoCommit(true);
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pg = con.unwrap(PGConnection.class);
+                log.info("Listening for outbox notifications: channel={}", CHANNEL);
+                wakeUp();
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(listenTimeoutMs);
+                    if (notifications != null && notifications.length > 0) {
+                        wakeUp();
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Outbox notification listener failed, reconnecting in {} ms", reconnectDelayMs, e);
+                try {
+                    Thread.sleep(reconnectDelayMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -3,43 +3,196 @@ package com.agrocrm.integration.outbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @Repository
 public class OutboxRepository {
     private static final Logger log = LoggerFactory.getLogger(OutboxRepository.class);
-    
+
+    private static final String COLUMNS = "id, event_type, aggregate_type, aggregate_id, payload::text AS payload, status, " +
+                                          "created_at, last_error, attempts, next_attempt_at";
+
+    private static final RowMapper<OutboxEvent> EVENT_MAPPER = (rs, rowNum) -> {
+        OutboxEvent e = new OutboxEvent();
+        e.setId(rs.getLong("id"));
+        e.setEventType(rs.getString("event_type"));
+        e.setAggregateType(rs.getString("aggregate_type"));
+        e.setAggregateId(rs.getString("aggregate_id"));
+        e.setPayload(rs.getString("payload"));
+        e.setStatus(rs.getString("status"));
+        e.setCreatedAt(rs.getObject("created_at", OffsetDateTime.class));
+        e.setLastError(rs.getString("last_error"));
+        e.setAttempts(rs.getInt("attempts"));
+        e.setNextAttemptAt(rs.getObject("next_attempt_at", OffsetDateTime.class));
+        return e;
+    };
+
     private final JdbcTemplate jdbc;
 
     public OutboxRepository(JdbcTemplate jdbc) { this.jdbc = jdbc; }
 
-    public List<Map<String, Object>> pullBatch(int size) {
+    /**
+     * Забирает пачку событий, которым пора отправляться (новых и упавших с
+     * наступившим next_attempt_at), и блокирует их до конца транзакции.
+     * Строки, заблокированные другими обработчиками или узлами, пропускаются,
+     * поэтому одно событие не отправляется дважды одновременно.
+     *
+     * Из событий одного агрегата берется только самое старое ожидающее:
+     * следующее уходит после того, как предыдущее отправлено или перешло в
+     * DEAD, даже если его забрал другой обработчик или оно ждет повтора.
+     * Так получатель видит события агрегата в порядке создания. Читает
+     * частичные индексы idx_outbox_pending и idx_outbox_pending_aggregate.
+     * Должно вызываться внутри транзакции.
+     */
+    public List<OutboxEvent> claimBatch(int size) {
+        try {
+            String sql = "SELECT " + COLUMNS + " FROM outbox_event o " +
+                         "WHERE status IN ('NEW','FAILED') AND next_attempt_at <= now() " +
+                         "AND (aggregate_id IS NULL OR NOT EXISTS (SELECT 1 FROM outbox_event p " +
+                         "  WHERE p.aggregate_id = o.aggregate_id AND p.status IN ('NEW','FAILED') AND p.id < o.id)) " +
+                         "ORDER BY next_attempt_at, id LIMIT ? FOR UPDATE SKIP LOCKED";
+            return jdbc.query(sql, EVENT_MAPPER, size);
+        } catch (Exception e) {
+            log.error("Failed to claim outbox batch: size={}", size, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Ближайшее будущее next_attempt_at ожидающих событий или null; по нему
+     * обработчик решает, когда проснуться для повтора. Читает индекс
+     * idx_outbox_pending.
+     */
+    public OffsetDateTime findNextAttemptAt() {
+        return jdbc.queryForObject("SELECT MIN(next_attempt_at) FROM outbox_event " +
+                                   "WHERE status IN ('NEW','FAILED') AND next_attempt_at > now()", OffsetDateTime.class);
+    }
+
+    /**
+     * Отмечает события отправленными. [from, to] - диапазон created_at
+     * пачки: по нему отсекаются месячные секции outbox_event, иначе поиск
+     * по id идет по индексам всех секций.
+     */
+    public void markSent(Long[] ids, OffsetDateTime from, OffsetDateTime to) {
+        if (ids.length == 0) {
+            return;
+        }
         try {
-            String sql = "SELECT id, event_type, aggregate_type, aggregate_id, payload FROM outbox_event WHERE status = 'NEW' ORDER BY id ASC LIMIT ?";
-            return jdbc.queryForList(sql, size);
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "UPDATE outbox_event SET status = 'SENT' WHERE id = ANY(?) AND created_at BETWEEN ? AND ?");
+                ps.setArray(1, con.createArrayOf("bigint", ids));
+                ps.setObject(2, from);
+                ps.setObject(3, to);
+                return ps;
+            });
         } catch (Exception e) {
-            log.error("Failed to pull outbox batch: size={}", size, e);
+            log.error("Failed to mark outbox events as sent: count={}", ids.length, e);
             throw e;
         }
     }
 
-    public void markSent(long id) {
+    /**
+     * Записывает неудачные попытки одним оператором: errors[i] - ошибка
+     * события ids[i], delaysMillis[i] - задержка до следующей попытки,
+     * dead[i] - попытки исчерпаны, событие переходит в DEAD. [from, to] -
+     * диапазон created_at пачки, как в {@link #markSent}.
+     */
+    public void markFailed(Long[] ids, String[] errors, Long[] delaysMillis, Boolean[] dead,
+                           OffsetDateTime from, OffsetDateTime to) {
+        if (ids.length == 0) {
+            return;
+        }
+        try {
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "UPDATE outbox_event o SET status = CASE WHEN f.dead THEN 'DEAD' ELSE 'FAILED' END, " +
+                        "attempts = o.attempts + 1, last_error = f.error, " +
+                        "next_attempt_at = now() + f.delay_ms * interval '1 millisecond' " +
+                        "FROM unnest(?::bigint[], ?::text[], ?::bigint[], ?::boolean[]) AS f(id, error, delay_ms, dead) " +
+                        "WHERE o.id = f.id AND o.created_at BETWEEN ? AND ?");
+                ps.setArray(1, con.createArrayOf("bigint", ids));
+                ps.setArray(2, con.createArrayOf("text", errors));
+                ps.setArray(3, con.createArrayOf("bigint", delaysMillis));
+                ps.setArray(4, con.createArrayOf("boolean", dead));
+                ps.setObject(5, from);
+                ps.setObject(6, to);
+                return ps;
+            });
+        } catch (Exception e) {
+            log.error("Failed to mark outbox events as failed: count={}", ids.length, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Страница событий с исчерпанными попытками, новые первыми. from/to
+     * (опционально) ограничивают created_at и отсекают лишние секции.
+     */
+    public List<OutboxEvent> findDead(String eventType, OffsetDateTime from, OffsetDateTime to, int page, int size) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM outbox_event WHERE status = 'DEAD'");
+        if (eventType != null) {
+            sql.append(" AND event_type = ?");
+            params.add(eventType);
+        }
+        if (from != null) {
+            sql.append(" AND created_at >= ?");
+            params.add(from);
+        }
+        if (to != null) {
+            sql.append(" AND created_at < ?");
+            params.add(to);
+        }
+        sql.append(" ORDER BY id DESC LIMIT ? OFFSET ?");
+        params.add(size);
+        params.add((long) page * size);
         try {
-            jdbc.update("UPDATE outbox_event SET status='SENT' WHERE id=?", id);
+            return jdbc.query(sql.toString(), EVENT_MAPPER, params.toArray());
         } catch (Exception e) {
-            log.error("Failed to mark outbox event as sent: id={}", id, e);
+            log.error("Failed to load dead outbox events: eventType={}, from={}, to={}, page={}, size={}", eventType, from, to, page, size, e);
             throw e;
         }
     }
 
-    public void markFailed(long id, String error) {
+    /**
+     * Возвращает события из DEAD в очередь с обнуленным счетчиком попыток:
+     * перечисленные ids, все события типа eventType или все, если фильтры
+     * пусты; from/to ограничивают created_at. Возвращает число событий.
+     */
+    public int replayDead(Long[] ids, String eventType, OffsetDateTime from, OffsetDateTime to) {
+        String sql = "UPDATE outbox_event SET status = 'NEW', attempts = 0, next_attempt_at = now() WHERE status = 'DEAD'" +
+                     (ids != null ? " AND id = ANY(?)" : "") +
+                     (eventType != null ? " AND event_type = ?" : "") +
+                     (from != null ? " AND created_at >= ?" : "") +
+                     (to != null ? " AND created_at < ?" : "");
         try {
-            jdbc.update("UPDATE outbox_event SET status='FAILED', last_error=? WHERE id=?", error, id);
+            return jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                int i = 1;
+                if (ids != null) {
+                    ps.setArray(i++, con.createArrayOf("bigint", ids));
+                }
+                if (eventType != null) {
+                    ps.setString(i++, eventType);
+                }
+                if (from != null) {
+                    ps.setObject(i++, from);
+                }
+                if (to != null) {
+                    ps.setObject(i, to);
+                }
+                return ps;
+            });
         } catch (Exception e) {
-            log.error("Failed to mark outbox event as failed: id={}, error={}", id, error, e);
+            log.error("Failed to replay dead outbox events: ids={}, eventType={}, from={}, to={}",
+                      ids != null ? ids.length : null, eventType, from, to, e);
             throw e;
         }
     }
@@ -0,0 +1,44 @@
+package com.agrocrm.integration.outbox;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Экспоненциальная задержка между попытками отправки события со случайным
+ * разбросом: после n-й неудачи ждем от половины до полного
+ * min(maxDelayMs, baseDelayMs * 2^(n-1)), чтобы события, упавшие вместе
+ * (например, при недоступности 1С), не повторялись одновременно.
+ */
+@Component
+public class OutboxRetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public OutboxRetryPolicy(@Value("${app.outbox.retry.maxAttempts:10}") int maxAttempts,
+                             @Value("${app.outbox.retry.baseDelayMs:5000}") long baseDelayMs,
+                             @Value("${app.outbox.retry.maxDelayMs:3600000}") long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Попытки исчерпаны, если событие упало attempts раз.
+     */
+    public boolean isExhausted(int attempts) {
+        return attempts >= maxAttempts;
+    }
+
+    /**
+     * Задержка перед следующей попыткой после attempts неудач (attempts >= 1).
+     */
+    public long delayMillis(int attempts) {
+        int shift = Math.min(Math.max(0, attempts - 1), 30);
+        long delay = Math.min(maxDelayMs, baseDelayMs << shift);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
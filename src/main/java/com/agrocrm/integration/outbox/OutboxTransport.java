@@ -0,0 +1,22 @@
+package com.agrocrm.integration.outbox;
+
+import java.util.List;
+
+/**
+ * Доставка событий outbox во внешнюю систему. Реализация выбирается
+ * параметром app.outbox.transport.
+ *
+ * Пачка отправляется целиком, а результат возвращается по каждому событию:
+ * событие без подтверждения считается неотправленным и повторяется. Если
+ * метод бросает исключение, неотправленной считается вся пачка.
+ */
+public interface OutboxTransport {
+
+    /** Результат доставки одного события; error - null, если событие принято */
+    record Ack(long eventId, boolean delivered, String error) {
+        public static Ack delivered(long eventId) { return new Ack(eventId, true, null); }
+        public static Ack failed(long eventId, String error) { return new Ack(eventId, false, error); }
+    }
+
+    List<Ack> send(List<OutboxEvent> batch) throws Exception;
+}
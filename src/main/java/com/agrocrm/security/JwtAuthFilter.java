@@ -2,7 +2,6 @@ package com.agrocrm.security;
 
 import com.agrocrm.domain.session.SessionService;
 import com.agrocrm.domain.session.UserSession;
-import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -39,37 +38,25 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         if (auth != null && auth.startsWith("Bearer ")) {
             String token = auth.substring(7);
             try {
-                // Проверяем, что это access токен
-                if (!jwtService.isAccessToken(token)) {
-                    log.debug("Token is not an access token");
+                // Проверяем подпись, срок действия и тип токена за один разбор
+                VerifiedToken verified = jwtService.verifyAccessToken(token);
+                if (verified == null) {
+                    log.debug("Token is not a valid access token");
                     filterChain.doFilter(request, response);
                     return;
                 }
-                
-                // Проверяем JWT токен
-                Claims claims = jwtService.parse(token);
-                String username = claims.getSubject();
-                
-                // Поддержка как старого формата (одна роль), так и нового (множественные роли)
-                List<String> roles;
-                if (claims.get("roles") != null) {
-                    // Новый формат: массив ролей
-                    @SuppressWarnings("unchecked")
-                    List<String> rolesList = claims.get("roles", List.class);
-                    roles = rolesList;
-                } else if (claims.get("role") != null) {
-                    // Старый формат: одна роль
-                    String role = claims.get("role", String.class);
-                    roles = List.of(role);
-                } else {
+
+                String username = verified.getSubject();
+                List<String> roles = verified.getRoles();
+                if (roles.isEmpty()) {
                     log.debug("No roles found in JWT token");
                     filterChain.doFilter(request, response);
                     return;
                 }
                 
-                if (username != null && !roles.isEmpty()) {
+                if (username != null) {
                     // Получаем ID сессии из JWT
-                    String sessionId = claims.get("sessionId", String.class);
+                    String sessionId = verified.getSessionId();
                     if (sessionId != null) {
                         // Проверяем сессию в базе данных
                         UserSession session = sessionService.validateSessionById(sessionId);
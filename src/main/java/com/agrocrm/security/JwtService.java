@@ -1,30 +1,105 @@
 package com.agrocrm.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Service
 public class JwtService {
+    private static final Logger log = LoggerFactory.getLogger(JwtService.class);
+
     @Value("${app.jwt.secret}")
     private String secret;
 
+    @Value("${app.jwt.keyId:primary}")
+    private String keyId;
+
+    // Предыдущие ключи, которыми ещё могут быть подписаны живые токены: "kid1:secret1,kid2:secret2"
+    @Value("${app.jwt.previousKeys:}")
+    private String previousKeys;
+
+    // Ключ для токенов без заголовка kid (выпущенных до появления ротации), по умолчанию - активный
+    @Value("${app.jwt.legacyKeyId:}")
+    private String legacyKeyId;
+
     @Value("${app.jwt.accessTokenExpirationMinutes:30}")
     private long accessTokenExpirationMinutes;
 
     @Value("${app.jwt.refreshTokenExpirationDays:30}")
     private long refreshTokenExpirationDays;
 
-    private Key getSigningKey() {
+    /**
+     * Неизменяемый набор ключей. Ротация - через конфигурацию: новый ключ
+     * становится app.jwt.keyId, прежний переезжает в app.jwt.previousKeys.
+     */
+    private record Keyring(String activeKeyId, Key activeKey, Map<String, Key> keys) {}
+
+    private Keyring keyring;
+
+    // JwtParser неизменяем и потокобезопасен: строим его один раз,
+    // а ключ по kid выбирается из текущего keyring при каждой проверке
+    private JwtParser parser;
+
+    @PostConstruct
+    void init() {
+        Key key = deriveKey(secret);
+        Map<String, Key> keys = new LinkedHashMap<>();
+        keys.put(keyId, key);
+        for (String entry : previousKeys.split(",")) {
+            int sep = entry.indexOf(':');
+            if (sep > 0) {
+                keys.putIfAbsent(entry.substring(0, sep).trim(), deriveKey(entry.substring(sep + 1).trim()));
+            }
+        }
+        if (legacyKeyId.isBlank()) {
+            legacyKeyId = keyId;
+        }
+        // Ключ токенов без kid не может выпасть из набора, иначе живые токены перестанут проходить проверку
+        if (!keys.containsKey(legacyKeyId)) {
+            throw new IllegalStateException("Legacy JWT key is not configured: legacyKeyId=" + legacyKeyId);
+        }
+        this.keyring = new Keyring(keyId, key, Collections.unmodifiableMap(keys));
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    // jjwt 0.11 объявляет параметр сырым типом JwsHeader, JwsHeader<?> не переопределяет метод
+                    @Override
+                    @SuppressWarnings("rawtypes")
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        return resolveKey(header.getKeyId());
+                    }
+                })
+                .build();
+        log.info("JWT signing keys initialized: activeKeyId={}, legacyKeyId={}, keyringSize={}", keyId, legacyKeyId, keys.size());
+    }
+
+    private Key resolveKey(String kid) {
+        Keyring current = this.keyring;
+        Key key = current.keys().get(kid != null ? kid : legacyKeyId);
+        if (key == null) {
+            throw new SignatureException("Unknown JWT signing key: kid=" + kid);
+        }
+        return key;
+    }
+
+    private static Key deriveKey(String secret) {
         // Убеждаемся, что ключ достаточно длинный для HS512 (минимум 512 бит = 64 байта)
         byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
         if (keyBytes.length < 64) {
@@ -36,74 +111,71 @@ public class JwtService {
         return Keys.hmacShaKeyFor(keyBytes);
     }
 
-    public String generateAccessToken(String username, String role, String sessionId) {
-        Instant now = Instant.now();
-        Instant exp = now.plusSeconds(accessTokenExpirationMinutes * 60);
+    private String sign(String username, Map<String, Object> claims, Instant now, Instant exp) {
+        Keyring current = this.keyring;
         return Jwts.builder()
+                .setHeaderParam(JwsHeader.KEY_ID, current.activeKeyId())
                 .setSubject(username)
-                .addClaims(Map.of("role", role, "sessionId", sessionId, "type", "access"))
+                .addClaims(claims)
                 .setIssuedAt(Date.from(now))
                 .setExpiration(Date.from(exp))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
+                .signWith(current.activeKey(), SignatureAlgorithm.HS512)
                 .compact();
     }
 
+    public String generateAccessToken(String username, String role, String sessionId) {
+        Instant now = Instant.now();
+        Instant exp = now.plusSeconds(accessTokenExpirationMinutes * 60);
+        return sign(username, Map.of("role", role, "sessionId", sessionId, "type", VerifiedToken.TYPE_ACCESS), now, exp);
+    }
+
     public String generateAccessToken(String username, java.util.List<String> roles, String sessionId) {
         Instant now = Instant.now();
         Instant exp = now.plusSeconds(accessTokenExpirationMinutes * 60);
-        return Jwts.builder()
-                .setSubject(username)
-                .addClaims(Map.of("roles", roles, "sessionId", sessionId, "type", "access"))
-                .setIssuedAt(Date.from(now))
-                .setExpiration(Date.from(exp))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
-                .compact();
+        return sign(username, Map.of("roles", roles, "sessionId", sessionId, "type", VerifiedToken.TYPE_ACCESS), now, exp);
     }
 
     public String generateRefreshToken(String username, String sessionId) {
         Instant now = Instant.now();
         Instant exp = now.plusSeconds(refreshTokenExpirationDays * 24 * 60 * 60);
-        return Jwts.builder()
-                .setSubject(username)
-                .addClaims(Map.of("sessionId", sessionId, "type", "refresh"))
-                .setIssuedAt(Date.from(now))
-                .setExpiration(Date.from(exp))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
-                .compact();
+        return sign(username, Map.of("sessionId", sessionId, "type", VerifiedToken.TYPE_REFRESH), now, exp);
     }
 
     public Claims parse(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
 
-    public boolean isTokenExpired(String token) {
-        try {
-            Claims claims = parse(token);
-            return claims.getExpiration().before(new Date());
-        } catch (Exception e) {
-            return true;
-        }
+    /**
+     * Проверяет подпись и срок действия за один разбор токена.
+     * Бросает {@link io.jsonwebtoken.JwtException}, если токен недействителен.
+     */
+    public VerifiedToken verify(String token) {
+        return VerifiedToken.fromClaims(parse(token));
     }
 
-    public boolean isRefreshToken(String token) {
+    /**
+     * Возвращает проверенный access токен или null, если токен недействителен
+     * либо имеет другой тип.
+     */
+    public VerifiedToken verifyAccessToken(String token) {
         try {
-            Claims claims = parse(token);
-            return "refresh".equals(claims.get("type"));
+            VerifiedToken verified = verify(token);
+            return verified.isAccessToken() ? verified : null;
         } catch (Exception e) {
-            return false;
+            return null;
         }
     }
 
-    public boolean isAccessToken(String token) {
+    /**
+     * Возвращает проверенный refresh токен или null, если токен недействителен
+     * либо имеет другой тип.
+     */
+    public VerifiedToken verifyRefreshToken(String token) {
         try {
-            Claims claims = parse(token);
-            return "access".equals(claims.get("type"));
+            VerifiedToken verified = verify(token);
+            return verified.isRefreshToken() ? verified : null;
         } catch (Exception e) {
-            return false;
+            return null;
         }
     }
 }
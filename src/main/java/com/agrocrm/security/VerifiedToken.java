@@ -0,0 +1,58 @@
+package com.agrocrm.security;
+
+import io.jsonwebtoken.Claims;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Представление JWT токена, подпись и срок действия которого уже проверены.
+ * Создается только через {@link JwtService#verify(String)}.
+ */
+public final class VerifiedToken {
+    public static final String TYPE_ACCESS = "access";
+    public static final String TYPE_REFRESH = "refresh";
+
+    private final String subject;
+    private final List<String> roles;
+    private final String sessionId;
+    private final String type;
+    private final Instant expiresAt;
+
+    VerifiedToken(String subject, List<String> roles, String sessionId, String type, Instant expiresAt) {
+        this.subject = subject;
+        this.roles = roles;
+        this.sessionId = sessionId;
+        this.type = type;
+        this.expiresAt = expiresAt;
+    }
+
+    static VerifiedToken fromClaims(Claims claims) {
+        // Поддержка как старого формата (одна роль), так и нового (множественные роли)
+        List<String> roles;
+        Object rolesClaim = claims.get("roles");
+        if (rolesClaim instanceof List<?> list) {
+            roles = list.stream().map(String::valueOf).toList();
+        } else if (claims.get("role") != null) {
+            roles = List.of(claims.get("role", String.class));
+        } else {
+            roles = List.of();
+        }
+        return new VerifiedToken(
+                claims.getSubject(),
+                roles,
+                claims.get("sessionId", String.class),
+                claims.get("type", String.class),
+                claims.getExpiration() != null ? claims.getExpiration().toInstant() : null
+        );
+    }
+
+    public String getSubject() { return subject; }
+    public List<String> getRoles() { return roles; }
+    public String getSessionId() { return sessionId; }
+    public String getType() { return type; }
+    public Instant getExpiresAt() { return expiresAt; }
+
+    public boolean isAccessToken() { return TYPE_ACCESS.equals(type); }
+    public boolean isRefreshToken() { return TYPE_REFRESH.equals(type); }
+}
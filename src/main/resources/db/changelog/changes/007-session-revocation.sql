@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset agrocrm:049-add-session-revocation-table
+-- Журнал отзыва сессий: каждый узел приложения опрашивает его и вычищает
+-- отозванные сессии из локального кэша
+CREATE TABLE IF NOT EXISTS session_revocation (
+  id BIGSERIAL PRIMARY KEY,
+  session_id UUID,
+  user_id UUID,
+  reason TEXT NOT NULL,
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  CHECK (session_id IS NOT NULL OR user_id IS NOT NULL)
+);
+
+-- Индекс для очистки старых записей
+CREATE INDEX IF NOT EXISTS idx_session_revocation_created_at ON session_revocation(created_at);
@@ -0,0 +1,5 @@
+--liquibase formatted sql
+
+--changeset agrocrm:050-add-field-name-id-index
+-- Индекс для курсорной пагинации полей по (name, id)
+CREATE INDEX IF NOT EXISTS idx_field_name_id ON field(name, id);
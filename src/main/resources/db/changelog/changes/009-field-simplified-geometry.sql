@@ -0,0 +1,6 @@
+--liquibase formatted sql
+
+--changeset agrocrm:051-add-field-geojson-simplified
+-- Упрощенная геометрия для обзорных карт, считается приложением при записи поля.
+-- Для существующих строк пуста: чтение подставляет исходный geojson
+ALTER TABLE field ADD COLUMN IF NOT EXISTS geojson_simplified JSONB;
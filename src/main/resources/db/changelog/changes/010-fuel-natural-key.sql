@@ -0,0 +1,13 @@
+--liquibase formatted sql
+
+--changeset agrocrm:052-fuel-transaction-natural-key
+-- Повторная выгрузка процессингового центра не должна создавать дубли:
+-- естественный ключ транзакции (карта, время, литры). Сначала убираем
+-- уже накопленные дубли, оставляя одну строку из группы
+DELETE FROM fuel_transaction a
+ USING fuel_transaction b
+ WHERE a.card_number = b.card_number
+   AND a.ts = b.ts
+   AND a.liters = b.liters
+   AND a.ctid > b.ctid;
+CREATE UNIQUE INDEX IF NOT EXISTS uq_fuel_card_ts_liters ON fuel_transaction(card_number, ts, liters);
@@ -0,0 +1,22 @@
+--liquibase formatted sql
+
+--changeset agrocrm:053-add-fuel-import-job-table
+-- Задания импорта выписок процессингового центра. Прогресс обновляется
+-- после каждой пачки, поэтому статус можно опрашивать с любого узла
+CREATE TABLE IF NOT EXISTS fuel_import_job (
+  id UUID PRIMARY KEY,
+  status TEXT NOT NULL CHECK (status IN ('QUEUED','RUNNING','DONE','FAILED')),
+  file_name TEXT,
+  file_size BIGINT,
+  strategy TEXT NOT NULL,
+  rows_read BIGINT NOT NULL DEFAULT 0,
+  accepted BIGINT NOT NULL DEFAULT 0,
+  duplicates BIGINT NOT NULL DEFAULT 0,
+  rejected BIGINT NOT NULL DEFAULT 0,
+  rejected_rows JSONB,
+  error TEXT,
+  created_by UUID REFERENCES app_user(id),
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at TIMESTAMPTZ
+);
@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset agrocrm:054-add-fuel-transaction-night-flag
+-- Ночная заправка определяется при приеме транзакции по локальному времени
+-- хозяйства (app.farm.timezone) и хранится флагом, чтобы отчет не считал
+-- EXTRACT(HOUR ...) по всей таблице
+ALTER TABLE fuel_transaction ADD COLUMN IF NOT EXISTS is_night BOOLEAN NOT NULL DEFAULT false;
+
+--changeset agrocrm:055-backfill-fuel-transaction-night-flag
+-- Для уже загруженных транзакций берется часовой пояс по умолчанию и окно 22:00-06:00
+UPDATE fuel_transaction
+   SET is_night = true
+ WHERE EXTRACT(HOUR FROM ts AT TIME ZONE 'Europe/Moscow') >= 22
+    OR EXTRACT(HOUR FROM ts AT TIME ZONE 'Europe/Moscow') < 6;
+
+--changeset agrocrm:056-add-fuel-transaction-night-index
+-- Частичный индекс: в нем только ночные заправки, выборка за период читает диапазон
+CREATE INDEX IF NOT EXISTS idx_fuel_night_ts ON fuel_transaction(ts DESC, id DESC) WHERE is_night;
@@ -0,0 +1,12 @@
+--liquibase formatted sql
+
+--changeset agrocrm:057-add-fuel-transaction-match-checked
+-- Признак того, что транзакция уже прошла сопоставление с задачами.
+-- Существующие строки будут сопоставлены при первом запуске
+ALTER TABLE fuel_transaction ADD COLUMN IF NOT EXISTS match_checked BOOLEAN NOT NULL DEFAULT false;
+
+--changeset agrocrm:058-add-fuel-task-matching-indexes
+-- Очередь на сопоставление: только непроверенные строки
+CREATE INDEX IF NOT EXISTS idx_fuel_match_pending ON fuel_transaction(ts) WHERE NOT match_checked;
+-- Окна задач по технике
+CREATE INDEX IF NOT EXISTS idx_task_machine_actual_start ON task(assigned_machine, actual_start) WHERE actual_start IS NOT NULL;
@@ -0,0 +1,25 @@
+--liquibase formatted sql
+
+--changeset agrocrm:059-create-fuel-consumption-score-table
+-- Оценка расхода топлива по задаче: залитые литры против нормы машины
+-- по моточасам путевых листов или по площади поля
+CREATE TABLE IF NOT EXISTS fuel_consumption_score (
+  task_id UUID PRIMARY KEY REFERENCES task(id) ON DELETE CASCADE,
+  machine_id UUID NOT NULL REFERENCES machine(id),
+  actual_liters NUMERIC(12,2) NOT NULL,
+  expected_liters NUMERIC(12,2),
+  basis TEXT CHECK (basis IN ('ENGINE_HOURS','AREA')),
+  ratio NUMERIC(8,3),
+  flagged BOOLEAN NOT NULL DEFAULT false,
+  period_ts TIMESTAMPTZ NOT NULL,
+  scored_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+-- Отчет по перерасходу читает только помеченные строки
+CREATE INDEX IF NOT EXISTS idx_fuel_score_flagged ON fuel_consumption_score(period_ts DESC, task_id) WHERE flagged;
+
+--changeset agrocrm:060-add-fuel-consumption-indexes
+-- Литры и моточасы по задаче
+CREATE INDEX IF NOT EXISTS idx_fuel_matched_task ON fuel_transaction(matched_task) WHERE matched_task IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_waybill_task ON waybill(task_id) WHERE task_id IS NOT NULL;
+-- Периодический пересчет недавних задач с техникой
+CREATE INDEX IF NOT EXISTS idx_task_actual_start ON task(actual_start) WHERE assigned_machine IS NOT NULL;
@@ -0,0 +1,25 @@
+--liquibase formatted sql
+
+--changeset agrocrm:061-create-field-cost-table
+-- Накопленные затраты по полю: материалы по выдачам и топливо по
+-- сопоставленным с задачами транзакциям. Сезон и площадь берутся из field
+CREATE TABLE IF NOT EXISTS field_cost (
+  field_id UUID PRIMARY KEY REFERENCES field(id) ON DELETE CASCADE,
+  material_cost NUMERIC(14,2) NOT NULL DEFAULT 0,
+  fuel_cost NUMERIC(14,2) NOT NULL DEFAULT 0,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+-- Пересборка по выдачам материалов
+CREATE INDEX IF NOT EXISTS idx_material_issue_task ON material_issue(task_id) WHERE task_id IS NOT NULL;
+
+--changeset agrocrm:062-backfill-field-cost
+INSERT INTO field_cost (field_id, material_cost, fuel_cost)
+SELECT f.id, COALESCE(mat.cost, 0), COALESCE(fu.cost, 0)
+FROM field f
+LEFT JOIN (SELECT t.field_id, SUM(mi.qty * mb.unit_price) AS cost
+           FROM material_issue mi JOIN task t ON t.id = mi.task_id JOIN material_batch mb ON mb.id = mi.material_batch_id
+           GROUP BY t.field_id) mat ON mat.field_id = f.id
+LEFT JOIN (SELECT t.field_id, SUM(ft.amount) AS cost
+           FROM fuel_transaction ft JOIN task t ON t.id = ft.matched_task
+           GROUP BY t.field_id) fu ON fu.field_id = f.id
+ON CONFLICT (field_id) DO NOTHING;
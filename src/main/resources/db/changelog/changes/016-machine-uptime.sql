@@ -0,0 +1,37 @@
+--liquibase formatted sql
+
+--changeset agrocrm:063-add-maintenance-order-machine-status-index
+CREATE INDEX IF NOT EXISTS idx_maintenance_order_machine_status ON maintenance_order(machine_id, status);
+
+--changeset agrocrm:064-create-machine-uptime-tables
+-- Счетчики по машине, ведутся при смене статуса заявок на ТО:
+-- открытые заявки (PLANNED, IN_PROGRESS), заявки в работе и накопленный простой
+CREATE TABLE IF NOT EXISTS machine_uptime (
+  machine_id UUID PRIMARY KEY REFERENCES machine(id) ON DELETE CASCADE,
+  open_orders INT NOT NULL DEFAULT 0,
+  in_progress_orders INT NOT NULL DEFAULT 0,
+  downtime_hours NUMERIC(12,2) NOT NULL DEFAULT 0,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+-- Интервалы простоя: машина простаивает, пока у нее есть заявка в работе.
+-- Незакрытый интервал имеет ended_at = NULL
+CREATE TABLE IF NOT EXISTS machine_downtime (
+  id BIGSERIAL PRIMARY KEY,
+  machine_id UUID NOT NULL REFERENCES machine(id) ON DELETE CASCADE,
+  started_at TIMESTAMPTZ NOT NULL,
+  ended_at TIMESTAMPTZ
+);
+CREATE INDEX IF NOT EXISTS idx_machine_downtime_started ON machine_downtime(started_at);
+CREATE INDEX IF NOT EXISTS idx_machine_downtime_machine_started ON machine_downtime(machine_id, started_at);
+CREATE UNIQUE INDEX IF NOT EXISTS uq_machine_downtime_open ON machine_downtime(machine_id) WHERE ended_at IS NULL;
+
+--changeset agrocrm:065-backfill-machine-uptime
+-- Время начала текущих ремонтов неизвестно, простой считается с момента миграции
+INSERT INTO machine_uptime (machine_id, open_orders, in_progress_orders)
+SELECT machine_id,
+       COUNT(*) FILTER (WHERE status IN ('PLANNED','IN_PROGRESS')),
+       COUNT(*) FILTER (WHERE status = 'IN_PROGRESS')
+FROM maintenance_order GROUP BY machine_id
+ON CONFLICT (machine_id) DO NOTHING;
+INSERT INTO machine_downtime (machine_id, started_at)
+SELECT machine_id, now() FROM machine_uptime WHERE in_progress_orders > 0;
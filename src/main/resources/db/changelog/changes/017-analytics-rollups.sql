@@ -0,0 +1,46 @@
+--liquibase formatted sql
+
+--changeset agrocrm:066-create-fuel-rollup-table
+-- Агрегаты топливных транзакций по часам, дням и месяцам (дни и месяцы по
+-- времени хозяйства). Поле, машина и сезон берутся из сопоставленной задачи,
+-- для несопоставленных транзакций машина ищется по госномеру
+CREATE TABLE IF NOT EXISTS fuel_rollup (
+  grain TEXT NOT NULL CHECK (grain IN ('HOUR','DAY','MONTH')),
+  bucket_start TIMESTAMPTZ NOT NULL,
+  field_id UUID,
+  machine_id UUID,
+  season TEXT,
+  liters NUMERIC(14,2) NOT NULL,
+  amount NUMERIC(14,2),
+  tx_count INT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_fuel_rollup_grain_bucket ON fuel_rollup(grain, bucket_start);
+
+--changeset agrocrm:067-create-material-rollup-table
+-- Агрегаты выдач материалов по тем же интервалам, с разбивкой по материалу
+CREATE TABLE IF NOT EXISTS material_rollup (
+  grain TEXT NOT NULL CHECK (grain IN ('HOUR','DAY','MONTH')),
+  bucket_start TIMESTAMPTZ NOT NULL,
+  field_id UUID,
+  machine_id UUID,
+  season TEXT,
+  material_id UUID NOT NULL,
+  qty NUMERIC(14,3) NOT NULL,
+  cost NUMERIC(14,2),
+  issue_count INT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_material_rollup_grain_bucket ON material_rollup(grain, bucket_start);
+
+--changeset agrocrm:068-create-rollup-watermark-table
+-- До какого created_at исходные строки уже учтены в агрегатах
+CREATE TABLE IF NOT EXISTS rollup_watermark (
+  source TEXT PRIMARY KEY,
+  watermark TIMESTAMPTZ NOT NULL,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+--changeset agrocrm:069-add-rollup-source-indexes
+-- Новые строки по водяному знаку и пересчет часовых интервалов
+CREATE INDEX IF NOT EXISTS idx_fuel_created_at ON fuel_transaction(created_at);
+CREATE INDEX IF NOT EXISTS idx_fuel_ts ON fuel_transaction(ts);
+CREATE INDEX IF NOT EXISTS idx_material_issue_created_at ON material_issue(created_at);
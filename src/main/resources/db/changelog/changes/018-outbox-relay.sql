@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset agrocrm:070-outbox-event-notify splitStatements:false
+-- Уведомление ретранслятора о новых событиях: один NOTIFY на оператор, так
+-- что пакетная вставка будит ретранслятор один раз. Доставляется после
+-- коммита, поэтому ретранслятор видит вставленные строки.
+CREATE OR REPLACE FUNCTION outbox_event_notify() RETURNS trigger AS $$
+BEGIN
+  PERFORM pg_notify('outbox_event', '');
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_outbox_event_notify ON outbox_event;
+CREATE TRIGGER trg_outbox_event_notify AFTER INSERT ON outbox_event
+  FOR EACH STATEMENT EXECUTE FUNCTION outbox_event_notify();
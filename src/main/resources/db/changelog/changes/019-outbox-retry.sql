@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset agrocrm:071-outbox-event-retry-columns
+-- Повторные попытки отправки: FAILED - ждет следующей попытки в
+-- next_attempt_at, DEAD - попытки исчерпаны, событие ждет ручного повтора.
+-- Ранее упавшие события получают еще один шанс.
+ALTER TABLE outbox_event ADD COLUMN IF NOT EXISTS attempts INT NOT NULL DEFAULT 0;
+ALTER TABLE outbox_event ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now();
+ALTER TABLE outbox_event DROP CONSTRAINT IF EXISTS outbox_event_status_check;
+ALTER TABLE outbox_event ADD CONSTRAINT outbox_event_status_check CHECK (status IN ('NEW','SENT','FAILED','DEAD'));
+UPDATE outbox_event SET attempts = 1 WHERE status = 'FAILED';
+
+--changeset agrocrm:072-outbox-event-pending-index
+-- Ретранслятор читает только ожидающие отправки строки; отправленная история
+-- в индекс не входит, и его размер не растет со временем
+CREATE INDEX IF NOT EXISTS idx_outbox_pending ON outbox_event(next_attempt_at, id) WHERE status IN ('NEW','FAILED');
+CREATE INDEX IF NOT EXISTS idx_outbox_dead ON outbox_event(id) WHERE status = 'DEAD';
+DROP INDEX IF EXISTS idx_outbox_status;
@@ -0,0 +1,89 @@
+--liquibase formatted sql
+
+--changeset agrocrm:073-ensure-monthly-partitions-function splitStatements:false
+-- Создает недостающие месячные секции parent_pYYYYMM (границы - начало
+-- месяца по UTC) с месяца from_day по месяц to_day включительно.
+-- Возвращает число созданных секций.
+CREATE OR REPLACE FUNCTION ensure_monthly_partitions(parent TEXT, from_day DATE, to_day DATE) RETURNS INT AS $$
+DECLARE
+  m DATE := date_trunc('month', from_day)::date;
+  part TEXT;
+  created INT := 0;
+BEGIN
+  WHILE m <= to_day LOOP
+    part := parent || '_p' || to_char(m, 'YYYYMM');
+    IF to_regclass(part) IS NULL THEN
+      EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)', part, parent,
+                     m::timestamp AT TIME ZONE 'UTC', (m + interval '1 month')::timestamp AT TIME ZONE 'UTC');
+      created := created + 1;
+    END IF;
+    m := (m + interval '1 month')::date;
+  END LOOP;
+  RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+--changeset agrocrm:074-partition-outbox-event
+-- outbox_event секционируется по месяцам created_at: отправленные месяцы
+-- удаляются целыми секциями вместо построчного DELETE. Первичный ключ
+-- включает ключ секционирования. Секция по умолчанию - страховка на случай,
+-- если заранее созданные секции закончились.
+ALTER TABLE outbox_event RENAME TO outbox_event_legacy;
+ALTER INDEX outbox_event_pkey RENAME TO outbox_event_legacy_pkey;
+DROP INDEX IF EXISTS idx_outbox_pending;
+DROP INDEX IF EXISTS idx_outbox_dead;
+CREATE TABLE outbox_event (
+  id BIGINT NOT NULL DEFAULT nextval('outbox_event_id_seq'),
+  event_type TEXT NOT NULL,
+  aggregate_type TEXT NOT NULL,
+  aggregate_id UUID,
+  payload JSONB NOT NULL,
+  status TEXT NOT NULL DEFAULT 'NEW' CHECK (status IN ('NEW','SENT','FAILED','DEAD')),
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  last_error TEXT,
+  attempts INT NOT NULL DEFAULT 0,
+  next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+ALTER SEQUENCE outbox_event_id_seq OWNED BY outbox_event.id;
+CREATE TABLE outbox_event_default PARTITION OF outbox_event DEFAULT;
+SELECT ensure_monthly_partitions('outbox_event',
+  (COALESCE((SELECT MIN(created_at) FROM outbox_event_legacy), now()) AT TIME ZONE 'UTC')::date,
+  ((now() + interval '3 months') AT TIME ZONE 'UTC')::date);
+INSERT INTO outbox_event (id, event_type, aggregate_type, aggregate_id, payload, status, created_at, last_error, attempts, next_attempt_at)
+  SELECT id, event_type, aggregate_type, aggregate_id, payload, status, created_at, last_error, attempts, next_attempt_at
+  FROM outbox_event_legacy;
+DROP TABLE outbox_event_legacy;
+CREATE INDEX idx_outbox_pending ON outbox_event(next_attempt_at, id) WHERE status IN ('NEW','FAILED');
+CREATE INDEX idx_outbox_dead ON outbox_event(id) WHERE status = 'DEAD';
+CREATE TRIGGER trg_outbox_event_notify AFTER INSERT ON outbox_event
+  FOR EACH STATEMENT EXECUTE FUNCTION outbox_event_notify();
+
+--changeset agrocrm:075-partition-audit-log
+-- audit_log секционируется по месяцам ts, старые месяцы удаляются целыми
+-- секциями по app.partitions.audit.retentionMonths
+ALTER TABLE audit_log RENAME TO audit_log_legacy;
+ALTER INDEX audit_log_pkey RENAME TO audit_log_legacy_pkey;
+DROP INDEX IF EXISTS idx_audit_log_user_id;
+DROP INDEX IF EXISTS idx_audit_log_ts;
+CREATE TABLE audit_log (
+  id BIGINT NOT NULL DEFAULT nextval('audit_log_id_seq'),
+  user_id UUID CONSTRAINT fk_audit_log_user_id REFERENCES app_user(id) ON DELETE SET NULL,
+  action TEXT NOT NULL,
+  entity TEXT,
+  entity_id TEXT,
+  ts TIMESTAMPTZ NOT NULL DEFAULT now(),
+  details JSONB,
+  PRIMARY KEY (id, ts)
+) PARTITION BY RANGE (ts);
+ALTER SEQUENCE audit_log_id_seq OWNED BY audit_log.id;
+CREATE TABLE audit_log_default PARTITION OF audit_log DEFAULT;
+SELECT ensure_monthly_partitions('audit_log',
+  (COALESCE((SELECT MIN(ts) FROM audit_log_legacy), now()) AT TIME ZONE 'UTC')::date,
+  ((now() + interval '3 months') AT TIME ZONE 'UTC')::date);
+INSERT INTO audit_log (id, user_id, action, entity, entity_id, ts, details)
+  SELECT id, user_id, action, entity, entity_id, ts, details FROM audit_log_legacy;
+DROP TABLE audit_log_legacy;
+CREATE INDEX idx_audit_log_ts ON audit_log(ts);
+CREATE INDEX idx_audit_log_user_id ON audit_log(user_id, ts);
+CREATE INDEX idx_audit_log_action ON audit_log(action, ts);
@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset agrocrm:076-add-fuel-night-setting
+-- Часовой пояс и окно ночи, по которым посчитан is_night в fuel_transaction.
+-- Бэкфилл 055 считал по Europe/Moscow и 22-06; если app.farm.timezone или
+-- app.fuel.night.* отличаются, приложение при старте пересчитывает флаг и
+-- обновляет эту строку
+CREATE TABLE IF NOT EXISTS fuel_night_setting (
+  id INT PRIMARY KEY CHECK (id = 1),
+  timezone TEXT NOT NULL,
+  start_hour INT NOT NULL,
+  end_hour INT NOT NULL,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+INSERT INTO fuel_night_setting (id, timezone, start_hour, end_hour) VALUES (1, 'Europe/Moscow', 22, 6)
+ON CONFLICT (id) DO NOTHING;
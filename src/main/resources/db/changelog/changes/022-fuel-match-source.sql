@@ -0,0 +1,8 @@
+--liquibase formatted sql
+
+--changeset agrocrm:077-add-fuel-transaction-auto-matched
+-- Задачу проставил сопоставитель; такие связи повторное сопоставление
+-- снимает и ищет заново. Задача, пришедшая с транзакцией или заданная
+-- вручную, не трогается. Существующие связи считаются ручными: сопоставленные
+-- автоматически до этой миграции от них не отличить
+ALTER TABLE fuel_transaction ADD COLUMN IF NOT EXISTS auto_matched BOOLEAN NOT NULL DEFAULT false;
@@ -0,0 +1,22 @@
+--liquibase formatted sql
+
+--changeset agrocrm:078-add-rollup-unique-keys splitStatements:false
+-- Один агрегат на интервал и набор измерений. Дубли могли остаться от
+-- пересчета, шедшего параллельно с плановым; их суммы неверны, поэтому
+-- агрегаты такого источника удаляются вместе с водяным знаком и
+-- пересчитываются планировщиком по всей истории
+DO $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM fuel_rollup GROUP BY grain, bucket_start, field_id, machine_id, season HAVING COUNT(*) > 1) THEN
+    TRUNCATE fuel_rollup;
+    DELETE FROM rollup_watermark WHERE source = 'FUEL';
+  END IF;
+  IF EXISTS (SELECT 1 FROM material_rollup GROUP BY grain, bucket_start, field_id, machine_id, season, material_id HAVING COUNT(*) > 1) THEN
+    TRUNCATE material_rollup;
+    DELETE FROM rollup_watermark WHERE source = 'MATERIAL';
+  END IF;
+END $$;
+CREATE UNIQUE INDEX IF NOT EXISTS uq_fuel_rollup_bucket
+  ON fuel_rollup(grain, bucket_start, field_id, machine_id, season) NULLS NOT DISTINCT;
+CREATE UNIQUE INDEX IF NOT EXISTS uq_material_rollup_bucket
+  ON material_rollup(grain, bucket_start, field_id, machine_id, season, material_id) NULLS NOT DISTINCT;
@@ -0,0 +1,6 @@
+--liquibase formatted sql
+
+--changeset agrocrm:079-add-outbox-pending-aggregate-index
+-- Ретранслятор забирает только самое старое ожидающее событие агрегата и
+-- проверяет, нет ли более раннего
+CREATE INDEX IF NOT EXISTS idx_outbox_pending_aggregate ON outbox_event(aggregate_id, id) WHERE status IN ('NEW','FAILED');
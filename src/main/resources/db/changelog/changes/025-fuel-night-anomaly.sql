@@ -0,0 +1,13 @@
+--liquibase formatted sql
+
+--changeset agrocrm:080-sync-fuel-night-anomaly
+-- Бэкфилл 055 выставил только is_night; код NIGHT_REFUEL в anomalies, который
+-- пишется при приеме, приводится в соответствие с флагом. 055 уже применена
+-- и не меняется, дальнейшие пересчеты флага меняют и код
+UPDATE fuel_transaction
+   SET anomalies = CASE WHEN is_night
+                        THEN (CASE WHEN anomalies IS NULL OR jsonb_typeof(anomalies) = 'null' THEN '[]'::jsonb
+                                   WHEN jsonb_typeof(anomalies) = 'array' THEN anomalies
+                                   ELSE jsonb_build_array(anomalies) END) || '["NIGHT_REFUEL"]'::jsonb
+                        ELSE anomalies - 'NIGHT_REFUEL' END
+ WHERE is_night <> COALESCE(anomalies @> '["NIGHT_REFUEL"]'::jsonb, false);